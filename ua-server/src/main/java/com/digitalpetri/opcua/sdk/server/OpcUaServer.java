@@ -35,14 +35,20 @@ import java.util.Set;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.ScheduledExecutorService;
 
+import com.codahale.metrics.Counter;
 import com.digitalpetri.opcua.sdk.core.ServerTable;
 import com.digitalpetri.opcua.sdk.server.api.AbstractUaNodeManager;
 import com.digitalpetri.opcua.sdk.server.api.UaNodeManager;
 import com.digitalpetri.opcua.sdk.server.api.config.OpcUaServerConfig;
+import com.digitalpetri.opcua.sdk.server.events.EventFieldRegistry;
+import com.digitalpetri.opcua.sdk.server.events.EventNotifier;
+import com.digitalpetri.opcua.sdk.server.events.EventRouter;
+import com.digitalpetri.opcua.sdk.server.events.EventTypeHierarchy;
 import com.digitalpetri.opcua.sdk.server.namespaces.OpcUaNamespace;
 import com.digitalpetri.opcua.sdk.server.namespaces.VendorNamespace;
-import com.digitalpetri.opcua.sdk.server.services.helpers.BrowseHelper.BrowseContinuationPoint;
+import com.digitalpetri.opcua.sdk.server.subscriptions.PublishingScheduler;
 import com.digitalpetri.opcua.sdk.server.subscriptions.Subscription;
+import com.digitalpetri.opcua.sdk.server.util.ReferenceTypeHierarchy;
 import com.digitalpetri.opcua.stack.core.BuiltinReferenceType;
 import com.digitalpetri.opcua.stack.core.ReferenceType;
 import com.digitalpetri.opcua.stack.core.Stack;
@@ -69,8 +75,6 @@ import com.digitalpetri.opcua.stack.core.util.ManifestUtil;
 import com.digitalpetri.opcua.stack.server.tcp.UaTcpStackServer;
 import com.google.common.collect.Maps;
 import com.google.common.collect.Sets;
-import com.google.common.eventbus.AsyncEventBus;
-import com.google.common.eventbus.EventBus;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -83,20 +87,26 @@ public class OpcUaServer {
 
     private final Logger logger = LoggerFactory.getLogger(getClass());
 
-    private final Map<ByteString, BrowseContinuationPoint> browseContinuationPoints = Maps.newConcurrentMap();
-
     private final UaNodeManager nodeManager = new OpcUaNodeManager();
 
-    private final Map<NodeId, ReferenceType> referenceTypes = Maps.newConcurrentMap();
+    private final ReferenceTypeHierarchy referenceTypeHierarchy = new ReferenceTypeHierarchy();
 
     private final Map<UInteger, Subscription> subscriptions = Maps.newConcurrentMap();
 
+    private final Counter retransmissionMemory = new Counter();
+    private final Counter browseContinuationPointMemory = new Counter();
+    private final Map<Long, Counter> samplingOverruns = Maps.newConcurrentMap();
+
     private final NamespaceManager namespaceManager = new NamespaceManager();
     private final SessionManager sessionManager = new SessionManager(this);
     private final ServerTable serverTable = new ServerTable();
 
     private final UaStackServer stackServer;
-    private final EventBus eventBus;
+    private final EventRouter eventRouter;
+    private final EventNotifier eventNotifier;
+    private final PublishingScheduler publishingScheduler;
+    private final EventTypeHierarchy eventTypeHierarchy = new EventTypeHierarchy(nodeManager);
+    private final EventFieldRegistry eventFieldRegistry = new EventFieldRegistry(eventTypeHierarchy);
 
     private final OpcUaNamespace uaNamespace;
     private final VendorNamespace vendorNamespace;
@@ -125,7 +135,7 @@ public class OpcUaServer {
         serverTable.addUri(stackServer.getApplicationDescription().getApplicationUri());
 
         for (ReferenceType referenceType : BuiltinReferenceType.values()) {
-            referenceTypes.put(referenceType.getNodeId(), referenceType);
+            referenceTypeHierarchy.register(referenceType);
         }
 
         String configuredHostname = config.getHostname();
@@ -161,7 +171,12 @@ public class OpcUaServer {
             }
         }
 
-        eventBus = new AsyncEventBus("server", stackServer.getExecutorService());
+        eventRouter = new EventRouter(nodeManager, eventFieldRegistry, stackServer.getExecutorService());
+        eventNotifier = new EventNotifier(
+                (int) Math.min(config.getLimits().getMaxEventQueueSize().longValue(), Integer.MAX_VALUE),
+                eventRouter,
+                stackServer.getExecutorService());
+        publishingScheduler = new PublishingScheduler(stackServer.getExecutorService());
 
         logger.info("digitalpetri opc-ua stack version: {}", Stack.VERSION);
         logger.info("digitalpetri opc-ua sdk version: {}", SDK_VERSION);
@@ -202,11 +217,13 @@ public class OpcUaServer {
     }
 
     public void startup() {
+        publishingScheduler.startup();
         stackServer.startup();
     }
 
     public void shutdown() {
         stackServer.shutdown();
+        publishingScheduler.shutdown();
     }
 
     private static String endpointUrl(String hostname, int port, String serverName) {
@@ -243,8 +260,15 @@ public class OpcUaServer {
         return serverTable;
     }
 
-    public EventBus getEventBus() {
-        return eventBus;
+    public EventRouter getEventRouter() {
+        return eventRouter;
+    }
+
+    /**
+     * @return the {@link EventNotifier} to raise events through.
+     */
+    public EventNotifier getEventNotifier() {
+        return eventNotifier;
     }
 
     public Map<UInteger, Subscription> getSubscriptions() {
@@ -267,6 +291,25 @@ public class OpcUaServer {
         return Stack.sharedScheduledExecutor();
     }
 
+    public PublishingScheduler getPublishingScheduler() {
+        return publishingScheduler;
+    }
+
+    public EventTypeHierarchy getEventTypeHierarchy() {
+        return eventTypeHierarchy;
+    }
+
+    public EventFieldRegistry getEventFieldRegistry() {
+        return eventFieldRegistry;
+    }
+
+    /**
+     * @return a {@link Counter} of the estimated bytes held by all Subscriptions for Republish.
+     */
+    public Counter getRetransmissionMemory() {
+        return retransmissionMemory;
+    }
+
     public ChannelConfig getChannelConfig() {
         return stackServer.getChannelConfig();
     }
@@ -295,12 +338,30 @@ public class OpcUaServer {
         return stackServer;
     }
 
+    /**
+     * @return a read-only view of the known reference types; add types through {@link #getReferenceTypeHierarchy()}.
+     */
     public Map<NodeId, ReferenceType> getReferenceTypes() {
-        return referenceTypes;
+        return referenceTypeHierarchy.getReferenceTypes();
+    }
+
+    public ReferenceTypeHierarchy getReferenceTypeHierarchy() {
+        return referenceTypeHierarchy;
+    }
+
+    /**
+     * @return a {@link Counter} of the estimated bytes held by all sessions' Browse continuation points.
+     */
+    public Counter getBrowseContinuationPointMemory() {
+        return browseContinuationPointMemory;
     }
 
-    public Map<ByteString, BrowseContinuationPoint> getBrowseContinuationPoints() {
-        return browseContinuationPoints;
+    /**
+     * @return the {@link Counter}s of sampling ticks skipped by every SubscriptionModel, by sampling interval in
+     * milliseconds.
+     */
+    public Map<Long, Counter> getSamplingOverruns() {
+        return samplingOverruns;
     }
 
     private static class OpcUaNodeManager extends AbstractUaNodeManager {}
@@ -25,6 +25,7 @@ import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
 import javax.annotation.Nullable;
 
+import com.digitalpetri.opcua.sdk.server.api.config.OpcUaServerConfigLimits;
 import com.digitalpetri.opcua.sdk.server.services.AttributeServices;
 import com.digitalpetri.opcua.sdk.server.services.MethodServices;
 import com.digitalpetri.opcua.sdk.server.services.MonitoredItemServices;
@@ -32,6 +33,7 @@ import com.digitalpetri.opcua.sdk.server.services.NodeManagementServices;
 import com.digitalpetri.opcua.sdk.server.services.QueryServices;
 import com.digitalpetri.opcua.sdk.server.services.SubscriptionServices;
 import com.digitalpetri.opcua.sdk.server.services.ViewServices;
+import com.digitalpetri.opcua.sdk.server.services.helpers.BrowseContinuationPoints;
 import com.digitalpetri.opcua.sdk.server.subscriptions.SubscriptionManager;
 import com.digitalpetri.opcua.stack.core.StatusCodes;
 import com.digitalpetri.opcua.stack.core.UaException;
@@ -61,6 +63,7 @@ public class Session implements SessionServiceSet {
     private final List<LifecycleListener> listeners = Lists.newCopyOnWriteArrayList();
 
     private final SubscriptionManager subscriptionManager;
+    private final BrowseContinuationPoints browseContinuationPoints;
 
     private volatile long secureChannelId;
 
@@ -99,6 +102,13 @@ public class Session implements SessionServiceSet {
 
         subscriptionManager = new SubscriptionManager(this, server);
 
+        OpcUaServerConfigLimits limits = server.getConfig().getLimits();
+
+        browseContinuationPoints = new BrowseContinuationPoints(
+                limits.getMaxBrowseContinuationPoints().intValue(),
+                TimeUnit.NANOSECONDS.convert(limits.getBrowseContinuationPointTimeout().longValue(), TimeUnit.MILLISECONDS),
+                server.getBrowseContinuationPointMemory());
+
         attributeServices = new AttributeServices();
         methodServices = new MethodServices();
         monitoredItemServices = new MonitoredItemServices(subscriptionManager);
@@ -160,6 +170,7 @@ public class Session implements SessionServiceSet {
             logger.debug("Session id={} lifetime expired ({}ms).", sessionId, sessionTimeout.toMillis());
 
             subscriptionManager.sessionClosed(true);
+            browseContinuationPoints.clear();
 
             listeners.forEach(listener -> listener.onSessionClosed(this, true));
         } else {
@@ -208,6 +219,10 @@ public class Session implements SessionServiceSet {
         return viewServices;
     }
 
+    public BrowseContinuationPoints getBrowseContinuationPoints() {
+        return browseContinuationPoints;
+    }
+
     public SubscriptionManager getSubscriptionManager() {
         return subscriptionManager;
     }
@@ -236,6 +251,7 @@ public class Session implements SessionServiceSet {
         }
 
         subscriptionManager.sessionClosed(deleteSubscriptions);
+        browseContinuationPoints.clear();
 
         listeners.forEach(listener -> listener.onSessionClosed(this, deleteSubscriptions));
     }
@@ -0,0 +1,47 @@
+/*
+ * digitalpetri OPC-UA SDK
+ *
+ * Copyright (C) 2015 Kevin Herron
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.digitalpetri.opcua.sdk.server.aggregates;
+
+import com.digitalpetri.opcua.stack.core.types.builtin.DataValue;
+
+/**
+ * Computes one aggregate over a sequence of processing intervals, one sample at a time, in constant memory.
+ * <p>
+ * Samples are added in time order and only Good numeric samples are added. When an interval ends,
+ * {@link #compute(long, long)} is called once; it returns the aggregate for that interval and readies the calculator
+ * for the next one. Calculators may carry the last sample of an interval over as a bounding value for the next.
+ */
+public interface AggregateCalculator {
+
+    /**
+     * @param time  the timestamp of the sample, in milliseconds since the epoch.
+     * @param value the value of the sample.
+     */
+    void add(long time, double value);
+
+    /**
+     * Compute the aggregate for the interval {@code [start, end)} and start a new interval.
+     *
+     * @param start the start of the interval, in milliseconds since the epoch.
+     * @param end   the end of the interval, in milliseconds since the epoch.
+     * @return the aggregate value and status; the caller sets its timestamps.
+     */
+    DataValue compute(long start, long end);
+
+}
@@ -0,0 +1,291 @@
+/*
+ * digitalpetri OPC-UA SDK
+ *
+ * Copyright (C) 2015 Kevin Herron
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.digitalpetri.opcua.sdk.server.aggregates;
+
+import com.digitalpetri.opcua.stack.core.Identifiers;
+import com.digitalpetri.opcua.stack.core.StatusCodes;
+import com.digitalpetri.opcua.stack.core.UaException;
+import com.digitalpetri.opcua.stack.core.types.builtin.DataValue;
+import com.digitalpetri.opcua.stack.core.types.builtin.NodeId;
+import com.digitalpetri.opcua.stack.core.types.builtin.StatusCode;
+import com.digitalpetri.opcua.stack.core.types.builtin.Variant;
+
+/**
+ * The {@link AggregateCalculator}s supported for monitored items: Average, Minimum, Maximum, Count, TimeAverage and
+ * Interpolative.
+ */
+public final class AggregateCalculators {
+
+    private static final DataValue NO_DATA = new DataValue(Variant.NULL_VALUE, new StatusCode(StatusCodes.Bad_NoData));
+
+    private AggregateCalculators() {}
+
+    /**
+     * @param aggregateType the NodeId of the AggregateFunction.
+     * @return a new {@link AggregateCalculator} for {@code aggregateType}.
+     * @throws UaException if {@code aggregateType} is not supported.
+     */
+    public static AggregateCalculator create(NodeId aggregateType) throws UaException {
+        if (Identifiers.AggregateFunction_Average.equals(aggregateType)) {
+            return new Average();
+        } else if (Identifiers.AggregateFunction_Minimum.equals(aggregateType)) {
+            return new Minimum();
+        } else if (Identifiers.AggregateFunction_Maximum.equals(aggregateType)) {
+            return new Maximum();
+        } else if (Identifiers.AggregateFunction_Count.equals(aggregateType)) {
+            return new Count();
+        } else if (Identifiers.AggregateFunction_TimeAverage.equals(aggregateType)) {
+            return new TimeAverage();
+        } else if (Identifiers.AggregateFunction_Interpolative.equals(aggregateType)) {
+            return new Interpolative();
+        } else {
+            throw new UaException(StatusCodes.Bad_AggregateNotSupported);
+        }
+    }
+
+    private static DataValue good(Object value) {
+        return new DataValue(new Variant(value), StatusCode.GOOD);
+    }
+
+    /**
+     * The arithmetic mean of the samples in the interval.
+     */
+    static final class Average implements AggregateCalculator {
+
+        private double sum = 0.0;
+        private int count = 0;
+
+        @Override
+        public void add(long time, double value) {
+            sum += value;
+            count++;
+        }
+
+        @Override
+        public DataValue compute(long start, long end) {
+            DataValue value = count > 0 ? good(sum / count) : NO_DATA;
+
+            sum = 0.0;
+            count = 0;
+
+            return value;
+        }
+
+    }
+
+    /**
+     * The smallest sample in the interval.
+     */
+    static final class Minimum implements AggregateCalculator {
+
+        private double min = Double.POSITIVE_INFINITY;
+        private boolean empty = true;
+
+        @Override
+        public void add(long time, double value) {
+            if (value < min) min = value;
+            empty = false;
+        }
+
+        @Override
+        public DataValue compute(long start, long end) {
+            DataValue value = empty ? NO_DATA : good(min);
+
+            min = Double.POSITIVE_INFINITY;
+            empty = true;
+
+            return value;
+        }
+
+    }
+
+    /**
+     * The largest sample in the interval.
+     */
+    static final class Maximum implements AggregateCalculator {
+
+        private double max = Double.NEGATIVE_INFINITY;
+        private boolean empty = true;
+
+        @Override
+        public void add(long time, double value) {
+            if (value > max) max = value;
+            empty = false;
+        }
+
+        @Override
+        public DataValue compute(long start, long end) {
+            DataValue value = empty ? NO_DATA : good(max);
+
+            max = Double.NEGATIVE_INFINITY;
+            empty = true;
+
+            return value;
+        }
+
+    }
+
+    /**
+     * The number of samples in the interval.
+     */
+    static final class Count implements AggregateCalculator {
+
+        private int count = 0;
+
+        @Override
+        public void add(long time, double value) {
+            count++;
+        }
+
+        @Override
+        public DataValue compute(long start, long end) {
+            DataValue value = good(count);
+
+            count = 0;
+
+            return value;
+        }
+
+    }
+
+    /**
+     * The time-weighted average of the interval: the area under the line through the samples divided by the time it
+     * covers. The start bound is interpolated between the last sample of the previous interval and the first sample of
+     * this one; the end bound holds the last sample's value, since later samples aren't known when the interval ends.
+     */
+    static final class TimeAverage implements AggregateCalculator {
+
+        private boolean hasLast = false;
+        private long lastTime;
+        private double lastValue;
+
+        /**
+         * The start of the current interval, once known; until then, the area starts at the first sample.
+         */
+        private long windowStart = Long.MIN_VALUE;
+
+        private double area = 0.0;
+        private long covered = 0L;
+
+        @Override
+        public void add(long time, double value) {
+            if (hasLast) {
+                long segmentStart = Math.max(lastTime, windowStart);
+
+                if (time > segmentStart) {
+                    double startValue = lastTime >= segmentStart ? lastValue :
+                            lastValue + (value - lastValue) * (segmentStart - lastTime) / (time - lastTime);
+
+                    area += (startValue + value) / 2.0 * (time - segmentStart);
+                    covered += time - segmentStart;
+                }
+            }
+
+            hasLast = true;
+            lastTime = time;
+            lastValue = value;
+        }
+
+        @Override
+        public DataValue compute(long start, long end) {
+            DataValue value;
+
+            if (hasLast) {
+                long tailStart = Math.max(lastTime, start);
+
+                if (end > tailStart) {
+                    area += lastValue * (end - tailStart);
+                    covered += end - tailStart;
+                }
+
+                value = covered > 0 ? good(area / covered) : good(lastValue);
+            } else {
+                value = NO_DATA;
+            }
+
+            windowStart = end;
+            area = 0.0;
+            covered = 0L;
+
+            return value;
+        }
+
+    }
+
+    /**
+     * The value at the start of the interval, linearly interpolated between the last sample before it and the first
+     * sample at or after it; if no sample follows the start, the last sample's value is held.
+     */
+    static final class Interpolative implements AggregateCalculator {
+
+        private boolean hasBefore = false;
+        private long beforeTime;
+        private double beforeValue;
+
+        private boolean hasAfter = false;
+        private long afterTime;
+        private double afterValue;
+
+        private long lastTime;
+        private double lastValue;
+        private boolean hasLast = false;
+
+        @Override
+        public void add(long time, double value) {
+            if (!hasAfter) {
+                hasAfter = true;
+                afterTime = time;
+                afterValue = value;
+            }
+
+            hasLast = true;
+            lastTime = time;
+            lastValue = value;
+        }
+
+        @Override
+        public DataValue compute(long start, long end) {
+            DataValue value;
+
+            if (hasAfter && afterTime == start) {
+                value = good(afterValue);
+            } else if (hasAfter && hasBefore && beforeTime < start) {
+                double fraction = (double) (start - beforeTime) / (afterTime - beforeTime);
+                value = good(beforeValue + (afterValue - beforeValue) * fraction);
+            } else if (hasBefore) {
+                value = good(beforeValue);
+            } else {
+                value = NO_DATA;
+            }
+
+            if (hasLast) {
+                hasBefore = true;
+                beforeTime = lastTime;
+                beforeValue = lastValue;
+            }
+
+            hasAfter = false;
+            hasLast = false;
+
+            return value;
+        }
+
+    }
+
+}
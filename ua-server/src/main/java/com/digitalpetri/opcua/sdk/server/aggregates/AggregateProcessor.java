@@ -0,0 +1,163 @@
+/*
+ * digitalpetri OPC-UA SDK
+ *
+ * Copyright (C) 2015 Kevin Herron
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.digitalpetri.opcua.sdk.server.aggregates;
+
+import java.util.Date;
+import java.util.function.Consumer;
+
+import com.digitalpetri.opcua.stack.core.types.builtin.DataValue;
+import com.digitalpetri.opcua.stack.core.types.builtin.DateTime;
+
+/**
+ * Feeds the samples of a monitored item to an {@link AggregateCalculator} and emits one value per processing
+ * interval.
+ * <p>
+ * Intervals are aligned to the filter's start time and closed by the server clock: the owner calls
+ * {@link #advance(long, Consumer)} at least once per interval, whether or not samples arrive, so an item whose value
+ * stops changing, or is never sampled at all, still reports every interval. An interval's value is timestamped with
+ * the start of the interval.
+ * <p>
+ * A sample timestamped before the current interval, e.g. a polled value that hasn't changed since an earlier
+ * interval, still holds and is added as of the start of the current interval. Sample times are kept in order and
+ * never later than the current time. Not thread-safe; callers synchronize.
+ */
+public class AggregateProcessor {
+
+    /**
+     * The maximum number of intervals closed at once after a gap in the samples; older intervals are skipped.
+     */
+    static final int MAX_CATCH_UP_INTERVALS = 100;
+
+    private final AggregateCalculator calculator;
+    private final long processingInterval;
+
+    private long intervalStart;
+    private long lastSampleTime = Long.MIN_VALUE;
+
+    /**
+     * @param calculator         the {@link AggregateCalculator} to feed.
+     * @param startTime          the time intervals are aligned to, in milliseconds since the epoch.
+     * @param processingInterval the length of each interval, in milliseconds; must be positive.
+     * @param now                the current time, in milliseconds since the epoch.
+     */
+    public AggregateProcessor(AggregateCalculator calculator, long startTime, long processingInterval, long now) {
+        this.calculator = calculator;
+        this.processingInterval = processingInterval;
+
+        this.intervalStart = align(startTime, now);
+    }
+
+    /**
+     * Close any intervals that ended at or before {@code now}, then add {@code sample} to the current interval if it
+     * is Good and numeric. Samples received before the first interval has started are ignored.
+     *
+     * @param sample the sample to add.
+     * @param now    the current time, in milliseconds since the epoch.
+     * @param output receives the value of each closed interval.
+     */
+    public void add(DataValue sample, long now, Consumer<DataValue> output) {
+        advance(now, output);
+
+        if (now < intervalStart || !sample.getStatusCode().isGood()) return;
+
+        Object value = sample.getValue() != null ? sample.getValue().getValue() : null;
+
+        double v;
+        if (value instanceof Number) {
+            v = ((Number) value).doubleValue();
+        } else if (value instanceof Boolean) {
+            v = (Boolean) value ? 1.0 : 0.0;
+        } else {
+            return;
+        }
+
+        long time = timeOf(sample, now);
+        time = Math.max(time, Math.max(intervalStart, lastSampleTime));
+        time = Math.min(time, Math.max(now, lastSampleTime));
+
+        lastSampleTime = time;
+        calculator.add(time, v);
+    }
+
+    /**
+     * Close any intervals that ended at or before {@code now}.
+     *
+     * @param now    the current time, in milliseconds since the epoch.
+     * @param output receives the value of each closed interval.
+     */
+    public void advance(long now, Consumer<DataValue> output) {
+        int closed = 0;
+
+        while (now >= intervalStart + processingInterval) {
+            if (closed == MAX_CATCH_UP_INTERVALS) {
+                long resumeAt = align(intervalStart, now);
+
+                // close the skipped intervals as one, discarding the value, so the calculator's next interval starts
+                // where processing resumes rather than where it stopped.
+                calculator.compute(intervalStart, resumeAt);
+
+                intervalStart = resumeAt;
+                break;
+            }
+
+            long intervalEnd = intervalStart + processingInterval;
+            DataValue value = calculator.compute(intervalStart, intervalEnd);
+
+            output.accept(new DataValue(
+                    value.getValue(),
+                    value.getStatusCode(),
+                    new DateTime(new Date(intervalStart)),
+                    DateTime.now()));
+
+            intervalStart = intervalEnd;
+            closed++;
+        }
+    }
+
+    /**
+     * @return the end of the current interval, in milliseconds since the epoch.
+     */
+    public long getIntervalEnd() {
+        return intervalStart + processingInterval;
+    }
+
+    public long getProcessingInterval() {
+        return processingInterval;
+    }
+
+    /**
+     * @return the start of the interval containing {@code now}, on the grid defined by {@code startTime}.
+     */
+    private long align(long startTime, long now) {
+        if (now <= startTime) return startTime;
+
+        return startTime + ((now - startTime) / processingInterval) * processingInterval;
+    }
+
+    private static long timeOf(DataValue sample, long now) {
+        if (sample.getSourceTime() != null) {
+            return sample.getSourceTime().getJavaTime();
+        } else if (sample.getServerTime() != null) {
+            return sample.getServerTime().getJavaTime();
+        } else {
+            return now;
+        }
+    }
+
+}
@@ -19,12 +19,33 @@
 
 package com.digitalpetri.opcua.sdk.server.api;
 
+import java.util.Collections;
+import java.util.Set;
+
 import com.digitalpetri.opcua.sdk.core.events.BaseEventType;
-import com.google.common.eventbus.Subscribe;
+import com.digitalpetri.opcua.sdk.server.events.EventFieldValues;
+import com.digitalpetri.opcua.stack.core.types.builtin.NodeId;
 
 public interface EventItem extends MonitoredItem {
 
-    @Subscribe
     void setEvent(BaseEventType event);
 
+    /**
+     * Receive {@code event} along with field values already computed for it by other items.
+     *
+     * @param event  the event.
+     * @param fields the {@link EventFieldValues} shared by every item {@code event} is delivered to.
+     */
+    default void setEvent(BaseEventType event, EventFieldValues fields) {
+        setEvent(event);
+    }
+
+    /**
+     * @return the event types this item is restricted to; events not of (a subtype of) one of them are never
+     * delivered. Empty if events of any type may be delivered.
+     */
+    default Set<NodeId> getEventTypes() {
+        return Collections.emptySet();
+    }
+
 }
@@ -20,6 +20,7 @@
 package com.digitalpetri.opcua.sdk.server.api;
 
 import java.util.List;
+import java.util.Optional;
 import java.util.concurrent.CompletableFuture;
 import javax.annotation.Nullable;
 
@@ -47,7 +48,8 @@ public interface ViewManager {
         OpcUaServer server = context.getServer();
 
         List<CompletableFuture<BrowseResult>> futures = nodesToBrowse.stream()
-                .map(browseDescription -> BrowseHelper.browse(server, view, maxReferencesPerNode, browseDescription))
+                .map(browseDescription -> BrowseHelper.browse(
+                        server, context.getSession().orElse(null), view, maxReferencesPerNode, browseDescription))
                 .collect(toList());
 
         sequence(futures).thenAccept(context::complete);
@@ -62,6 +64,17 @@ public interface ViewManager {
      */
     CompletableFuture<List<Reference>> getReferences(NodeId nodeId);
 
+    /**
+     * If every node in this namespace is held by a {@link UaNodeManager}, return it so that Browse can describe
+     * references straight from the nodes instead of reading each target's attributes through
+     * {@link AttributeManager#read}.
+     *
+     * @return the {@link UaNodeManager} holding this namespace's nodes, if there is one.
+     */
+    default Optional<UaNodeManager> getLocalNodeManager() {
+        return Optional.empty();
+    }
+
 
     final class BrowseContext extends OperationContext<BrowseDescription, BrowseResult> {
         public BrowseContext(OpcUaServer server,
@@ -41,6 +41,9 @@ public interface OpcUaServerConfigLimits {
         return (double) TimeUnit.MILLISECONDS.convert(24, TimeUnit.HOURS);
     }
 
+    /**
+     * @return the maximum number of Browse continuation points each session may hold at once.
+     */
     default UShort getMaxBrowseContinuationPoints() {
         return ushort(UShort.MAX_VALUE);
     }
@@ -109,4 +112,35 @@ public interface OpcUaServerConfigLimits {
         return uint(0x1FFFF);
     }
 
+    /**
+     * @return the maximum number of unacknowledged NotificationMessages each Subscription retains for Republish.
+     */
+    default UInteger getMaxRetransmissionQueueSize() {
+        return uint(256);
+    }
+
+    /**
+     * @return the maximum estimated encoded size, in bytes, of the unacknowledged NotificationMessages each
+     * Subscription retains for Republish.
+     */
+    default UInteger getMaxRetransmissionQueueBytes() {
+        return uint(4 * 1024 * 1024);
+    }
+
+    /**
+     * @return the maximum number of events raised through the server's EventNotifier that may be waiting to be routed
+     * to event items before producers are made to wait.
+     */
+    default UInteger getMaxEventQueueSize() {
+        return uint(65536);
+    }
+
+    /**
+     * @return how long, in milliseconds, a Browse continuation point is held without being continued before it's
+     * released.
+     */
+    default Double getBrowseContinuationPointTimeout() {
+        return (double) TimeUnit.MILLISECONDS.convert(5, TimeUnit.MINUTES);
+    }
+
 }
@@ -0,0 +1,655 @@
+/*
+ * digitalpetri OPC-UA SDK
+ *
+ * Copyright (C) 2015 Kevin Herron
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.digitalpetri.opcua.sdk.server.events;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+import com.digitalpetri.opcua.sdk.core.AttributeIds;
+import com.digitalpetri.opcua.stack.core.Identifiers;
+import com.digitalpetri.opcua.stack.core.StatusCodes;
+import com.digitalpetri.opcua.stack.core.UaException;
+import com.digitalpetri.opcua.stack.core.types.builtin.DateTime;
+import com.digitalpetri.opcua.stack.core.types.builtin.DiagnosticInfo;
+import com.digitalpetri.opcua.stack.core.types.builtin.ExtensionObject;
+import com.digitalpetri.opcua.stack.core.types.builtin.LocalizedText;
+import com.digitalpetri.opcua.stack.core.types.builtin.NodeId;
+import com.digitalpetri.opcua.stack.core.types.builtin.QualifiedName;
+import com.digitalpetri.opcua.stack.core.types.builtin.StatusCode;
+import com.digitalpetri.opcua.stack.core.types.builtin.Variant;
+import com.digitalpetri.opcua.stack.core.types.enumerated.FilterOperator;
+import com.digitalpetri.opcua.stack.core.types.structured.ContentFilter;
+import com.digitalpetri.opcua.stack.core.types.structured.ContentFilterElement;
+import com.digitalpetri.opcua.stack.core.types.structured.ContentFilterElementResult;
+import com.digitalpetri.opcua.stack.core.types.structured.ContentFilterResult;
+import com.digitalpetri.opcua.stack.core.types.structured.ElementOperand;
+import com.digitalpetri.opcua.stack.core.types.structured.EventFilter;
+import com.digitalpetri.opcua.stack.core.types.structured.EventFilterResult;
+import com.digitalpetri.opcua.stack.core.types.structured.LiteralOperand;
+import com.digitalpetri.opcua.stack.core.types.structured.SimpleAttributeOperand;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+
+import static com.digitalpetri.opcua.stack.core.types.builtin.unsigned.Unsigned.uint;
+
+/**
+ * An {@link EventFilter} compiled once into field accessors for its select clauses and an evaluator tree for its where
+ * clause.
+ * <p>
+ * Supported operators: Equals, IsNull, GreaterThan, LessThan, GreaterThanOrEqual, LessThanOrEqual, Like, Not, Between,
+ * InList, And, Or, BitwiseAnd, BitwiseOr and OfType. Supported operands: LiteralOperand, ElementOperand and
+ * SimpleAttributeOperand. The where clause uses the three-valued logic of Part 4, with {@code null} as NULL; an event
+ * passes only if it evaluates to TRUE.
+ */
+public class CompiledEventFilter {
+
+    private static final DiagnosticInfo[] NO_DIAGNOSTIC_INFOS = new DiagnosticInfo[0];
+
+    private static final String[] DEFAULT_FIELDS = {"EventId", "EventType", "SourceNode", "SourceName", "Time"};
+
+    private final AtomicBoolean released = new AtomicBoolean(false);
+
+    private final EventField[] selectClauses;
+    private final Operand whereClause;
+    private final Set<NodeId> eventTypes;
+    private final EventFilterResult filterResult;
+
+    private final EventFieldRegistry eventFields;
+    private final List<EventField> registeredFields;
+
+    private CompiledEventFilter(EventField[] selectClauses,
+                                Operand whereClause,
+                                Set<NodeId> eventTypes,
+                                EventFilterResult filterResult,
+                                EventFieldRegistry eventFields,
+                                List<EventField> registeredFields) {
+
+        this.selectClauses = selectClauses;
+        this.whereClause = whereClause;
+        this.eventTypes = eventTypes;
+        this.filterResult = filterResult;
+        this.eventFields = eventFields;
+        this.registeredFields = registeredFields;
+    }
+
+    /**
+     * @param event the event to test.
+     * @return {@code true} if {@code event} passes the where clause.
+     */
+    public boolean matches(EventFieldValues event) {
+        return whereClause == null || Boolean.TRUE.equals(whereClause.evaluate(event));
+    }
+
+    /**
+     * @param event the event to select fields from.
+     * @return the values of the select clauses for {@code event}.
+     */
+    public Variant[] select(EventFieldValues event) {
+        Variant[] fields = new Variant[selectClauses.length];
+
+        for (int i = 0; i < selectClauses.length; i++) {
+            EventField field = selectClauses[i];
+
+            fields[i] = field != null ? event.get(field) : Variant.NULL_VALUE;
+        }
+
+        return fields;
+    }
+
+    /**
+     * Get the event types the where clause restricts events to, derived from OfType operators that must hold for an
+     * event to pass. An event can only pass if its type is a subtype of at least one of them.
+     *
+     * @return the event types matching events must be a subtype of; empty if events of any type may match.
+     */
+    public Set<NodeId> getEventTypes() {
+        return eventTypes;
+    }
+
+    /**
+     * @return the {@link EventFilterResult}, or {@code null} if every clause compiled without error.
+     */
+    public EventFilterResult getFilterResult() {
+        return filterResult;
+    }
+
+    /**
+     * Release the fields this filter registered with its {@link EventFieldRegistry}. The filter can still be evaluated
+     * afterwards, but its values are no longer shared with other filters. Only the first call has any effect.
+     */
+    public void release() {
+        if (released.compareAndSet(false, true)) {
+            registeredFields.forEach(eventFields::release);
+        }
+    }
+
+    /**
+     * @param eventFields the {@link EventFieldRegistry} to resolve fields with.
+     * @return a filter that selects EventId, EventType, SourceNode, SourceName and Time from every event.
+     */
+    public static CompiledEventFilter defaultFilter(EventFieldRegistry eventFields) {
+        EventField[] fields = new EventField[DEFAULT_FIELDS.length];
+
+        try {
+            for (int i = 0; i < DEFAULT_FIELDS.length; i++) {
+                fields[i] = eventFields.compile(new SimpleAttributeOperand(
+                        Identifiers.BaseEventType,
+                        new QualifiedName[]{new QualifiedName(0, DEFAULT_FIELDS[i])},
+                        uint(AttributeIds.Value),
+                        null));
+            }
+        } catch (UaException e) {
+            throw new IllegalStateException(e);
+        }
+
+        return new CompiledEventFilter(
+                fields, null, Collections.emptySet(), null, eventFields, Arrays.asList(fields));
+    }
+
+    /**
+     * Compile {@code filter}.
+     * <p>
+     * Select clauses that fail to compile yield null values and are reported in the filter result; a where clause that
+     * fails to compile fails the whole filter.
+     *
+     * @param filter      the {@link EventFilter} to compile.
+     * @param eventFields the {@link EventFieldRegistry} to resolve fields with.
+     * @return a {@link CompiledEventFilter}; {@link #release()} it when it is no longer used.
+     * @throws UaException if the where clause is invalid or uses an unsupported operator or operand.
+     */
+    public static CompiledEventFilter compile(EventFilter filter, EventFieldRegistry eventFields) throws UaException {
+        SimpleAttributeOperand[] clauses = filter.getSelectClauses();
+
+        if (clauses == null || clauses.length == 0) {
+            throw new UaException(StatusCodes.Bad_EventFilterInvalid);
+        }
+
+        EventField[] selectClauses = new EventField[clauses.length];
+        StatusCode[] selectResults = new StatusCode[clauses.length];
+        boolean selectErrors = false;
+
+        List<EventField> registeredFields = Lists.newArrayList();
+
+        for (int i = 0; i < clauses.length; i++) {
+            try {
+                selectClauses[i] = eventFields.compile(clauses[i]);
+                selectResults[i] = StatusCode.GOOD;
+                registeredFields.add(selectClauses[i]);
+            } catch (UaException e) {
+                selectResults[i] = e.getStatusCode();
+                selectErrors = true;
+            }
+        }
+
+        ContentFilter where = filter.getWhereClause();
+        ContentFilterElement[] elements = where != null ? where.getElements() : null;
+
+        Operand whereClause = null;
+        Set<NodeId> types = Collections.emptySet();
+
+        if (elements != null && elements.length > 0) {
+            WhereClauseCompiler compiler = new WhereClauseCompiler(elements, eventFields, registeredFields);
+
+            try {
+                whereClause = compiler.compile();
+                types = compiler.getEventTypes();
+            } catch (UaException | RuntimeException e) {
+                registeredFields.forEach(eventFields::release);
+                throw e;
+            }
+        }
+
+        EventFilterResult filterResult = selectErrors ?
+                new EventFilterResult(
+                        selectResults,
+                        NO_DIAGNOSTIC_INFOS,
+                        new ContentFilterResult(new ContentFilterElementResult[0], NO_DIAGNOSTIC_INFOS)) :
+                null;
+
+        return new CompiledEventFilter(selectClauses, whereClause, types, filterResult, eventFields, registeredFields);
+    }
+
+    /**
+     * A compiled operand or operator; evaluates to a value, a {@link Boolean}, or {@code null} for NULL.
+     */
+    interface Operand {
+        Object evaluate(EventFieldValues event);
+    }
+
+    private static final class WhereClauseCompiler {
+
+        private final ContentFilterElement[] elements;
+        private final Operand[] compiled;
+        private final EventFieldRegistry eventFields;
+        private final List<EventField> registeredFields;
+
+        /**
+         * For each element, the event types an event must be a subtype of (one of) for the element to be TRUE.
+         */
+        private final List<Set<NodeId>> typeConstraints;
+
+        private WhereClauseCompiler(ContentFilterElement[] elements,
+                                    EventFieldRegistry eventFields,
+                                    List<EventField> registeredFields) {
+
+            this.elements = elements;
+            this.compiled = new Operand[elements.length];
+            this.eventFields = eventFields;
+            this.registeredFields = registeredFields;
+            this.typeConstraints = Lists.newArrayList(Collections.nCopies(elements.length, Collections.emptySet()));
+        }
+
+        private Set<NodeId> getEventTypes() {
+            return typeConstraints.get(0);
+        }
+
+        /**
+         * Compile from the last element to the first; an ElementOperand may only refer to a later element, so every
+         * reference is already compiled when it is needed and cycles are impossible.
+         */
+        private Operand compile() throws UaException {
+            for (int i = elements.length - 1; i >= 0; i--) {
+                compiled[i] = compileElement(i, elements[i]);
+                typeConstraints.set(i, typeConstraint(elements[i]));
+            }
+
+            return compiled[0];
+        }
+
+        private Operand compileElement(int index, ContentFilterElement element) throws UaException {
+            FilterOperator operator = element.getFilterOperator();
+            ExtensionObject[] operandXos = element.getFilterOperands();
+
+            if (operator == null) throw new UaException(StatusCodes.Bad_FilterOperatorInvalid);
+
+            Object[] raw = new Object[operandXos != null ? operandXos.length : 0];
+            Operand[] operands = new Operand[raw.length];
+
+            for (int i = 0; i < raw.length; i++) {
+                raw[i] = operandXos[i] != null ? operandXos[i].decode() : null;
+                operands[i] = compileOperand(index, raw[i]);
+            }
+
+            switch (operator) {
+                case Equals:
+                    checkCount(operands, 2);
+                    return event -> equal(operands[0].evaluate(event), operands[1].evaluate(event));
+
+                case IsNull:
+                    checkCount(operands, 1);
+                    return event -> operands[0].evaluate(event) == null;
+
+                case GreaterThan:
+                    checkCount(operands, 2);
+                    return event -> test(compare(operands[0].evaluate(event), operands[1].evaluate(event)), c -> c > 0);
+
+                case LessThan:
+                    checkCount(operands, 2);
+                    return event -> test(compare(operands[0].evaluate(event), operands[1].evaluate(event)), c -> c < 0);
+
+                case GreaterThanOrEqual:
+                    checkCount(operands, 2);
+                    return event -> test(compare(operands[0].evaluate(event), operands[1].evaluate(event)), c -> c >= 0);
+
+                case LessThanOrEqual:
+                    checkCount(operands, 2);
+                    return event -> test(compare(operands[0].evaluate(event), operands[1].evaluate(event)), c -> c <= 0);
+
+                case Like:
+                    checkCount(operands, 2);
+                    return compileLike(operands, raw);
+
+                case Not:
+                    checkCount(operands, 1);
+                    return event -> {
+                        Object value = operands[0].evaluate(event);
+                        return value instanceof Boolean ? !(Boolean) value : null;
+                    };
+
+                case Between:
+                    checkCount(operands, 3);
+                    return event -> {
+                        Object value = operands[0].evaluate(event);
+                        Integer low = compare(value, operands[1].evaluate(event));
+                        Integer high = compare(value, operands[2].evaluate(event));
+                        return (low == null || high == null) ? null : (low >= 0 && high <= 0);
+                    };
+
+                case InList:
+                    if (operands.length < 2) throw new UaException(StatusCodes.Bad_FilterOperandCountMismatch);
+                    return event -> {
+                        Object value = operands[0].evaluate(event);
+                        if (value == null) return null;
+                        for (int i = 1; i < operands.length; i++) {
+                            if (Boolean.TRUE.equals(equal(value, operands[i].evaluate(event)))) return true;
+                        }
+                        return false;
+                    };
+
+                case And:
+                    checkCount(operands, 2);
+                    return event -> {
+                        Object a = operands[0].evaluate(event);
+                        if (Boolean.FALSE.equals(a)) return false;
+                        Object b = operands[1].evaluate(event);
+                        if (Boolean.FALSE.equals(b)) return false;
+                        return (Boolean.TRUE.equals(a) && Boolean.TRUE.equals(b)) ? true : null;
+                    };
+
+                case Or:
+                    checkCount(operands, 2);
+                    return event -> {
+                        Object a = operands[0].evaluate(event);
+                        if (Boolean.TRUE.equals(a)) return true;
+                        Object b = operands[1].evaluate(event);
+                        if (Boolean.TRUE.equals(b)) return true;
+                        return (Boolean.FALSE.equals(a) && Boolean.FALSE.equals(b)) ? false : null;
+                    };
+
+                case BitwiseAnd:
+                    checkCount(operands, 2);
+                    return event -> bitwise(operands[0].evaluate(event), operands[1].evaluate(event), true);
+
+                case BitwiseOr:
+                    checkCount(operands, 2);
+                    return event -> bitwise(operands[0].evaluate(event), operands[1].evaluate(event), false);
+
+                case OfType:
+                    checkCount(operands, 1);
+                    if (!(literalOf(raw[0]) instanceof NodeId)) {
+                        throw new UaException(StatusCodes.Bad_FilterOperandInvalid);
+                    }
+                    NodeId typeId = (NodeId) literalOf(raw[0]);
+                    EventTypeHierarchy eventTypes = eventFields.getEventTypeHierarchy();
+                    return event -> eventTypes.isSubtypeOf(event.getEvent().getEventType(), typeId);
+
+                default:
+                    // Cast, InView and RelatedTo
+                    throw new UaException(StatusCodes.Bad_FilterOperatorUnsupported);
+            }
+        }
+
+        private Set<NodeId> typeConstraint(ContentFilterElement element) {
+            FilterOperator operator = element.getFilterOperator();
+            ExtensionObject[] operandXos = element.getFilterOperands();
+
+            if (operator == FilterOperator.OfType) {
+                NodeId typeId = (NodeId) literalOf(operandXos[0].decode());
+                return Collections.singleton(typeId);
+            } else if (operator == FilterOperator.And) {
+                Set<NodeId> a = typeConstraintOf(operandXos[0]);
+                return a.isEmpty() ? typeConstraintOf(operandXos[1]) : a;
+            } else if (operator == FilterOperator.Or) {
+                Set<NodeId> a = typeConstraintOf(operandXos[0]);
+                Set<NodeId> b = typeConstraintOf(operandXos[1]);
+                return (a.isEmpty() || b.isEmpty()) ? Collections.emptySet() : Sets.union(a, b).immutableCopy();
+            } else {
+                return Collections.emptySet();
+            }
+        }
+
+        private Set<NodeId> typeConstraintOf(ExtensionObject operandXo) {
+            Object operand = operandXo.decode();
+
+            if (operand instanceof ElementOperand) {
+                return typeConstraints.get(((ElementOperand) operand).getIndex().intValue());
+            } else {
+                return Collections.emptySet();
+            }
+        }
+
+        private Operand compileOperand(int index, Object operand) throws UaException {
+            if (operand instanceof LiteralOperand) {
+                Object literal = literalOf(operand);
+                return event -> literal;
+            } else if (operand instanceof ElementOperand) {
+                long target = ((ElementOperand) operand).getIndex().longValue();
+
+                if (target <= index || target >= compiled.length) {
+                    throw new UaException(StatusCodes.Bad_FilterOperandInvalid);
+                }
+
+                return compiled[(int) target];
+            } else if (operand instanceof SimpleAttributeOperand) {
+                EventField field = eventFields.compile((SimpleAttributeOperand) operand);
+                registeredFields.add(field);
+                return event -> event.get(field).getValue();
+            } else {
+                // AttributeOperand, or something that isn't an operand at all.
+                throw new UaException(StatusCodes.Bad_FilterOperandInvalid);
+            }
+        }
+
+        private Operand compileLike(Operand[] operands, Object[] raw) throws UaException {
+            Object pattern = literalOf(raw[1]);
+
+            if (pattern instanceof String) {
+                Pattern compiledPattern = likePattern((String) pattern);
+
+                if (compiledPattern == null) throw new UaException(StatusCodes.Bad_FilterOperandInvalid);
+
+                return event -> {
+                    String s = stringOf(operands[0].evaluate(event));
+                    return s != null ? compiledPattern.matcher(s).matches() : null;
+                };
+            }
+
+            return new LikeOperand(operands[0], operands[1]);
+        }
+
+        private static void checkCount(Operand[] operands, int expected) throws UaException {
+            if (operands.length != expected) {
+                throw new UaException(StatusCodes.Bad_FilterOperandCountMismatch);
+            }
+        }
+
+    }
+
+    /**
+     * A Like operator whose pattern isn't a literal, so it must be translated when evaluated. The last translation is
+     * kept and reused for as long as the pattern doesn't change; a malformed pattern evaluates to NULL.
+     */
+    static final class LikeOperand implements Operand {
+
+        private volatile CachedPattern last;
+
+        private final Operand value;
+        private final Operand pattern;
+
+        LikeOperand(Operand value, Operand pattern) {
+            this.value = value;
+            this.pattern = pattern;
+        }
+
+        @Override
+        public Object evaluate(EventFieldValues event) {
+            String s = stringOf(value.evaluate(event));
+            String p = stringOf(pattern.evaluate(event));
+
+            if (s == null || p == null) return null;
+
+            CachedPattern cached = last;
+
+            if (cached == null || !cached.source.equals(p)) {
+                cached = new CachedPattern(p, likePattern(p));
+                last = cached;
+            }
+
+            return cached.pattern != null ? cached.pattern.matcher(s).matches() : null;
+        }
+
+        private static final class CachedPattern {
+
+            private final String source;
+            private final Pattern pattern;
+
+            private CachedPattern(String source, Pattern pattern) {
+                this.source = source;
+                this.pattern = pattern;
+            }
+
+        }
+
+    }
+
+    /**
+     * @return the value of {@code operand} if it is a {@link LiteralOperand}, otherwise {@code null}.
+     */
+    private static Object literalOf(Object operand) {
+        if (operand instanceof LiteralOperand) {
+            Variant value = ((LiteralOperand) operand).getValue();
+            return value != null ? value.getValue() : null;
+        } else {
+            return null;
+        }
+    }
+
+    private interface IntPredicate {
+        boolean test(int c);
+    }
+
+    private static Boolean test(Integer comparison, IntPredicate predicate) {
+        return comparison != null ? predicate.test(comparison) : null;
+    }
+
+    private static Boolean equal(Object a, Object b) {
+        if (a == null || b == null) return null;
+
+        Integer c = compare(a, b);
+
+        return c != null ? c == 0 : a.equals(b);
+    }
+
+    /**
+     * Compare two values of compatible types.
+     *
+     * @return the comparison, or {@code null} if either value is null or they can't be compared.
+     */
+    private static Integer compare(Object a, Object b) {
+        if (a == null || b == null) return null;
+
+        if (a instanceof Number && b instanceof Number) {
+            Number na = (Number) a;
+            Number nb = (Number) b;
+
+            if (isFloatingPoint(na) || isFloatingPoint(nb)) {
+                return Double.compare(na.doubleValue(), nb.doubleValue());
+            } else {
+                return Long.compare(na.longValue(), nb.longValue());
+            }
+        }
+
+        if (a instanceof DateTime && b instanceof DateTime) {
+            return Long.compare(((DateTime) a).getUtcTime(), ((DateTime) b).getUtcTime());
+        }
+
+        if ((a instanceof String || a instanceof LocalizedText) && (b instanceof String || b instanceof LocalizedText)) {
+            String sa = stringOf(a);
+            String sb = stringOf(b);
+            return (sa != null && sb != null) ? sa.compareTo(sb) : null;
+        }
+
+        if (a instanceof Boolean && b instanceof Boolean) {
+            return Boolean.compare((Boolean) a, (Boolean) b);
+        }
+
+        return null;
+    }
+
+    private static boolean isFloatingPoint(Number n) {
+        return n instanceof Double || n instanceof Float;
+    }
+
+    private static Object bitwise(Object a, Object b, boolean and) {
+        if (!(a instanceof Number) || !(b instanceof Number)) return null;
+        if (isFloatingPoint((Number) a) || isFloatingPoint((Number) b)) return null;
+
+        long la = ((Number) a).longValue();
+        long lb = ((Number) b).longValue();
+
+        return and ? (la & lb) : (la | lb);
+    }
+
+    private static String stringOf(Object value) {
+        if (value instanceof String) return (String) value;
+        if (value instanceof LocalizedText) return ((LocalizedText) value).getText();
+        if (value instanceof QualifiedName) return ((QualifiedName) value).getName();
+        return null;
+    }
+
+    /**
+     * Translate a Like pattern ({@code %}, {@code _}, {@code [...]}, {@code [!...]} and {@code \} escapes) into a
+     * {@link Pattern}.
+     *
+     * @return the translated {@link Pattern}, or {@code null} if {@code pattern} is malformed, e.g. it has an empty
+     * or reversed character range.
+     */
+    static Pattern likePattern(String pattern) {
+        StringBuilder regex = new StringBuilder(pattern.length() + 8);
+
+        for (int i = 0; i < pattern.length(); i++) {
+            char c = pattern.charAt(i);
+
+            if (c == '%') {
+                regex.append(".*");
+            } else if (c == '_') {
+                regex.append('.');
+            } else if (c == '\\' && i + 1 < pattern.length()) {
+                appendLiteral(regex, pattern.charAt(++i));
+            } else if (c == '[' && pattern.indexOf(']', i + 1) > i + 1) {
+                int end = pattern.indexOf(']', i + 1);
+                int start = i + 1;
+
+                regex.append('[');
+                if (pattern.charAt(start) == '!' || pattern.charAt(start) == '^') {
+                    regex.append('^');
+                    start++;
+                }
+                if (start == end) return null;
+                for (int j = start; j < end; j++) {
+                    char cc = pattern.charAt(j);
+                    if (cc == '\\' || cc == '[' || cc == '&' || cc == '^') regex.append('\\');
+                    regex.append(cc);
+                }
+                regex.append(']');
+
+                i = end;
+            } else {
+                appendLiteral(regex, c);
+            }
+        }
+
+        try {
+            return Pattern.compile(regex.toString(), Pattern.DOTALL);
+        } catch (PatternSyntaxException e) {
+            return null;
+        }
+    }
+
+    private static void appendLiteral(StringBuilder regex, char c) {
+        if ("\\.^$|?*+()[]{}".indexOf(c) >= 0) regex.append('\\');
+        regex.append(c);
+    }
+
+}
@@ -0,0 +1,195 @@
+/*
+ * digitalpetri OPC-UA SDK
+ *
+ * Copyright (C) 2015 Kevin Herron
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.digitalpetri.opcua.sdk.server.events;
+
+import java.util.function.Function;
+
+import com.digitalpetri.opcua.sdk.core.AttributeIds;
+import com.digitalpetri.opcua.sdk.core.NumericRange;
+import com.digitalpetri.opcua.sdk.core.events.BaseEventType;
+import com.digitalpetri.opcua.stack.core.Identifiers;
+import com.digitalpetri.opcua.stack.core.StatusCodes;
+import com.digitalpetri.opcua.stack.core.UaException;
+import com.digitalpetri.opcua.stack.core.types.builtin.DataValue;
+import com.digitalpetri.opcua.stack.core.types.builtin.ExtensionObject;
+import com.digitalpetri.opcua.stack.core.types.builtin.NodeId;
+import com.digitalpetri.opcua.stack.core.types.builtin.QualifiedName;
+import com.digitalpetri.opcua.stack.core.types.builtin.Variant;
+import com.digitalpetri.opcua.stack.core.types.structured.SimpleAttributeOperand;
+
+/**
+ * A {@link SimpleAttributeOperand} resolved once into an accessor on {@link BaseEventType}.
+ */
+public final class EventField {
+
+    private final NodeId typeDefinitionId;
+    private final NumericRange indexRange;
+    private final Function<BaseEventType, Object> accessor;
+
+    private final EventTypeHierarchy eventTypes;
+
+    private final int slot;
+
+    private EventField(NodeId typeDefinitionId,
+                       NumericRange indexRange,
+                       Function<BaseEventType, Object> accessor,
+                       EventTypeHierarchy eventTypes,
+                       int slot) {
+
+        this.typeDefinitionId = typeDefinitionId;
+        this.indexRange = indexRange;
+        this.accessor = accessor;
+        this.eventTypes = eventTypes;
+        this.slot = slot;
+    }
+
+    /**
+     * @return the index of this field's value in an {@link EventFieldValues}, or -1 if its value isn't shared.
+     */
+    int getSlot() {
+        return slot;
+    }
+
+    /**
+     * @return a copy of this field whose value is shared through {@code slot} of an {@link EventFieldValues}.
+     */
+    EventField withSlot(int slot) {
+        return new EventField(typeDefinitionId, indexRange, accessor, eventTypes, slot);
+    }
+
+    /**
+     * @param event the event to get this field of.
+     * @return the value of this field, or {@code null} if {@code event} doesn't have it.
+     */
+    public Object getValue(BaseEventType event) {
+        if (typeDefinitionId != null && !eventTypes.isSubtypeOf(event.getEventType(), typeDefinitionId)) {
+            return null;
+        }
+
+        Object value = accessor.apply(event);
+
+        if (value != null && indexRange != null) {
+            try {
+                value = NumericRange.readFromValueAtRange(new Variant(value), indexRange);
+            } catch (UaException e) {
+                value = null;
+            }
+        }
+
+        return value;
+    }
+
+    /**
+     * @param event the event to get this field of.
+     * @return the value of this field as a {@link Variant}; {@link Variant#NULL_VALUE} if {@code event} doesn't have it.
+     */
+    public Variant getVariant(BaseEventType event) {
+        Object value = getValue(event);
+
+        return value != null ? new Variant(value) : Variant.NULL_VALUE;
+    }
+
+    /**
+     * Resolve {@code operand} into an {@link EventField}.
+     * <p>
+     * Fields resolved this way don't share values between filters; see {@link EventFieldRegistry#compile}.
+     *
+     * @param operand    the {@link SimpleAttributeOperand} to resolve.
+     * @param eventTypes the {@link EventTypeHierarchy} used to check the operand's TypeDefinitionId.
+     * @return an {@link EventField}.
+     * @throws UaException if the operand is invalid.
+     */
+    public static EventField compile(SimpleAttributeOperand operand, EventTypeHierarchy eventTypes) throws UaException {
+        int attributeId = operand.getAttributeId() != null ? operand.getAttributeId().intValue() : -1;
+
+        if (attributeId != AttributeIds.Value && attributeId != AttributeIds.NodeId) {
+            throw new UaException(StatusCodes.Bad_AttributeIdInvalid);
+        }
+
+        NodeId typeDefinitionId = operand.getTypeDefinitionId();
+
+        if (typeDefinitionId == null || typeDefinitionId.isNull() ||
+                Identifiers.BaseEventType.equals(typeDefinitionId)) {
+            typeDefinitionId = null;
+        }
+
+        String indexRange = operand.getIndexRange();
+
+        NumericRange range = (indexRange != null && !indexRange.isEmpty()) ?
+                NumericRange.parse(indexRange) : null;
+
+        QualifiedName[] browsePath = operand.getBrowsePath();
+
+        if (browsePath != null) {
+            for (QualifiedName name : browsePath) {
+                if (name == null || name.getName() == null || name.getName().isEmpty()) {
+                    throw new UaException(StatusCodes.Bad_BrowseNameInvalid);
+                }
+            }
+        }
+
+        Function<BaseEventType, Object> accessor;
+
+        if (browsePath == null || browsePath.length == 0) {
+            // the event (or condition) node itself; events posted to the server aren't nodes.
+            accessor = event -> null;
+        } else if (attributeId != AttributeIds.Value) {
+            accessor = event -> null;
+        } else if (browsePath.length == 1) {
+            accessor = accessorFor(browsePath[0]);
+        } else {
+            // properties of sub-components aren't exposed by BaseEventType.
+            accessor = event -> null;
+        }
+
+        return new EventField(typeDefinitionId, range, accessor, eventTypes, -1);
+    }
+
+    private static Function<BaseEventType, Object> accessorFor(QualifiedName name) {
+        if (name.getNamespaceIndex().intValue() == 0) {
+            switch (name.getName()) {
+                case "EventId":
+                    return BaseEventType::getEventId;
+                case "EventType":
+                    return BaseEventType::getEventType;
+                case "SourceNode":
+                    return BaseEventType::getSourceNode;
+                case "SourceName":
+                    return BaseEventType::getSourceName;
+                case "Time":
+                    return BaseEventType::getTime;
+                case "ReceiveTime":
+                    return BaseEventType::getReceiveTime;
+                case "LocalTime":
+                    return event -> event.getLocalTime().map(ExtensionObject::encode).orElse(null);
+                case "Message":
+                    return BaseEventType::getMessage;
+                case "Severity":
+                    return BaseEventType::getSeverity;
+            }
+        }
+
+        return event -> {
+            DataValue value = event.getProperty(name);
+
+            return (value != null && value.getValue() != null) ? value.getValue().getValue() : null;
+        };
+    }
+
+}
@@ -0,0 +1,185 @@
+/*
+ * digitalpetri OPC-UA SDK
+ *
+ * Copyright (C) 2015 Kevin Herron
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.digitalpetri.opcua.sdk.server.events;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+import com.digitalpetri.opcua.sdk.core.events.BaseEventType;
+import com.digitalpetri.opcua.stack.core.Identifiers;
+import com.digitalpetri.opcua.stack.core.UaException;
+import com.digitalpetri.opcua.stack.core.types.builtin.NodeId;
+import com.digitalpetri.opcua.stack.core.types.builtin.QualifiedName;
+import com.digitalpetri.opcua.stack.core.types.structured.SimpleAttributeOperand;
+import com.google.common.collect.Maps;
+
+/**
+ * Interns the {@link EventField}s of every compiled filter so that filters selecting the same field share it, and
+ * gives each one a slot whose value is computed at most once per event (see {@link EventFieldValues}).
+ * <p>
+ * Fields are identified by their TypeDefinitionId, BrowsePath, AttributeId and IndexRange. Each {@link #compile} must
+ * be matched by a {@link #release} once the filter using the field is discarded; a field is forgotten, and its slot
+ * reused, when its last user releases it. At most {@link #MAX_SHARED_FIELDS} fields are shared at a time; fields
+ * beyond that still work but are computed for every filter.
+ */
+public class EventFieldRegistry {
+
+    static final int MAX_SHARED_FIELDS = 1024;
+
+    /**
+     * Guarded by {@code this}; only touched when filters are compiled or released, never while events are routed.
+     */
+    private final Map<FieldKey, Registration> registrations = Maps.newHashMap();
+    private final Map<EventField, Registration> registrationsByField = Maps.newIdentityHashMap();
+    private final BitSet slots = new BitSet();
+
+    private final EventTypeHierarchy eventTypes;
+
+    public EventFieldRegistry(EventTypeHierarchy eventTypes) {
+        this.eventTypes = eventTypes;
+    }
+
+    public EventTypeHierarchy getEventTypeHierarchy() {
+        return eventTypes;
+    }
+
+    /**
+     * Resolve {@code operand} into an {@link EventField}, reusing the field already resolved for an identical operand.
+     *
+     * @param operand the {@link SimpleAttributeOperand} to resolve.
+     * @return an {@link EventField}; {@link #release(EventField)} it when it is no longer used.
+     * @throws UaException if the operand is invalid.
+     */
+    public synchronized EventField compile(SimpleAttributeOperand operand) throws UaException {
+        FieldKey key = new FieldKey(operand);
+        Registration registration = registrations.get(key);
+
+        if (registration == null) {
+            EventField field = EventField.compile(operand, eventTypes);
+
+            int slot = slots.nextClearBit(0);
+
+            if (slot < MAX_SHARED_FIELDS) {
+                slots.set(slot);
+                field = field.withSlot(slot);
+            }
+
+            registration = new Registration(key, field);
+            registrations.put(key, registration);
+            registrationsByField.put(field, registration);
+        }
+
+        registration.references++;
+
+        return registration.field;
+    }
+
+    /**
+     * Release a field obtained from {@link #compile(SimpleAttributeOperand)}.
+     *
+     * @param field the {@link EventField} to release.
+     */
+    public synchronized void release(EventField field) {
+        Registration registration = registrationsByField.get(field);
+
+        if (registration != null && --registration.references == 0) {
+            registrations.remove(registration.key);
+            registrationsByField.remove(field);
+
+            if (field.getSlot() >= 0) {
+                slots.clear(field.getSlot());
+            }
+        }
+    }
+
+    /**
+     * @return the number of distinct fields currently registered.
+     */
+    public synchronized int getFieldCount() {
+        return registrations.size();
+    }
+
+    /**
+     * @param event the event to share field values for.
+     * @return an empty {@link EventFieldValues} for {@code event} that shares the values of interned fields.
+     */
+    public EventFieldValues newValues(BaseEventType event) {
+        return new EventFieldValues(event, true);
+    }
+
+    private static final class Registration {
+
+        private int references = 0;
+
+        private final FieldKey key;
+        private final EventField field;
+
+        private Registration(FieldKey key, EventField field) {
+            this.key = key;
+            this.field = field;
+        }
+
+    }
+
+    private static final class FieldKey {
+
+        private final NodeId typeDefinitionId;
+        private final List<QualifiedName> browsePath;
+        private final long attributeId;
+        private final String indexRange;
+
+        private FieldKey(SimpleAttributeOperand operand) {
+            NodeId typeDefinitionId = operand.getTypeDefinitionId();
+
+            if (typeDefinitionId == null || typeDefinitionId.isNull()) {
+                typeDefinitionId = Identifiers.BaseEventType;
+            }
+
+            QualifiedName[] browsePath = operand.getBrowsePath();
+
+            this.typeDefinitionId = typeDefinitionId;
+            this.browsePath = browsePath != null ? Arrays.asList(browsePath) : null;
+            this.attributeId = operand.getAttributeId() != null ? operand.getAttributeId().longValue() : -1L;
+            this.indexRange = operand.getIndexRange();
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+
+            FieldKey that = (FieldKey) o;
+
+            return attributeId == that.attributeId &&
+                    Objects.equals(typeDefinitionId, that.typeDefinitionId) &&
+                    Objects.equals(browsePath, that.browsePath) &&
+                    Objects.equals(indexRange, that.indexRange);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(typeDefinitionId, browsePath, attributeId, indexRange);
+        }
+
+    }
+
+}
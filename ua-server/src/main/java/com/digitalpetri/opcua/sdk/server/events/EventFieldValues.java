@@ -0,0 +1,124 @@
+/*
+ * digitalpetri OPC-UA SDK
+ *
+ * Copyright (C) 2015 Kevin Herron
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.digitalpetri.opcua.sdk.server.events;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import com.digitalpetri.opcua.sdk.core.events.BaseEventType;
+import com.digitalpetri.opcua.stack.core.types.builtin.Variant;
+
+/**
+ * The values of {@link EventField}s for one event, computed the first time they are needed and then shared by every
+ * filter the event is offered to.
+ * <p>
+ * Only fields interned by an {@link EventFieldRegistry} are shared; any other field is computed on every access. Room
+ * for shared values is allocated on first use and grown to the highest slot actually requested, so an event costs only
+ * as much as the fields its filters select. Safe for use by multiple threads; a value may be computed more than once if
+ * requested concurrently.
+ */
+public final class EventFieldValues {
+
+    private static final int INITIAL_SLOTS = 16;
+
+    private final BaseEventType event;
+    private final boolean shared;
+
+    private volatile AtomicReferenceArray<Value> values;
+
+    /**
+     * Create an {@link EventFieldValues} that doesn't share any values.
+     *
+     * @param event the event.
+     */
+    public EventFieldValues(BaseEventType event) {
+        this(event, false);
+    }
+
+    EventFieldValues(BaseEventType event, boolean shared) {
+        this.event = event;
+        this.shared = shared;
+    }
+
+    public BaseEventType getEvent() {
+        return event;
+    }
+
+    /**
+     * @param field the {@link EventField} to get the value of.
+     * @return the value of {@code field} for this event; {@link Variant#NULL_VALUE} if the event doesn't have it.
+     */
+    public Variant get(EventField field) {
+        int slot = field.getSlot();
+
+        if (!shared || slot < 0) {
+            return field.getVariant(event);
+        }
+
+        AtomicReferenceArray<Value> values = valuesFor(slot);
+        Value value = values.get(slot);
+
+        // a slot released and reused while this event was in flight holds a value of another field.
+        if (value == null || value.field != field) {
+            value = new Value(field, field.getVariant(event));
+            values.set(slot, value);
+        }
+
+        return value.variant;
+    }
+
+    private AtomicReferenceArray<Value> valuesFor(int slot) {
+        AtomicReferenceArray<Value> values = this.values;
+
+        if (values != null && slot < values.length()) {
+            return values;
+        }
+
+        synchronized (this) {
+            values = this.values;
+
+            if (values == null || slot >= values.length()) {
+                int length = Math.max(INITIAL_SLOTS, Integer.highestOneBit(slot) << 1);
+                AtomicReferenceArray<Value> grown = new AtomicReferenceArray<>(length);
+
+                if (values != null) {
+                    for (int i = 0; i < values.length(); i++) {
+                        grown.set(i, values.get(i));
+                    }
+                }
+
+                this.values = values = grown;
+            }
+
+            return values;
+        }
+    }
+
+    private static final class Value {
+
+        private final EventField field;
+        private final Variant variant;
+
+        private Value(EventField field, Variant variant) {
+            this.field = field;
+            this.variant = variant;
+        }
+
+    }
+
+}
@@ -0,0 +1,255 @@
+/*
+ * digitalpetri OPC-UA SDK
+ *
+ * Copyright (C) 2015 Kevin Herron
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.digitalpetri.opcua.sdk.server.events;
+
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import com.digitalpetri.opcua.sdk.core.events.BaseEventType;
+import com.google.common.collect.Lists;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The entry point for raising events.
+ * <p>
+ * Producers, e.g. device drivers, hand over events singly or in batches. Events wait in a bounded queue and are routed
+ * to event items in bulk by a single drain task on the server's executor, which only runs while there are events
+ * waiting; there is no executor hop per event. When the queue is full, {@link #post} blocks until there is room and
+ * {@link #offer} accepts only what fits, so producers that outrun routing are slowed down instead of exhausting memory.
+ */
+public class EventNotifier {
+
+    /**
+     * The maximum number of events handed to the {@link EventRouter} at once.
+     */
+    static final int MAX_BATCH_SIZE = 1024;
+
+    private final Logger logger = LoggerFactory.getLogger(getClass());
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notFull = lock.newCondition();
+
+    private final ArrayDeque<BaseEventType> queue;
+    private boolean draining = false;
+
+    private final int capacity;
+    private final EventRouter router;
+    private final ExecutorService executor;
+
+    /**
+     * @param capacity the maximum number of events waiting to be routed.
+     * @param router   the {@link EventRouter} to route events with.
+     * @param executor the {@link ExecutorService} to route events on.
+     */
+    public EventNotifier(int capacity, EventRouter router, ExecutorService executor) {
+        this.capacity = Math.max(capacity, 1);
+        this.router = router;
+        this.executor = executor;
+
+        queue = new ArrayDeque<>(Math.min(this.capacity, MAX_BATCH_SIZE));
+    }
+
+    /**
+     * Raise {@code event}, waiting for room in the queue if necessary.
+     *
+     * @param event the event to raise.
+     * @throws InterruptedException       if interrupted while waiting.
+     * @throws RejectedExecutionException if the executor rejected the drain task; see {@link #post(List)}.
+     */
+    public void post(BaseEventType event) throws InterruptedException {
+        post(Collections.singletonList(event));
+    }
+
+    /**
+     * Raise {@code events}, in order, waiting for room in the queue as necessary.
+     *
+     * @param events the events to raise.
+     * @throws InterruptedException       if interrupted while waiting; events up to that point have been queued.
+     * @throws RejectedExecutionException if the executor rejected the drain task; events up to that point have been
+     *                                    queued and the drain task is submitted again by the next call.
+     */
+    public void post(List<? extends BaseEventType> events) throws InterruptedException {
+        int index = 0;
+
+        while (index < events.size()) {
+            lock.lockInterruptibly();
+            try {
+                while (queue.size() == capacity) {
+                    scheduleDrain();
+                    notFull.await();
+                }
+
+                index = enqueue(events, index);
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    /**
+     * Raise as many of {@code events}, in order, as there is room for, waiting up to {@code timeout} for room.
+     *
+     * @param events  the events to raise.
+     * @param timeout how long to wait for room.
+     * @param unit    the unit of {@code timeout}.
+     * @return the number of events, from the start of {@code events}, that were accepted.
+     * @throws InterruptedException       if interrupted while waiting.
+     * @throws RejectedExecutionException if the executor rejected the drain task; see {@link #post(List)}.
+     */
+    public int offer(List<? extends BaseEventType> events, long timeout, TimeUnit unit) throws InterruptedException {
+        long nanos = unit.toNanos(timeout);
+        int index = 0;
+
+        while (index < events.size()) {
+            lock.lockInterruptibly();
+            try {
+                while (queue.size() == capacity) {
+                    if (nanos <= 0L) return index;
+                    scheduleDrain();
+                    nanos = notFull.awaitNanos(nanos);
+                }
+
+                index = enqueue(events, index);
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        return index;
+    }
+
+    /**
+     * Raise {@code event} if there is room in the queue.
+     *
+     * @param event the event to raise.
+     * @return {@code true} if the event was accepted.
+     * @throws RejectedExecutionException if the executor rejected the drain task; see {@link #post(List)}.
+     */
+    public boolean offer(BaseEventType event) {
+        lock.lock();
+        try {
+            if (queue.size() == capacity) {
+                scheduleDrain();
+                return false;
+            }
+
+            enqueue(Collections.singletonList(event), 0);
+
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return the number of events waiting to be routed.
+     */
+    public int size() {
+        lock.lock();
+        try {
+            return queue.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * Queue as many of {@code events}, starting at {@code index}, as fit. Must be called while holding the lock.
+     *
+     * @return the index of the first event not queued.
+     */
+    private int enqueue(List<? extends BaseEventType> events, int index) {
+        int room = capacity - queue.size();
+        int end = Math.min(events.size(), index + room);
+
+        for (int i = index; i < end; i++) {
+            queue.add(events.get(i));
+        }
+
+        scheduleDrain();
+
+        return end;
+    }
+
+    /**
+     * Submit the drain task if there are events waiting and it isn't already running. Must be called while holding the
+     * lock.
+     * <p>
+     * If the executor rejects the task the rejection is rethrown to the producer, and the next producer to queue or
+     * wait for room tries again; nothing is lost, but nothing is routed until the executor accepts the task.
+     */
+    private void scheduleDrain() {
+        if (!draining && !queue.isEmpty()) {
+            draining = true;
+
+            try {
+                executor.execute(this::drain);
+            } catch (RejectedExecutionException e) {
+                draining = false;
+
+                logger.warn("Drain task rejected; {} events waiting to be routed.", queue.size());
+
+                throw e;
+            }
+        }
+    }
+
+    private void drain() {
+        while (true) {
+            List<BaseEventType> batch;
+
+            lock.lock();
+            try {
+                if (queue.isEmpty()) {
+                    draining = false;
+                    return;
+                }
+
+                int n = Math.min(queue.size(), MAX_BATCH_SIZE);
+                batch = Lists.newArrayListWithCapacity(n);
+
+                for (int i = 0; i < n; i++) {
+                    batch.add(queue.poll());
+                }
+
+                notFull.signalAll();
+            } finally {
+                lock.unlock();
+            }
+
+            try {
+                router.post(batch);
+            } catch (Throwable t) {
+                logger.error("Error routing {} events.", batch.size(), t);
+            }
+        }
+    }
+
+}
@@ -0,0 +1,341 @@
+/*
+ * digitalpetri OPC-UA SDK
+ *
+ * Copyright (C) 2015 Kevin Herron
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.digitalpetri.opcua.sdk.server.events;
+
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+
+import com.digitalpetri.opcua.sdk.core.Reference;
+import com.digitalpetri.opcua.sdk.core.events.BaseEventType;
+import com.digitalpetri.opcua.sdk.server.api.EventItem;
+import com.digitalpetri.opcua.sdk.server.api.UaNodeManager;
+import com.digitalpetri.opcua.sdk.server.model.UaNode;
+import com.digitalpetri.opcua.stack.core.Identifiers;
+import com.digitalpetri.opcua.stack.core.types.builtin.NodeId;
+import com.digitalpetri.opcua.stack.core.types.builtin.unsigned.UInteger;
+import com.digitalpetri.opcua.stack.core.util.ExecutionQueue;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+
+/**
+ * Delivers events to the {@link EventItem}s that may be interested in them.
+ * <p>
+ * Items are indexed by the notifier they monitor and by the event types their filter restricts events to (see
+ * {@link CompiledEventFilter#getEventTypes()}). An event is offered to items monitoring its source node, any notifier
+ * the source is organized under by inverse HasEventSource or HasNotifier references, and the Server object, so the cost
+ * of routing an event is proportional to the number of candidate items rather than the number of event items. The
+ * notifiers of each source are cached until references in the address space change.
+ * <p>
+ * Events are delivered on the server's executor, in order, one batch per Subscription. Producers should normally
+ * raise events through the server's {@link EventNotifier} rather than posting here directly.
+ */
+public class EventRouter {
+
+    private final ConcurrentMap<NodeId, NotifierEntry> notifiers = Maps.newConcurrentMap();
+    private final Map<EventItem, Registration> registrations = Maps.newHashMap();
+    private final Map<UInteger, SubscriptionQueue> queues = Maps.newConcurrentMap();
+
+    private volatile SourceNotifiers notifiersBySource = new SourceNotifiers(UaNode.getReferenceVersion());
+
+    private final UaNodeManager nodeManager;
+    private final EventFieldRegistry eventFields;
+    private final EventTypeHierarchy eventTypes;
+    private final ExecutorService executor;
+
+    public EventRouter(UaNodeManager nodeManager, EventFieldRegistry eventFields, ExecutorService executor) {
+        this.nodeManager = nodeManager;
+        this.eventFields = eventFields;
+        this.eventTypes = eventFields.getEventTypeHierarchy();
+        this.executor = executor;
+    }
+
+    /**
+     * Register {@code item}, or update its registration if its notifier or event types have changed.
+     *
+     * @param item the {@link EventItem} to route events to.
+     */
+    public synchronized void register(EventItem item) {
+        NodeId notifierId = item.getReadValueId().getNodeId();
+        Set<NodeId> types = ImmutableSet.copyOf(item.getEventTypes());
+
+        Registration registration = registrations.get(item);
+
+        if (registration != null) {
+            if (registration.notifierId.equals(notifierId) && registration.types.equals(types)) return;
+
+            unregister(item);
+        }
+
+        registrations.put(item, new Registration(notifierId, types));
+
+        notifiers.computeIfAbsent(notifierId, id -> new NotifierEntry()).add(item, types);
+
+        queues.computeIfAbsent(item.getSubscriptionId(), id -> new SubscriptionQueue(executor)).items++;
+    }
+
+    /**
+     * Stop routing events to {@code item}.
+     *
+     * @param item the {@link EventItem} to unregister.
+     */
+    public synchronized void unregister(EventItem item) {
+        Registration registration = registrations.remove(item);
+
+        if (registration == null) return;
+
+        NotifierEntry entry = notifiers.get(registration.notifierId);
+
+        if (entry != null && entry.remove(item, registration.types)) {
+            notifiers.remove(registration.notifierId);
+        }
+
+        SubscriptionQueue queue = queues.get(item.getSubscriptionId());
+
+        if (queue != null && --queue.items == 0) {
+            queues.remove(item.getSubscriptionId());
+        }
+    }
+
+    /**
+     * Route {@code event} to every registered item that may be interested in it.
+     *
+     * @param event the event to route.
+     */
+    public void post(BaseEventType event) {
+        post(Collections.singletonList(event));
+    }
+
+    /**
+     * Route each of {@code events}, delivering everything destined for the same Subscription as a single batch.
+     *
+     * @param events the events to route.
+     */
+    public void post(List<? extends BaseEventType> events) {
+        if (notifiers.isEmpty()) return;
+
+        Map<UInteger, List<Delivery>> deliveries = Maps.newHashMap();
+
+        for (BaseEventType event : events) {
+            EventFieldValues fields = null;
+
+            for (NodeId notifierId : getNotifiers(event.getSourceNode())) {
+                NotifierEntry entry = notifiers.get(notifierId);
+
+                if (entry != null) {
+                    // one set of field values per event, shared by every item it's delivered to.
+                    if (fields == null) fields = eventFields.newValues(event);
+
+                    entry.collect(fields, deliveries);
+                }
+            }
+        }
+
+        deliveries.forEach((subscriptionId, batch) -> {
+            SubscriptionQueue queue = queues.get(subscriptionId);
+
+            if (queue != null) {
+                queue.executionQueue.submit(() -> batch.forEach(d -> d.item.setEvent(d.fields.getEvent(), d.fields)));
+            }
+        });
+    }
+
+    private Set<NodeId> getNotifiers(NodeId sourceNode) {
+        if (sourceNode == null) return Collections.singleton(Identifiers.Server);
+
+        Map<NodeId, Set<NodeId>> cache = getNotifierCache();
+        Set<NodeId> ids = cache.get(sourceNode);
+
+        if (ids == null) {
+            ids = collectNotifiers(sourceNode);
+
+            // don't remember sources that aren't in the address space (yet).
+            if (nodeManager.containsKey(sourceNode)) {
+                cache.put(sourceNode, ids);
+            }
+        }
+
+        return ids;
+    }
+
+    /**
+     * @return the cached notifiers of each source, emptied first if any references have changed since they were
+     * collected.
+     */
+    private Map<NodeId, Set<NodeId>> getNotifierCache() {
+        long version = UaNode.getReferenceVersion();
+        SourceNotifiers notifiersBySource = this.notifiersBySource;
+
+        if (notifiersBySource.version != version) {
+            notifiersBySource = new SourceNotifiers(version);
+            this.notifiersBySource = notifiersBySource;
+        }
+
+        return notifiersBySource.bySource;
+    }
+
+    private Set<NodeId> collectNotifiers(NodeId sourceNode) {
+        Set<NodeId> ids = Sets.newHashSet(sourceNode, Identifiers.Server);
+        Deque<NodeId> remaining = new ArrayDeque<>();
+        remaining.add(sourceNode);
+
+        while (!remaining.isEmpty()) {
+            UaNode node = nodeManager.get(remaining.poll());
+
+            if (node == null) continue;
+
+            for (Reference reference : node.getReferences()) {
+                if (reference.isInverse() && isNotifierReference(reference.getReferenceTypeId())) {
+                    reference.getTargetNodeId().local().ifPresent(notifierId -> {
+                        if (ids.add(notifierId)) remaining.add(notifierId);
+                    });
+                }
+            }
+        }
+
+        return Collections.unmodifiableSet(ids);
+    }
+
+    private static boolean isNotifierReference(NodeId referenceTypeId) {
+        return Identifiers.HasEventSource.equals(referenceTypeId) || Identifiers.HasNotifier.equals(referenceTypeId);
+    }
+
+    private static void deliver(EventItem item, EventFieldValues fields, Map<UInteger, List<Delivery>> deliveries) {
+        deliveries.computeIfAbsent(item.getSubscriptionId(), id -> Lists.newArrayList()).add(new Delivery(item, fields));
+    }
+
+    /**
+     * The items monitoring one notifier: those interested in events of any type, and the rest by event type.
+     */
+    private final class NotifierEntry {
+
+        private final Set<EventItem> anyType = Sets.newConcurrentHashSet();
+        private final ConcurrentMap<NodeId, Set<EventItem>> byType = Maps.newConcurrentMap();
+
+        void add(EventItem item, Set<NodeId> types) {
+            if (types.isEmpty()) {
+                anyType.add(item);
+            } else {
+                for (NodeId type : types) {
+                    byType.computeIfAbsent(type, t -> Sets.newConcurrentHashSet()).add(item);
+                }
+            }
+        }
+
+        /**
+         * @return {@code true} if the entry is empty after removing {@code item}.
+         */
+        boolean remove(EventItem item, Set<NodeId> types) {
+            if (types.isEmpty()) {
+                anyType.remove(item);
+            } else {
+                for (NodeId type : types) {
+                    Set<EventItem> items = byType.get(type);
+
+                    if (items != null) {
+                        items.remove(item);
+                        if (items.isEmpty()) byType.remove(type);
+                    }
+                }
+            }
+
+            return anyType.isEmpty() && byType.isEmpty();
+        }
+
+        void collect(EventFieldValues fields, Map<UInteger, List<Delivery>> deliveries) {
+            for (EventItem item : anyType) {
+                deliver(item, fields, deliveries);
+            }
+
+            if (byType.isEmpty()) return;
+
+            NodeId eventType = fields.getEvent().getEventType();
+            Set<EventItem> matched = null;
+            boolean copied = false;
+
+            for (Map.Entry<NodeId, Set<EventItem>> e : byType.entrySet()) {
+                if (!eventTypes.isSubtypeOf(eventType, e.getKey())) continue;
+
+                if (matched == null) {
+                    // most events match a single type key; only dedupe when an item may be under several.
+                    matched = e.getValue();
+                } else {
+                    if (!copied) {
+                        matched = Sets.newHashSet(matched);
+                        copied = true;
+                    }
+                    matched.addAll(e.getValue());
+                }
+            }
+
+            if (matched != null) {
+                for (EventItem item : matched) {
+                    deliver(item, fields, deliveries);
+                }
+            }
+        }
+
+    }
+
+    private static final class Registration {
+        private final NodeId notifierId;
+        private final Set<NodeId> types;
+
+        private Registration(NodeId notifierId, Set<NodeId> types) {
+            this.notifierId = notifierId;
+            this.types = types;
+        }
+    }
+
+    private static final class SourceNotifiers {
+        private final long version;
+        private final Map<NodeId, Set<NodeId>> bySource = Maps.newConcurrentMap();
+
+        private SourceNotifiers(long version) {
+            this.version = version;
+        }
+    }
+
+    private static final class SubscriptionQueue {
+        private final ExecutionQueue executionQueue;
+        private int items = 0;
+
+        private SubscriptionQueue(ExecutorService executor) {
+            this.executionQueue = new ExecutionQueue(executor);
+        }
+    }
+
+    private static final class Delivery {
+        private final EventItem item;
+        private final EventFieldValues fields;
+
+        private Delivery(EventItem item, EventFieldValues fields) {
+            this.item = item;
+            this.fields = fields;
+        }
+    }
+
+}
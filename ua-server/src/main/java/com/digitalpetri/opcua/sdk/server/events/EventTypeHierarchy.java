@@ -0,0 +1,120 @@
+/*
+ * digitalpetri OPC-UA SDK
+ *
+ * Copyright (C) 2015 Kevin Herron
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.digitalpetri.opcua.sdk.server.events;
+
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.Map;
+import java.util.Set;
+
+import com.digitalpetri.opcua.sdk.core.Reference;
+import com.digitalpetri.opcua.sdk.server.api.UaNodeManager;
+import com.digitalpetri.opcua.sdk.server.model.UaNode;
+import com.digitalpetri.opcua.stack.core.Identifiers;
+import com.digitalpetri.opcua.stack.core.types.builtin.NodeId;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+
+/**
+ * Answers whether one event type is a subtype of another by following inverse HasSubtype references in the address
+ * space. The supertypes of each event type are collected once and cached until references in the address space change
+ * (see {@link UaNode#getReferenceVersion()}).
+ */
+public class EventTypeHierarchy {
+
+    private volatile Supertypes supertypes = new Supertypes(UaNode.getReferenceVersion());
+
+    private final UaNodeManager nodeManager;
+
+    public EventTypeHierarchy(UaNodeManager nodeManager) {
+        this.nodeManager = nodeManager;
+    }
+
+    /**
+     * @param type      the event type to check.
+     * @param superType the possible supertype.
+     * @return {@code true} if {@code type} is {@code superType} or one of its subtypes.
+     */
+    public boolean isSubtypeOf(NodeId type, NodeId superType) {
+        if (type == null || superType == null) return false;
+        if (type.equals(superType) || Identifiers.BaseEventType.equals(superType)) return true;
+
+        Map<NodeId, Set<NodeId>> cache = getCache();
+        Set<NodeId> types = cache.get(type);
+
+        if (types == null) {
+            types = collectSupertypes(type);
+
+            // don't remember types that aren't in the address space (yet).
+            if (nodeManager.containsKey(type)) {
+                cache.put(type, types);
+            }
+        }
+
+        return types.contains(superType);
+    }
+
+    /**
+     * @return the cached supertypes, emptied first if any references have changed since they were collected.
+     */
+    private Map<NodeId, Set<NodeId>> getCache() {
+        long version = UaNode.getReferenceVersion();
+        Supertypes supertypes = this.supertypes;
+
+        if (supertypes.version != version) {
+            supertypes = new Supertypes(version);
+            this.supertypes = supertypes;
+        }
+
+        return supertypes.byType;
+    }
+
+    private Set<NodeId> collectSupertypes(NodeId type) {
+        Set<NodeId> types = Sets.newHashSet();
+        Deque<NodeId> remaining = new ArrayDeque<>();
+        remaining.add(type);
+
+        while (!remaining.isEmpty()) {
+            UaNode node = nodeManager.get(remaining.poll());
+
+            if (node == null) continue;
+
+            for (Reference reference : node.getReferences()) {
+                if (reference.isInverse() && Identifiers.HasSubtype.equals(reference.getReferenceTypeId())) {
+                    reference.getTargetNodeId().local().ifPresent(superType -> {
+                        if (types.add(superType)) remaining.add(superType);
+                    });
+                }
+            }
+        }
+
+        return Collections.unmodifiableSet(types);
+    }
+
+    private static final class Supertypes {
+        private final long version;
+        private final Map<NodeId, Set<NodeId>> byType = Maps.newConcurrentMap();
+
+        private Supertypes(long version) {
+            this.version = version;
+        }
+    }
+
+}
@@ -19,12 +19,13 @@
 
 package com.digitalpetri.opcua.sdk.server.items;
 
-import java.util.HashMap;
-import java.util.List;
-import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import com.digitalpetri.opcua.sdk.server.api.MonitoredItem;
-import com.digitalpetri.opcua.sdk.server.util.RingBuffer;
+import com.digitalpetri.opcua.sdk.server.subscriptions.NotificationBuffer;
+import com.digitalpetri.opcua.sdk.server.subscriptions.TriggeringGraph;
+import com.digitalpetri.opcua.sdk.server.util.ConcurrentRingBuffer;
+import com.digitalpetri.opcua.sdk.server.util.ConcurrentValueQueue;
 import com.digitalpetri.opcua.stack.core.UaException;
 import com.digitalpetri.opcua.stack.core.serialization.UaStructure;
 import com.digitalpetri.opcua.stack.core.types.builtin.ExtensionObject;
@@ -36,14 +37,29 @@ import com.google.common.primitives.Ints;
 
 public abstract class BaseMonitoredItem<ValueType> implements MonitoredItem {
 
-    private static final int MAX_QUEUE_SIZE = 0xFFFF;
+    private static final int MAX_QUEUE_SIZE = ConcurrentValueQueue.MAX_CAPACITY;
 
-    protected volatile Map<UInteger, BaseMonitoredItem<?>> triggeredItems;
     protected volatile boolean triggered = false;
 
-    protected volatile RingBuffer<ValueType> queue;
+    private volatile TriggeringGraph triggeringGraph;
+    private volatile int triggeringSlot = -1;
+
+    /**
+     * Whether this item is queued in its subscription's pending items; guarded by the subscription.
+     */
+    private boolean pending = false;
+
+    private final AtomicBoolean ready = new AtomicBoolean(false);
+    private volatile ReadyListener readyListener;
+
+    /**
+     * Filled by the sampling side while holding this item's monitor and drained by the publishing side without it, so
+     * sampling and publishing never wait on each other.
+     */
+    protected volatile ConcurrentValueQueue<ValueType> queue;
 
     protected volatile long clientHandle;
+    protected volatile UInteger clientHandleValue;
     protected volatile int queueSize;
     protected volatile double samplingInterval;
     protected volatile boolean discardOldest;
@@ -70,12 +86,25 @@ public abstract class BaseMonitoredItem<ValueType> implements MonitoredItem {
         this.monitoringMode = monitoringMode;
         this.timestamps = timestamps;
         this.clientHandle = clientHandle.longValue();
+        this.clientHandleValue = clientHandle;
         this.samplingInterval = samplingInterval;
         this.discardOldest = discardOldest;
 
         setQueueSize(queueSize);
 
-        queue = new RingBuffer<>(this.queueSize);
+        queue = createQueue(this.queueSize);
+    }
+
+    /**
+     * Create the queue that holds values until they are published.
+     * <p>
+     * Called from the constructor, so implementations must not depend on subclass state.
+     *
+     * @param queueSize the revised queue size.
+     * @return a new, empty {@link ConcurrentValueQueue}.
+     */
+    protected ConcurrentValueQueue<ValueType> createQueue(int queueSize) {
+        return new ConcurrentRingBuffer<>(queueSize);
     }
 
     protected void setQueueSize(UInteger queueSize) {
@@ -85,12 +114,22 @@ public abstract class BaseMonitoredItem<ValueType> implements MonitoredItem {
         this.queueSize = qs;
     }
 
-    public synchronized boolean getNotifications(List<UaStructure> notifications, int max) {
-        int queueSize = queue.size();
-        int count = Math.min(queueSize, max);
+    /**
+     * Drain up to {@code max} queued values into {@code buffer}.
+     *
+     * @param buffer the {@link NotificationBuffer} to add notifications to.
+     * @param max    the maximum number of notifications to add.
+     * @return {@code true} if the queue was drained completely.
+     */
+    public boolean getNotifications(NotificationBuffer buffer, int max) {
+        ConcurrentValueQueue<ValueType> queue = this.queue;
+
+        for (int i = 0; i < max; i++) {
+            ValueType value = queue.poll();
 
-        for (int i = 0; i < count; i++) {
-            notifications.add(wrapQueueValue(queue.remove()));
+            if (value == null) break;
+
+            buffer.add(wrapQueueValue(value));
         }
 
         boolean queueIsEmpty = queue.isEmpty();
@@ -102,8 +141,8 @@ public abstract class BaseMonitoredItem<ValueType> implements MonitoredItem {
         return queueIsEmpty;
     }
 
-    public synchronized boolean hasNotifications() {
-        return (queue.size() > 0 && monitoringMode == MonitoringMode.Reporting);
+    public boolean hasNotifications() {
+        return (!queue.isEmpty() && monitoringMode == MonitoringMode.Reporting);
     }
 
     public synchronized void modify(TimestampsToReturn timestamps,
@@ -113,21 +152,31 @@ public abstract class BaseMonitoredItem<ValueType> implements MonitoredItem {
                                     UInteger queueSize,
                                     boolean discardOldest) throws UaException {
 
-        installFilter(filter);
+        // the filter may depend on the revised sampling interval, e.g. an aggregate's processing interval.
+        double previousSamplingInterval = this.samplingInterval;
+        this.samplingInterval = samplingInterval;
+
+        try {
+            installFilter(filter);
+        } catch (UaException e) {
+            this.samplingInterval = previousSamplingInterval;
+            throw e;
+        }
 
         this.timestamps = timestamps;
         this.clientHandle = clientHandle.longValue();
-        this.samplingInterval = samplingInterval;
+        this.clientHandleValue = clientHandle;
         this.discardOldest = discardOldest;
 
         if (queueSize.intValue() != this.queueSize) {
             setQueueSize(queueSize);
 
-            RingBuffer<ValueType> oldQueue = queue;
-            queue = new RingBuffer<>(this.queueSize);
+            ConcurrentValueQueue<ValueType> oldQueue = queue;
+            queue = createQueue(this.queueSize);
 
-            while (oldQueue.size() > 0) {
-                enqueue(oldQueue.remove());
+            ValueType value;
+            while ((value = oldQueue.poll()) != null) {
+                enqueue(value);
             }
         }
     }
@@ -139,9 +188,95 @@ public abstract class BaseMonitoredItem<ValueType> implements MonitoredItem {
 
         if (monitoringMode == MonitoringMode.Disabled) {
             queue.clear();
+        } else if (monitoringMode == MonitoringMode.Reporting && queue.size() > 0) {
+            markReady();
         }
     }
 
+    /**
+     * Set the {@link ReadyListener} to notify when this item gains a queued value or is triggered.
+     * <p>
+     * If this item already has notifications or has been triggered the listener is notified immediately.
+     *
+     * @param readyListener the {@link ReadyListener} to notify, or {@code null} to stop notifying.
+     */
+    public void setReadyListener(ReadyListener readyListener) {
+        this.readyListener = readyListener;
+
+        ready.set(false);
+
+        if (readyListener != null && (hasNotifications() || isTriggered())) {
+            markReady();
+        }
+    }
+
+    /**
+     * Notify the {@link ReadyListener}, unless it has already been notified since the last {@link #clearReady()}.
+     */
+    protected void markReady() {
+        ReadyListener listener = readyListener;
+
+        if (listener != null && !ready.get() && ready.compareAndSet(false, true)) {
+            listener.onItemReady(this);
+        }
+    }
+
+    /**
+     * Clear the ready flag so that the next queued value or trigger notifies the {@link ReadyListener} again.
+     * <p>
+     * Call this before checking {@link #hasNotifications()} or {@link #isTriggered()} so that no change is missed.
+     */
+    public void clearReady() {
+        ready.set(false);
+    }
+
+    public void setTriggered() {
+        triggered = true;
+
+        markReady();
+    }
+
+    /**
+     * Mark every item this item is linked to as triggered.
+     */
+    protected void fireTriggers() {
+        TriggeringGraph graph = triggeringGraph;
+
+        if (graph != null) {
+            graph.fire(triggeringSlot);
+        }
+    }
+
+    /**
+     * @param graph the {@link TriggeringGraph} this item belongs to, or {@code null} if it was removed.
+     * @param slot  this item's slot in {@code graph}.
+     */
+    public void setTriggeringGraph(TriggeringGraph graph, int slot) {
+        this.triggeringSlot = slot;
+        this.triggeringGraph = graph;
+    }
+
+    public int getTriggeringSlot() {
+        return triggeringSlot;
+    }
+
+    /**
+     * @param pending {@code true} if this item is queued to have its notifications gathered by its subscription.
+     */
+    public void setPending(boolean pending) {
+        this.pending = pending;
+    }
+
+    public boolean isPending() {
+        return pending;
+    }
+
+    /**
+     * Called once this item has been removed from its subscription, or its subscription has closed, so that anything
+     * it registered with the server can be released. May be called more than once.
+     */
+    public void onDeleted() {}
+
     @Override
     public UInteger getId() {
         return id;
@@ -182,13 +317,7 @@ public abstract class BaseMonitoredItem<ValueType> implements MonitoredItem {
         return monitoringMode;
     }
 
-    public synchronized Map<UInteger, BaseMonitoredItem<?>> getTriggeredItems() {
-        if (triggeredItems == null) triggeredItems = new HashMap<>();
-
-        return triggeredItems;
-    }
-
-    public synchronized boolean isTriggered() {
+    public boolean isTriggered() {
         return triggered;
     }
 
@@ -198,4 +327,15 @@ public abstract class BaseMonitoredItem<ValueType> implements MonitoredItem {
 
     protected abstract UaStructure wrapQueueValue(ValueType value);
 
+    public interface ReadyListener {
+
+        /**
+         * {@code item} gained a queued value or was triggered since it was last drained.
+         *
+         * @param item the item that is ready.
+         */
+        void onItemReady(BaseMonitoredItem<?> item);
+
+    }
+
 }
@@ -19,14 +19,28 @@
 
 package com.digitalpetri.opcua.sdk.server.items;
 
+import java.util.Date;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.UnaryOperator;
+
 import com.digitalpetri.opcua.sdk.core.AttributeIds;
+import com.digitalpetri.opcua.sdk.server.aggregates.AggregateCalculator;
+import com.digitalpetri.opcua.sdk.server.aggregates.AggregateCalculators;
+import com.digitalpetri.opcua.sdk.server.aggregates.AggregateProcessor;
 import com.digitalpetri.opcua.sdk.server.api.DataItem;
+import com.digitalpetri.opcua.sdk.server.util.CompiledDataChangeFilter;
+import com.digitalpetri.opcua.sdk.server.util.ConcurrentValueQueue;
 import com.digitalpetri.opcua.sdk.server.util.DataChangeMonitoringFilter;
+import com.digitalpetri.opcua.sdk.server.util.NumericRingBuffer;
+import com.digitalpetri.opcua.stack.core.Stack;
 import com.digitalpetri.opcua.stack.core.StatusCodes;
 import com.digitalpetri.opcua.stack.core.UaException;
 import com.digitalpetri.opcua.stack.core.types.builtin.DataValue;
 import com.digitalpetri.opcua.stack.core.types.builtin.DateTime;
 import com.digitalpetri.opcua.stack.core.types.builtin.ExtensionObject;
+import com.digitalpetri.opcua.stack.core.types.builtin.NodeId;
 import com.digitalpetri.opcua.stack.core.types.builtin.StatusCode;
 import com.digitalpetri.opcua.stack.core.types.builtin.Variant;
 import com.digitalpetri.opcua.stack.core.types.builtin.unsigned.UInteger;
@@ -35,10 +49,12 @@ import com.digitalpetri.opcua.stack.core.types.enumerated.DeadbandType;
 import com.digitalpetri.opcua.stack.core.types.enumerated.MonitoringMode;
 import com.digitalpetri.opcua.stack.core.types.enumerated.TimestampsToReturn;
 import com.digitalpetri.opcua.stack.core.types.structured.AggregateFilter;
+import com.digitalpetri.opcua.stack.core.types.structured.AggregateFilterResult;
 import com.digitalpetri.opcua.stack.core.types.structured.DataChangeFilter;
 import com.digitalpetri.opcua.stack.core.types.structured.EventFilter;
 import com.digitalpetri.opcua.stack.core.types.structured.MonitoredItemNotification;
 import com.digitalpetri.opcua.stack.core.types.structured.MonitoringFilter;
+import com.digitalpetri.opcua.stack.core.types.structured.Range;
 import com.digitalpetri.opcua.stack.core.types.structured.ReadValueId;
 
 import static com.digitalpetri.opcua.stack.core.types.builtin.unsigned.Unsigned.uint;
@@ -51,10 +67,31 @@ public class MonitoredDataItem extends BaseMonitoredItem<DataValue> implements D
             0.0
     );
 
+    private static final UnaryOperator<DataValue> SET_OVERFLOW =
+            value -> value.withStatus(value.getStatusCode().withOverflow());
+
+    private static final UnaryOperator<DataValue> CLEAR_OVERFLOW =
+            value -> value.getStatusCode().isOverflowSet() ?
+                    value.withStatus(value.getStatusCode().withoutOverflow()) : value;
+
+    private static final CompiledDataChangeFilter DefaultCompiledFilter =
+            DataChangeMonitoringFilter.compile(DefaultFilter, null, null);
+
     private volatile DataValue lastValue = null;
-    private volatile DataChangeFilter filter = null;
+    private volatile CompiledDataChangeFilter filter = null;
     private volatile ExtensionObject filterResult = null;
 
+    /**
+     * Non-null while an {@link AggregateFilter} is installed; samples then feed it instead of the DataChangeFilter,
+     * and {@link #aggregateTimer} closes its intervals on time even when no samples arrive.
+     */
+    private volatile AggregateProcessor aggregate = null;
+    private volatile ScheduledFuture<?> aggregateTimer = null;
+    private final Consumer<DataValue> aggregateOutput = this::report;
+
+    private final Range euRange;
+    private final NodeId dataType;
+
     public MonitoredDataItem(UInteger id,
                              UInteger subscriptionId,
                              ReadValueId readValueId,
@@ -66,45 +103,85 @@ public class MonitoredDataItem extends BaseMonitoredItem<DataValue> implements D
                              UInteger queueSize,
                              boolean discardOldest) throws UaException {
 
+        this(id, subscriptionId, readValueId, monitoringMode, timestamps,
+                clientHandle, samplingInterval, filter, queueSize, discardOldest, null, null);
+    }
+
+    /**
+     * @param euRange  the EURange of the monitored node, if it has one; required for a Percent deadband.
+     * @param dataType the DataType of the monitored node, if known; used to specialize deadband checks.
+     */
+    public MonitoredDataItem(UInteger id,
+                             UInteger subscriptionId,
+                             ReadValueId readValueId,
+                             MonitoringMode monitoringMode,
+                             TimestampsToReturn timestamps,
+                             UInteger clientHandle,
+                             double samplingInterval,
+                             ExtensionObject filter,
+                             UInteger queueSize,
+                             boolean discardOldest,
+                             Range euRange,
+                             NodeId dataType) throws UaException {
+
         super(id, subscriptionId, readValueId, monitoringMode, timestamps, clientHandle, samplingInterval, queueSize, discardOldest);
 
+        this.euRange = euRange;
+        this.dataType = dataType;
+
+        // the queue was created by the super constructor, before the DataType was known.
+        if (this.queueSize > 1 && NumericRingBuffer.isSupported(dataType)) {
+            queue = createQueue(this.queueSize);
+        }
+
         installFilter(filter);
     }
 
+    /**
+     * Value attributes of a numeric DataType queued more than one deep use a {@link NumericRingBuffer} so that samples
+     * waiting to be published don't each retain a DataValue, Variant, boxed value and two DateTimes.
+     */
+    @Override
+    protected ConcurrentValueQueue<DataValue> createQueue(int queueSize) {
+        if (queueSize > 1 && getReadValueId().getAttributeId().intValue() == AttributeIds.Value &&
+                NumericRingBuffer.isSupported(dataType)) {
+
+            return new NumericRingBuffer(queueSize);
+        } else {
+            return super.createQueue(queueSize);
+        }
+    }
+
     @Override
     public synchronized void setValue(DataValue value) {
-        boolean valuePassesFilter = DataChangeMonitoringFilter.filter(lastValue, value, filter);
+        AggregateProcessor aggregate = this.aggregate;
+
+        if (aggregate != null) {
+            aggregate.add(value, System.currentTimeMillis(), aggregateOutput);
+            return;
+        }
+
+        boolean valuePassesFilter = lastValue == null || filter.test(lastValue, value);
 
         if (valuePassesFilter) {
             lastValue = value;
 
-            enqueue(value);
-
-            if (triggeredItems != null) {
-                triggeredItems.values().forEach(item -> item.triggered = true);
-            }
+            report(value);
         }
     }
 
+    private void report(DataValue value) {
+        enqueue(value);
+
+        markReady();
+
+        fireTriggers();
+    }
+
     @Override
     protected void enqueue(DataValue value) {
-        if (queue.size() < queue.maxSize()) {
-            queue.add(value);
-        } else {
-            if (getQueueSize() > 1) {
-                /* Set overflow if queueSize > 1... */
-                value = value.withStatus(value.getStatusCode().withOverflow());
-            } else if (value.getStatusCode().isOverflowSet()) {
-                /* But make sure it's clear otherwise. */
-                value = value.withStatus(value.getStatusCode().withoutOverflow());
-            }
-
-            if (discardOldest) {
-                queue.add(value);
-            } else {
-                queue.set(queue.maxSize() - 1, value);
-            }
-        }
+        /* Set overflow if queueSize > 1, but make sure it's clear otherwise. */
+        queue.offer(value, discardOldest, getQueueSize() > 1 ? SET_OVERFLOW : CLEAR_OVERFLOW);
     }
 
     @Override
@@ -140,16 +217,23 @@ public class MonitoredDataItem extends BaseMonitoredItem<DataValue> implements D
         lastValue = null;
     }
 
+    @Override
+    public synchronized void onDeleted() {
+        setAggregate(null);
+    }
+
     @Override
     protected void installFilter(ExtensionObject filterXo) throws UaException {
         if (filterXo == null || filterXo.decode() == null) {
-            this.filter = DefaultFilter;
+            this.filter = DefaultCompiledFilter;
+            this.filterResult = null;
+            setAggregate(null);
         } else {
             Object filterObject = filterXo.decode();
 
             if (filterObject instanceof MonitoringFilter) {
                 if (filterObject instanceof DataChangeFilter) {
-                    this.filter = ((DataChangeFilter) filterObject);
+                    DataChangeFilter filter = (DataChangeFilter) filterObject;
 
                     DeadbandType deadbandType = DeadbandType.from(filter.getDeadbandType().intValue());
 
@@ -161,8 +245,25 @@ public class MonitoredDataItem extends BaseMonitoredItem<DataValue> implements D
                             getReadValueId().getAttributeId().intValue() != AttributeIds.Value) {
                         throw new UaException(StatusCodes.Bad_FilterNotAllowed);
                     }
+
+                    if (deadbandType == DeadbandType.Absolute && filter.getDeadbandValue() < 0.0) {
+                        throw new UaException(StatusCodes.Bad_DeadbandFilterInvalid);
+                    }
+
+                    if (deadbandType == DeadbandType.Percent) {
+                        if (euRange == null) {
+                            throw new UaException(StatusCodes.Bad_FilterNotAllowed);
+                        }
+                        if (filter.getDeadbandValue() < 0.0 || filter.getDeadbandValue() > 100.0) {
+                            throw new UaException(StatusCodes.Bad_DeadbandFilterInvalid);
+                        }
+                    }
+
+                    this.filter = DataChangeMonitoringFilter.compile(filter, euRange, dataType);
+                    this.filterResult = null;
+                    setAggregate(null);
                 } else if (filterObject instanceof AggregateFilter) {
-                    throw new UaException(StatusCodes.Bad_MonitoredItemFilterUnsupported);
+                    installAggregateFilter((AggregateFilter) filterObject);
                 } else if (filterObject instanceof EventFilter) {
                     throw new UaException(StatusCodes.Bad_FilterNotAllowed);
                 }
@@ -172,6 +273,62 @@ public class MonitoredDataItem extends BaseMonitoredItem<DataValue> implements D
         }
     }
 
+    private void installAggregateFilter(AggregateFilter filter) throws UaException {
+        if (getReadValueId().getAttributeId().intValue() != AttributeIds.Value) {
+            throw new UaException(StatusCodes.Bad_FilterNotAllowed);
+        }
+
+        AggregateCalculator calculator = AggregateCalculators.create(filter.getAggregateType());
+
+        // the processing interval can't be shorter than the sampling interval.
+        double processingInterval = filter.getProcessingInterval() != null ? filter.getProcessingInterval() : 0.0;
+        processingInterval = Math.max(processingInterval, samplingInterval);
+        processingInterval = Math.max(processingInterval, 1.0);
+
+        long now = System.currentTimeMillis();
+
+        DateTime startTime = filter.getStartTime();
+        long start = (startTime != null && startTime.getUtcTime() > 0) ? startTime.getJavaTime() : now;
+
+        this.filter = DefaultCompiledFilter;
+        this.filterResult = ExtensionObject.encode(new AggregateFilterResult(
+                new DateTime(new Date(start)),
+                (double) (long) processingInterval,
+                filter.getAggregateConfiguration()));
+
+        setAggregate(new AggregateProcessor(calculator, start, (long) processingInterval, now));
+    }
+
+    /**
+     * Install {@code aggregate}, cancelling the timer of the previous one and starting a timer that closes each of
+     * its intervals as it ends.
+     */
+    private void setAggregate(AggregateProcessor aggregate) {
+        ScheduledFuture<?> timer = aggregateTimer;
+        if (timer != null) timer.cancel(false);
+
+        this.aggregate = aggregate;
+        this.aggregateTimer = null;
+
+        if (aggregate != null) {
+            long period = aggregate.getProcessingInterval();
+            long delay = Math.max(aggregate.getIntervalEnd() - System.currentTimeMillis(), 0L);
+
+            aggregateTimer = Stack.sharedScheduledExecutor().scheduleAtFixedRate(
+                    () -> closeAggregateIntervals(aggregate), delay, period, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private synchronized void closeAggregateIntervals(AggregateProcessor aggregate) {
+        if (this.aggregate != aggregate) return;
+
+        if (getMonitoringMode() != MonitoringMode.Disabled) {
+            aggregate.advance(System.currentTimeMillis(), aggregateOutput);
+        } else {
+            aggregate.advance(System.currentTimeMillis(), value -> {});
+        }
+    }
+
     @Override
     public ExtensionObject getFilterResult() {
         return filterResult;
@@ -179,9 +336,12 @@ public class MonitoredDataItem extends BaseMonitoredItem<DataValue> implements D
 
     @Override
     protected MonitoredItemNotification wrapQueueValue(DataValue value) {
-        value = DataValue.derivedValue(value, timestamps);
+        // queued values were already derived for these timestamps when sampled; Both leaves them unchanged.
+        if (timestamps != TimestampsToReturn.Both) {
+            value = DataValue.derivedValue(value, timestamps);
+        }
 
-        return new MonitoredItemNotification(uint(getClientHandle()), value);
+        return new MonitoredItemNotification(clientHandleValue, value);
     }
 
 }
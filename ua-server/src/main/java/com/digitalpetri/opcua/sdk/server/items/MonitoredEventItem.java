@@ -19,23 +19,34 @@
 
 package com.digitalpetri.opcua.sdk.server.items;
 
+import java.util.Set;
+import java.util.function.UnaryOperator;
+
 import com.digitalpetri.opcua.sdk.core.events.BaseEventType;
 import com.digitalpetri.opcua.sdk.server.api.EventItem;
+import com.digitalpetri.opcua.sdk.server.events.CompiledEventFilter;
+import com.digitalpetri.opcua.sdk.server.events.EventFieldRegistry;
+import com.digitalpetri.opcua.sdk.server.events.EventFieldValues;
+import com.digitalpetri.opcua.stack.core.StatusCodes;
 import com.digitalpetri.opcua.stack.core.UaException;
 import com.digitalpetri.opcua.stack.core.types.builtin.ExtensionObject;
+import com.digitalpetri.opcua.stack.core.types.builtin.NodeId;
 import com.digitalpetri.opcua.stack.core.types.builtin.Variant;
 import com.digitalpetri.opcua.stack.core.types.builtin.unsigned.UInteger;
 import com.digitalpetri.opcua.stack.core.types.enumerated.MonitoringMode;
 import com.digitalpetri.opcua.stack.core.types.enumerated.TimestampsToReturn;
 import com.digitalpetri.opcua.stack.core.types.structured.EventFieldList;
 import com.digitalpetri.opcua.stack.core.types.structured.EventFilter;
+import com.digitalpetri.opcua.stack.core.types.structured.EventFilterResult;
+import com.digitalpetri.opcua.stack.core.types.structured.MonitoringFilter;
 import com.digitalpetri.opcua.stack.core.types.structured.ReadValueId;
 
-import static com.digitalpetri.opcua.stack.core.types.builtin.unsigned.Unsigned.uint;
-
 public class MonitoredEventItem extends BaseMonitoredItem<Variant[]> implements EventItem {
 
-    private volatile EventFilter filter;
+    private volatile CompiledEventFilter filter;
+    private volatile ExtensionObject filterResult;
+
+    private final EventFieldRegistry eventFields;
 
     public MonitoredEventItem(UInteger id,
                               UInteger subscriptionId,
@@ -46,57 +57,85 @@ public class MonitoredEventItem extends BaseMonitoredItem<Variant[]> implements
                               double samplingInterval,
                               UInteger queueSize,
                               boolean discardOldest,
-                              ExtensionObject filter) throws UaException {
+                              ExtensionObject filter,
+                              EventFieldRegistry eventFields) throws UaException {
 
         super(id, subscriptionId, readValueId, monitoringMode, timestamps, clientHandle, samplingInterval, queueSize, discardOldest);
 
+        this.eventFields = eventFields;
+
         installFilter(filter);
     }
 
     @Override
     public void setEvent(BaseEventType event) {
-        // TODO Apply EventFilter...
+        setEvent(event, new EventFieldValues(event));
+    }
+
+    @Override
+    public void setEvent(BaseEventType event, EventFieldValues fields) {
+        CompiledEventFilter filter = this.filter;
+
+        if (!filter.matches(fields)) return;
+
+        Variant[] values = filter.select(fields);
 
-        Variant[] variants = new Variant[]{
-                new Variant(event.getEventId()),
-                new Variant(event.getEventType()),
-                new Variant(event.getSourceNode()),
-                new Variant(event.getSourceNode()),
-                new Variant(event.getTime())
-        };
+        synchronized (this) {
+            enqueue(values);
+        }
 
-        enqueue(variants);
+        markReady();
     }
 
     @Override
     protected void enqueue(Variant[] value) {
-        if (queueSize < queue.maxSize()) {
-            queue.add(value);
-        } else {
-            if (getQueueSize() > 1) {
-                // TODO Send an EventQueueOverflowEventType...
-            }
-            if (discardOldest) {
-                queue.add(value);
-            } else {
-                queue.set(queue.maxSize() - 1, value);
-            }
-        }
+        // TODO Send an EventQueueOverflowEventType when queueSize > 1 and a value is discarded...
+        queue.offer(value, discardOldest, UnaryOperator.identity());
+    }
+
+    @Override
+    public Set<NodeId> getEventTypes() {
+        return filter.getEventTypes();
     }
 
     @Override
     public ExtensionObject getFilterResult() {
-        return null;
+        return filterResult;
     }
 
     @Override
     protected void installFilter(ExtensionObject filterXo) throws UaException {
+        Object filterObject = filterXo != null ? filterXo.decode() : null;
 
+        CompiledEventFilter previous = this.filter;
+
+        if (filterObject == null) {
+            this.filter = CompiledEventFilter.defaultFilter(eventFields);
+            this.filterResult = null;
+        } else if (filterObject instanceof EventFilter) {
+            CompiledEventFilter filter = CompiledEventFilter.compile((EventFilter) filterObject, eventFields);
+            EventFilterResult result = filter.getFilterResult();
+
+            this.filter = filter;
+            this.filterResult = result != null ? ExtensionObject.encode(result) : null;
+        } else if (filterObject instanceof MonitoringFilter) {
+            throw new UaException(StatusCodes.Bad_FilterNotAllowed);
+        } else {
+            throw new UaException(StatusCodes.Bad_MonitoredItemFilterInvalid);
+        }
+
+        // released only once the new filter is installed, so fields both filters select stay registered throughout.
+        if (previous != null) previous.release();
+    }
+
+    @Override
+    public void onDeleted() {
+        filter.release();
     }
 
     @Override
     protected EventFieldList wrapQueueValue(Variant[] value) {
-        return new EventFieldList(uint(getClientHandle()), value);
+        return new EventFieldList(clientHandleValue, value);
     }
 
     @Override
@@ -0,0 +1,137 @@
+/*
+ * digitalpetri OPC-UA SDK
+ *
+ * Copyright (C) 2015 Kevin Herron
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.digitalpetri.opcua.sdk.server.model;
+
+import java.util.Map;
+
+import com.digitalpetri.opcua.sdk.core.Reference;
+import com.digitalpetri.opcua.stack.core.Identifiers;
+import com.digitalpetri.opcua.stack.core.types.builtin.ExpandedNodeId;
+import com.digitalpetri.opcua.stack.core.types.builtin.NodeId;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Maps;
+
+/**
+ * An immutable snapshot of the references of a {@link UaNode}.
+ * <p>
+ * The node replaces its snapshot whenever a reference is added or removed, so readers are handed the lists held here
+ * rather than copies. The index by (reference type, direction) is built the first time it's queried and is shared by
+ * every reader of the same snapshot.
+ */
+final class ReferenceIndex {
+
+    static final ReferenceIndex EMPTY = new ReferenceIndex(ImmutableList.of());
+
+    private final ImmutableList<Reference> references;
+
+    private volatile Index index;
+
+    private ReferenceIndex(ImmutableList<Reference> references) {
+        this.references = references;
+    }
+
+    ImmutableList<Reference> getReferences() {
+        return references;
+    }
+
+    /**
+     * @param referenceTypeId the reference type; subtypes are not included.
+     * @param forward         {@code true} for forward references, {@code false} for inverse.
+     * @return the references of exactly {@code referenceTypeId} in the given direction.
+     */
+    ImmutableList<Reference> getReferences(NodeId referenceTypeId, boolean forward) {
+        ImmutableList<Reference> references = (forward ? index().forward : index().inverse).get(referenceTypeId);
+
+        return references != null ? references : ImmutableList.of();
+    }
+
+    ExpandedNodeId getTypeDefinition() {
+        return index().typeDefinition;
+    }
+
+    ReferenceIndex with(Reference reference) {
+        return new ReferenceIndex(ImmutableList.<Reference>builder()
+                .addAll(references)
+                .add(reference)
+                .build());
+    }
+
+    /**
+     * @return a snapshot without the first occurrence of {@code reference}, or this one if it has none.
+     */
+    ReferenceIndex without(Reference reference) {
+        int i = references.indexOf(reference);
+
+        if (i < 0) return this;
+
+        return new ReferenceIndex(ImmutableList.<Reference>builder()
+                .addAll(references.subList(0, i))
+                .addAll(references.subList(i + 1, references.size()))
+                .build());
+    }
+
+    private Index index() {
+        Index index = this.index;
+
+        if (index == null) {
+            index = new Index(references);
+            this.index = index;
+        }
+
+        return index;
+    }
+
+    private static final class Index {
+
+        final ImmutableMap<NodeId, ImmutableList<Reference>> forward;
+        final ImmutableMap<NodeId, ImmutableList<Reference>> inverse;
+        final ExpandedNodeId typeDefinition;
+
+        Index(ImmutableList<Reference> references) {
+            Map<NodeId, ImmutableList.Builder<Reference>> forward = Maps.newLinkedHashMap();
+            Map<NodeId, ImmutableList.Builder<Reference>> inverse = Maps.newLinkedHashMap();
+
+            for (Reference reference : references) {
+                Map<NodeId, ImmutableList.Builder<Reference>> byType = reference.isForward() ? forward : inverse;
+
+                byType.computeIfAbsent(reference.getReferenceTypeId(), k -> ImmutableList.builder()).add(reference);
+            }
+
+            this.forward = build(forward);
+            this.inverse = build(inverse);
+
+            ImmutableList<Reference> typeDefinitions = this.forward.get(Identifiers.HasTypeDefinition);
+
+            this.typeDefinition = (typeDefinitions != null) ?
+                    typeDefinitions.get(0).getTargetNodeId() : ExpandedNodeId.NULL_VALUE;
+        }
+
+        private static ImmutableMap<NodeId, ImmutableList<Reference>> build(
+                Map<NodeId, ImmutableList.Builder<Reference>> builders) {
+
+            ImmutableMap.Builder<NodeId, ImmutableList<Reference>> map = ImmutableMap.builder();
+            builders.forEach((k, v) -> map.put(k, v.build()));
+            return map.build();
+        }
+
+    }
+
+}
@@ -25,8 +25,8 @@ import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Optional;
-import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.stream.Collectors;
 
 import com.digitalpetri.opcua.sdk.core.AttributeIds;
@@ -54,9 +54,17 @@ public abstract class UaNode implements Node {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(UaNode.class);
 
+    /**
+     * Incremented whenever a reference is added to or removed from any node.
+     */
+    private static final AtomicLong REFERENCE_VERSION = new AtomicLong(0L);
+
     private final AtomicInteger refCount = new AtomicInteger(0);
 
-    private final List<Reference> references = new CopyOnWriteArrayList<>();
+    /**
+     * Replaced, never mutated, while holding this node's monitor.
+     */
+    private volatile ReferenceIndex references = ReferenceIndex.EMPTY;
 
     private List<WeakReference<AttributeObserver>> observers;
 
@@ -196,12 +204,42 @@ public abstract class UaNode implements Node {
         return nodeManager.getNode(nodeId);
     }
 
+    /**
+     * @return an immutable snapshot of this node's references; it isn't copied, so this is cheap to call.
+     */
     public ImmutableList<Reference> getReferences() {
-        return ImmutableList.copyOf(references);
+        return references.getReferences();
+    }
+
+    /**
+     * @param referenceTypeId the reference type; subtypes are not included.
+     * @param forward         {@code true} for forward references, {@code false} for inverse.
+     * @return an immutable snapshot of this node's references of {@code referenceTypeId} in the given direction.
+     */
+    public ImmutableList<Reference> getReferences(NodeId referenceTypeId, boolean forward) {
+        return references.getReferences(referenceTypeId, forward);
+    }
+
+    /**
+     * @return the target of this node's HasTypeDefinition reference, or {@link ExpandedNodeId#NULL_VALUE} if it has
+     * none.
+     */
+    public ExpandedNodeId getTypeDefinition() {
+        return references.getTypeDefinition();
+    }
+
+    /**
+     * Anything derived from references, e.g. a cached walk of the type hierarchy, is stale once this has changed.
+     *
+     * @return a counter incremented whenever a reference is added to or removed from any node.
+     */
+    public static long getReferenceVersion() {
+        return REFERENCE_VERSION.get();
     }
 
     public synchronized void addReference(Reference reference) {
-        references.add(reference);
+        references = references.with(reference);
+        REFERENCE_VERSION.incrementAndGet();
 
         if (reference.isInverse()) {
             int count = refCount.incrementAndGet();
@@ -218,7 +256,8 @@ public abstract class UaNode implements Node {
     }
 
     public synchronized void removeReference(Reference reference) {
-        references.remove(reference);
+        references = references.without(reference);
+        REFERENCE_VERSION.incrementAndGet();
 
         if (reference.isInverse()) {
             int count = refCount.decrementAndGet();
@@ -239,18 +278,19 @@ public abstract class UaNode implements Node {
 
         ExpandedNodeId expanded = getNodeId().expanded();
 
-        List<UaNode> referencedNodes = getReferences().stream()
-                .filter(Reference::isForward)
-                .flatMap(r -> opt2stream(getNode(r.getTargetNodeId())))
-                .collect(Collectors.toList());
+        for (Reference reference : getReferences()) {
+            if (reference.isInverse()) continue;
 
-        for (UaNode node : referencedNodes) {
-            List<Reference> inverseReferences = node.getReferences().stream()
-                    .filter(Reference::isInverse)
-                    .filter(r -> r.getTargetNodeId().equals(expanded))
-                    .collect(Collectors.toList());
+            Optional<UaNode> node = getNode(reference.getTargetNodeId());
 
-            node.removeReferences(inverseReferences);
+            if (node.isPresent()) {
+                List<Reference> inverseReferences = node.get()
+                        .getReferences(reference.getReferenceTypeId(), false).stream()
+                        .filter(r -> r.getTargetNodeId().equals(expanded))
+                        .collect(Collectors.toList());
+
+                node.get().removeReferences(inverseReferences);
+            }
         }
 
         nodeManager.removeNode(getNodeId());
@@ -307,8 +347,7 @@ public abstract class UaNode implements Node {
     }
 
     public Optional<VariableNode> getPropertyNode(QualifiedName browseName) {
-        Node node = references.stream()
-                .filter(Reference.HAS_PROPERTY_PREDICATE)
+        Node node = getReferences(Identifiers.HasProperty, true).stream()
                 .flatMap(r -> opt2stream(getNode(r.getTargetNodeId())))
                 .filter(n -> n.getBrowseName().equals(browseName))
                 .findFirst().orElse(null);
@@ -361,8 +400,8 @@ public abstract class UaNode implements Node {
     }
 
     protected Optional<ObjectNode> getObjectComponent(QualifiedName browseName) {
-        ObjectNode node = (ObjectNode) references.stream()
-                .filter(Reference.HAS_COMPONENT_PREDICATE.and(r -> r.getTargetNodeClass() == NodeClass.Object))
+        ObjectNode node = (ObjectNode) getReferences(Identifiers.HasComponent, true).stream()
+                .filter(r -> r.getTargetNodeClass() == NodeClass.Object)
                 .flatMap(r -> opt2stream(getNode(r.getTargetNodeId())))
                 .filter(n -> n.getBrowseName().equals(browseName))
                 .findFirst().orElse(null);
@@ -375,8 +414,8 @@ public abstract class UaNode implements Node {
     }
 
     protected Optional<VariableNode> getVariableComponent(QualifiedName browseName) {
-        VariableNode node = (VariableNode) references.stream()
-                .filter(Reference.HAS_COMPONENT_PREDICATE.and(r -> r.getTargetNodeClass() == NodeClass.Variable))
+        VariableNode node = (VariableNode) getReferences(Identifiers.HasComponent, true).stream()
+                .filter(r -> r.getTargetNodeClass() == NodeClass.Variable)
                 .flatMap(r -> opt2stream(getNode(r.getTargetNodeId())))
                 .filter(n -> n.getBrowseName().equals(browseName))
                 .findFirst().orElse(null);
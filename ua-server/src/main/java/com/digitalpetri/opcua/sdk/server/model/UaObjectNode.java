@@ -47,13 +47,6 @@ import com.digitalpetri.opcua.stack.core.types.enumerated.NodeClass;
 import com.google.common.base.Preconditions;
 import com.google.common.collect.Lists;
 
-import static com.digitalpetri.opcua.sdk.core.Reference.HAS_COMPONENT_PREDICATE;
-import static com.digitalpetri.opcua.sdk.core.Reference.HAS_DESCRIPTION_PREDICATE;
-import static com.digitalpetri.opcua.sdk.core.Reference.HAS_EVENT_SOURCE_PREDICATE;
-import static com.digitalpetri.opcua.sdk.core.Reference.HAS_NOTIFIER_PREDICATE;
-import static com.digitalpetri.opcua.sdk.core.Reference.HAS_PROPERTY_PREDICATE;
-import static com.digitalpetri.opcua.sdk.core.Reference.HAS_TYPE_DEFINITION_PREDICATE;
-import static com.digitalpetri.opcua.sdk.core.Reference.ORGANIZES_PREDICATE;
 import static com.digitalpetri.opcua.sdk.server.util.StreamUtil.opt2stream;
 import static com.digitalpetri.opcua.stack.core.types.builtin.unsigned.Unsigned.ubyte;
 import static com.digitalpetri.opcua.stack.core.types.builtin.unsigned.Unsigned.uint;
@@ -97,22 +90,19 @@ public class UaObjectNode extends UaNode implements ObjectNode {
     }
 
     public List<Node> getComponentNodes() {
-        return getReferences().stream()
-                .filter(HAS_COMPONENT_PREDICATE)
+        return getReferences(Identifiers.HasComponent, true).stream()
                 .flatMap(r -> opt2stream(getNode(r.getTargetNodeId())))
                 .collect(Collectors.toList());
     }
 
     public List<Node> getPropertyNodes() {
-        return getReferences().stream()
-                .filter(HAS_PROPERTY_PREDICATE)
+        return getReferences(Identifiers.HasProperty, true).stream()
                 .flatMap(r -> opt2stream(getNode(r.getTargetNodeId())))
                 .collect(Collectors.toList());
     }
 
     public ObjectTypeNode getTypeDefinitionNode() {
-        Node node = getReferences().stream()
-                .filter(HAS_TYPE_DEFINITION_PREDICATE)
+        Node node = getReferences(Identifiers.HasTypeDefinition, true).stream()
                 .findFirst()
                 .flatMap(r -> getNode(r.getTargetNodeId()))
                 .orElse(null);
@@ -121,29 +111,25 @@ public class UaObjectNode extends UaNode implements ObjectNode {
     }
 
     public List<Node> getEventSourceNodes() {
-        return getReferences().stream()
-                .filter(HAS_EVENT_SOURCE_PREDICATE)
+        return getReferences(Identifiers.HasEventSource, true).stream()
                 .flatMap(r -> opt2stream(getNode(r.getTargetNodeId())))
                 .collect(Collectors.toList());
     }
 
     public List<Node> getNotifierNodes() {
-        return getReferences().stream()
-                .filter(HAS_NOTIFIER_PREDICATE)
+        return getReferences(Identifiers.HasNotifier, true).stream()
                 .flatMap(r -> opt2stream(getNode(r.getTargetNodeId())))
                 .collect(Collectors.toList());
     }
 
     public List<Node> getOrganizesNodes() {
-        return getReferences().stream()
-                .filter(ORGANIZES_PREDICATE)
+        return getReferences(Identifiers.Organizes, true).stream()
                 .flatMap(r -> opt2stream(getNode(r.getTargetNodeId())))
                 .collect(Collectors.toList());
     }
 
     public Optional<Node> getDescriptionNode() {
-        Optional<UaNode> node = getReferences().stream()
-                .filter(HAS_DESCRIPTION_PREDICATE)
+        Optional<UaNode> node = getReferences(Identifiers.HasDescription, true).stream()
                 .findFirst()
                 .flatMap(r -> getNode(r.getTargetNodeId()));
 
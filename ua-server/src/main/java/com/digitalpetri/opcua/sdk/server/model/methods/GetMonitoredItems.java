@@ -22,7 +22,6 @@ package com.digitalpetri.opcua.sdk.server.model.methods;
 import java.util.List;
 
 import com.digitalpetri.opcua.sdk.server.OpcUaServer;
-import com.digitalpetri.opcua.sdk.server.items.BaseMonitoredItem;
 import com.digitalpetri.opcua.sdk.server.subscriptions.Subscription;
 import com.digitalpetri.opcua.sdk.server.util.AnnotationBasedInvocationHandler.InvocationContext;
 import com.digitalpetri.opcua.sdk.server.util.AnnotationBasedInvocationHandler.Out;
@@ -66,10 +65,10 @@ public class GetMonitoredItems {
             List<UInteger> serverHandleList = Lists.newArrayList();
             List<UInteger> clientHandleList = Lists.newArrayList();
 
-            for (BaseMonitoredItem<?> item : subscription.getMonitoredItems().values()) {
+            subscription.getMonitoredItems().forEach(item -> {
                 serverHandleList.add(item.getId());
                 clientHandleList.add(uint(item.getClientHandle()));
-            }
+            });
 
             serverHandles.set(serverHandleList.toArray(new UInteger[serverHandleList.size()]));
             clientHandles.set(clientHandleList.toArray(new UInteger[clientHandleList.size()]));
@@ -105,6 +105,11 @@ public class OpcUaNamespace implements Namespace {
         return NamespaceTable.OpcUaNamespace;
     }
 
+    @Override
+    public Optional<UaNodeManager> getLocalNodeManager() {
+        return Optional.of(nodeManager);
+    }
+
     @Override
     public CompletableFuture<List<Reference>> getReferences(NodeId nodeId) {
         UaNode node = nodeManager.get(nodeId);
@@ -176,29 +181,39 @@ public class OpcUaNamespace implements Namespace {
     @Override
     public void onMonitoringModeChanged(List<MonitoredItem> monitoredItems) {
         subscriptionModel.onMonitoringModeChanged(monitoredItems);
+
+        for (MonitoredItem item : monitoredItems) {
+            if (item instanceof EventItem) {
+                if (item.isSamplingEnabled()) {
+                    server.getEventRouter().register((EventItem) item);
+                } else {
+                    server.getEventRouter().unregister((EventItem) item);
+                }
+            }
+        }
     }
 
     @Override
     public void onEventItemsCreated(List<EventItem> eventItems) {
         eventItems.stream()
                 .filter(MonitoredItem::isSamplingEnabled)
-                .forEach(item -> server.getEventBus().register(item));
+                .forEach(item -> server.getEventRouter().register(item));
     }
 
     @Override
     public void onEventItemsModified(List<EventItem> eventItems) {
         for (EventItem item : eventItems) {
             if (item.isSamplingEnabled()) {
-                server.getEventBus().register(item);
+                server.getEventRouter().register(item);
             } else {
-                server.getEventBus().unregister(item);
+                server.getEventRouter().unregister(item);
             }
         }
     }
 
     @Override
     public void onEventItemsDeleted(List<EventItem> eventItems) {
-        eventItems.forEach(item -> server.getEventBus().unregister(item));
+        eventItems.forEach(item -> server.getEventRouter().unregister(item));
     }
 
     public void addReference(NodeId sourceNodeId,
@@ -22,6 +22,7 @@ package com.digitalpetri.opcua.sdk.server.namespaces;
 import java.lang.management.ManagementFactory;
 import java.lang.management.MemoryMXBean;
 import java.util.List;
+import java.util.Optional;
 import java.util.concurrent.CompletableFuture;
 
 import com.digitalpetri.opcua.sdk.core.Reference;
@@ -84,6 +85,11 @@ public class VendorNamespace implements Namespace {
         return namespaceUri;
     }
 
+    @Override
+    public Optional<UaNodeManager> getLocalNodeManager() {
+        return Optional.of(nodeManager);
+    }
+
     @Override
     public CompletableFuture<List<Reference>> getReferences(NodeId nodeId) {
         UaNode node = nodeManager.get(nodeId);
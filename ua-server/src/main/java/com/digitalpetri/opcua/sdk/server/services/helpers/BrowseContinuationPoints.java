@@ -0,0 +1,149 @@
+/*
+ * digitalpetri OPC-UA SDK
+ *
+ * Copyright (C) 2015 Kevin Herron
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.digitalpetri.opcua.sdk.server.services.helpers;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import com.codahale.metrics.Counter;
+import com.digitalpetri.opcua.sdk.server.Session;
+import com.digitalpetri.opcua.sdk.server.services.helpers.BrowseHelper.BrowseContinuationPoint;
+import com.digitalpetri.opcua.stack.core.types.builtin.ByteString;
+
+/**
+ * The Browse continuation points of a single {@link Session}.
+ * <p>
+ * At most {@code maxContinuationPoints} are held at once, and every continuation point is released when the session
+ * closes. The estimated memory held by each is kept up to date in a server-wide {@link Counter}.
+ * <p>
+ * Expiry is lazy: a continuation point that hasn't been continued within the idle timeout is released the next time
+ * the store is used, not on a timer. A session that stops browsing keeps its expired continuation points, at most
+ * {@code maxContinuationPoints} of them, until it browses again or closes.
+ */
+public class BrowseContinuationPoints {
+
+    /**
+     * Entries in order of last use; a continuation point is removed while it's being continued and stored again after.
+     */
+    private final LinkedHashMap<ByteString, Entry> entries = new LinkedHashMap<>();
+
+    private final int maxContinuationPoints;
+    private final long idleTimeoutNanos;
+    private final Counter memory;
+
+    /**
+     * @param maxContinuationPoints the maximum number of continuation points held at once.
+     * @param idleTimeoutNanos      how long a continuation point is held without being continued.
+     * @param memory                a server-wide {@link Counter} of estimated retained bytes to keep up to date.
+     */
+    public BrowseContinuationPoints(int maxContinuationPoints, long idleTimeoutNanos, Counter memory) {
+        this.maxContinuationPoints = maxContinuationPoints;
+        this.idleTimeoutNanos = idleTimeoutNanos;
+        this.memory = memory;
+    }
+
+    /**
+     * @return {@code true} if another continuation point can be stored.
+     */
+    public synchronized boolean hasCapacity() {
+        expire();
+
+        return entries.size() < maxContinuationPoints;
+    }
+
+    /**
+     * Store {@code c}, unless this store is full.
+     *
+     * @param c the {@link BrowseContinuationPoint} to store.
+     * @return {@code true} if {@code c} was stored.
+     */
+    public synchronized boolean put(BrowseContinuationPoint c) {
+        expire();
+
+        if (entries.size() >= maxContinuationPoints) return false;
+
+        Entry previous = entries.put(c.getIdentifier(), new Entry(c, System.nanoTime()));
+        if (previous != null) memory.dec(previous.continuationPoint.getEstimatedSize());
+
+        memory.inc(c.getEstimatedSize());
+
+        return true;
+    }
+
+    /**
+     * Remove the continuation point identified by {@code identifier}.
+     *
+     * @param identifier the continuation point identifier.
+     * @return the removed {@link BrowseContinuationPoint}, or {@code null} if unknown or expired.
+     */
+    public synchronized BrowseContinuationPoint remove(ByteString identifier) {
+        expire();
+
+        Entry entry = entries.remove(identifier);
+
+        if (entry != null) {
+            memory.dec(entry.continuationPoint.getEstimatedSize());
+
+            return entry.continuationPoint;
+        } else {
+            return null;
+        }
+    }
+
+    /**
+     * Release every continuation point, e.g. when the session closes.
+     */
+    public synchronized void clear() {
+        entries.values().forEach(entry -> memory.dec(entry.continuationPoint.getEstimatedSize()));
+        entries.clear();
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    private void expire() {
+        long now = System.nanoTime();
+        Iterator<Map.Entry<ByteString, Entry>> iterator = entries.entrySet().iterator();
+
+        while (iterator.hasNext()) {
+            Entry entry = iterator.next().getValue();
+
+            if (now - entry.lastUsed < idleTimeoutNanos) break;
+
+            memory.dec(entry.continuationPoint.getEstimatedSize());
+            iterator.remove();
+        }
+    }
+
+    private static final class Entry {
+
+        final BrowseContinuationPoint continuationPoint;
+        final long lastUsed;
+
+        Entry(BrowseContinuationPoint continuationPoint, long lastUsed) {
+            this.continuationPoint = continuationPoint;
+            this.lastUsed = lastUsed;
+        }
+
+    }
+
+}
@@ -19,18 +19,24 @@
 
 package com.digitalpetri.opcua.sdk.server.services.helpers;
 
-import java.util.Collections;
 import java.util.EnumSet;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Optional;
 import java.util.concurrent.CompletableFuture;
+import java.util.function.Predicate;
+import javax.annotation.Nullable;
 
 import com.digitalpetri.opcua.sdk.core.AttributeIds;
 import com.digitalpetri.opcua.sdk.core.Reference;
 import com.digitalpetri.opcua.sdk.server.DiagnosticsContext;
 import com.digitalpetri.opcua.sdk.server.NamespaceManager;
 import com.digitalpetri.opcua.sdk.server.OpcUaServer;
+import com.digitalpetri.opcua.sdk.server.Session;
 import com.digitalpetri.opcua.sdk.server.api.AttributeManager.ReadContext;
 import com.digitalpetri.opcua.sdk.server.api.Namespace;
+import com.digitalpetri.opcua.sdk.server.api.UaNodeManager;
+import com.digitalpetri.opcua.sdk.server.model.UaNode;
 import com.digitalpetri.opcua.sdk.server.services.ServiceAttributes;
 import com.digitalpetri.opcua.stack.core.Identifiers;
 import com.digitalpetri.opcua.stack.core.StatusCodes;
@@ -74,12 +80,21 @@ public class BrowseHelper {
     private static final StatusCode BAD_NO_CONTINUATION_POINTS =
             new StatusCode(StatusCodes.Bad_NoContinuationPoints);
 
+    private static final BrowseResult NO_CONTINUATION_POINTS_RESULT = new BrowseResult(
+            BAD_NO_CONTINUATION_POINTS, null, new ReferenceDescription[0]);
+
+    /**
+     * Approximate size of a {@link Reference} and its ids, for accounting continuation point memory.
+     */
+    private static final int ESTIMATED_REFERENCE_SIZE = 96;
+
     private static final BrowseResult NODE_ID_UNKNOWN_RESULT = new BrowseResult(
             new StatusCode(StatusCodes.Bad_NodeIdUnknown),
             ByteString.NULL_VALUE, new ReferenceDescription[0]);
 
     public void browseNext(ServiceRequest<BrowseNextRequest, BrowseNextResponse> service) {
         OpcUaServer server = service.attr(ServiceAttributes.SERVER_KEY).get();
+        Session session = service.attr(ServiceAttributes.SESSION_KEY).get();
 
         BrowseNextRequest request = service.getRequest();
 
@@ -88,17 +103,34 @@ public class BrowseHelper {
 
             service.setServiceFault(StatusCodes.Bad_TooManyOperations);
         } else {
-            server.getExecutorService().execute(new BrowseNext(server, service));
+            server.getExecutorService().execute(new BrowseNext(session, service));
         }
     }
 
+    /**
+     * Browse without a {@link Session}; no continuation points can be created, so a node with more than
+     * {@code maxReferencesPerNode} matching references yields Bad_NoContinuationPoints.
+     */
+    public static CompletableFuture<BrowseResult> browse(OpcUaServer server,
+                                                         ViewDescription view,
+                                                         UInteger maxReferencesPerNode,
+                                                         BrowseDescription browseDescription) {
+
+        return browse(server, null, view, maxReferencesPerNode, browseDescription);
+    }
+
+    /**
+     * @param session the {@link Session} browsing; continuation points are held by it.
+     */
     public static CompletableFuture<BrowseResult> browse(OpcUaServer server,
+                                                         @Nullable Session session,
                                                          ViewDescription view,
                                                          UInteger maxReferencesPerNode,
                                                          BrowseDescription browseDescription) {
 
         Browse browse = new Browse(
                 server,
+                session != null ? session.getBrowseContinuationPoints() : null,
                 maxReferencesPerNode,
                 browseDescription);
 
@@ -112,16 +144,36 @@ public class BrowseHelper {
         private final CompletableFuture<BrowseResult> future = new CompletableFuture<>();
 
         private final OpcUaServer server;
+        private final BrowseContinuationPoints continuationPoints;
         private final UInteger maxReferencesPerNode;
         private final BrowseDescription browseDescription;
+        private final Predicate<NodeId> referenceTypeFilter;
+        private final EnumSet<NodeClass> nodeClasses;
+        private final EnumSet<BrowseResultMask> masks;
+
+        /**
+         * The number of references the cursor holds on to, for estimating the size of a continuation point.
+         */
+        private volatile int referenceCount;
 
         private Browse(OpcUaServer server,
+                       @Nullable BrowseContinuationPoints continuationPoints,
                        UInteger maxReferencesPerNode,
                        BrowseDescription browseDescription) {
 
             this.browseDescription = browseDescription;
             this.maxReferencesPerNode = maxReferencesPerNode;
             this.server = server;
+            this.continuationPoints = continuationPoints;
+
+            referenceTypeFilter = server.getReferenceTypeHierarchy().filter(
+                    browseDescription.getReferenceTypeId(),
+                    browseDescription.getIncludeSubtypes());
+
+            long mask = browseDescription.getNodeClassMask().longValue();
+            nodeClasses = (mask == 0L) ? EnumSet.allOf(NodeClass.class) : nodeClasses(mask);
+
+            masks = browseResultMasks(browseDescription.getResultMask().longValue());
         }
 
         public CompletableFuture<BrowseResult> getFuture() {
@@ -133,58 +185,119 @@ public class BrowseHelper {
             NamespaceManager namespaceManager = server.getNamespaceManager();
             Namespace namespace = namespaceManager.getNamespace(browseDescription.getNodeId().getNamespaceIndex());
 
+            Optional<UaNodeManager> nodeManager = namespace.getLocalNodeManager();
+
+            if (nodeManager.isPresent()) {
+                UaNode node = nodeManager.get().get(browseDescription.getNodeId());
+
+                if (node != null) {
+                    firstPage(node.getReferences());
+                } else {
+                    future.complete(NODE_ID_UNKNOWN_RESULT);
+                }
+
+                return;
+            }
+
             CompletableFuture<List<Reference>> referencesFuture =
                     namespace.getReferences(browseDescription.getNodeId());
 
             referencesFuture.whenComplete((references, ex) -> {
                 if (references != null) {
-                    browse(references).whenComplete((result, ex2) -> {
-                       if (result != null) future.complete(result);
-                       else future.complete(NODE_ID_UNKNOWN_RESULT);
-                    });
+                    firstPage(references);
                 } else {
                     future.complete(NODE_ID_UNKNOWN_RESULT);
                 }
             });
         }
 
-        private CompletableFuture<BrowseResult> browse(List<Reference> references) {
-            List<CompletableFuture<ReferenceDescription>> fs = references.stream()
-                    .filter(this::directionFilter)
-                    .filter(this::referenceTypeFilter)
-                    .filter(this::nodeClassFilter)
-                    .distinct()
-                    .map(this::referenceDescription)
-                    .collect(toList());
-
-            return sequence(fs).thenApply(referenceDescriptions -> {
-                int max = maxReferencesPerNode.longValue() == 0 ?
-                        Integer.MAX_VALUE :
-                        Ints.saturatedCast(maxReferencesPerNode.longValue());
+        private void firstPage(List<Reference> references) {
+            referenceCount = references.size();
 
-                return browseResult(referenceDescriptions, max);
+            nextPage(filter(references), null).whenComplete((result, ex) -> {
+                if (result != null) future.complete(result);
+                else future.complete(NODE_ID_UNKNOWN_RESULT);
             });
         }
 
-        private BrowseResult browseResult(List<ReferenceDescription> references, int max) {
-            if (references.size() > max) {
-                if (server.getBrowseContinuationPoints().size() >
-                        server.getConfig().getLimits().getMaxBrowseContinuationPoints().intValue()) {
+        /**
+         * Describe the next page of references from {@code cursor}. If references remain after it, {@code cursor} is
+         * kept in a {@link BrowseContinuationPoint} so that only the references actually returned are ever described.
+         *
+         * @param cursor     the filtered references not yet returned.
+         * @param identifier the identifier of the continuation point being continued, or {@code null} on first browse.
+         */
+        private CompletableFuture<BrowseResult> nextPage(Iterator<Reference> cursor, ByteString identifier) {
+            int max = max();
+
+            List<Reference> page = Lists.newArrayList();
+            while (page.size() < max && cursor.hasNext()) {
+                page.add(cursor.next());
+            }
 
-                    return new BrowseResult(BAD_NO_CONTINUATION_POINTS, null, new ReferenceDescription[0]);
-                } else {
-                    List<ReferenceDescription> subList = references.subList(0, max);
-                    List<ReferenceDescription> current = Lists.newArrayList(subList);
-                    subList.clear();
+            boolean more = cursor.hasNext();
+
+            if (more && (continuationPoints == null || (identifier == null && !continuationPoints.hasCapacity()))) {
+                return CompletableFuture.completedFuture(NO_CONTINUATION_POINTS_RESULT);
+            }
+
+            return describe(page).thenApply(referenceDescriptions -> {
+                ReferenceDescription[] references =
+                        referenceDescriptions.toArray(new ReferenceDescription[referenceDescriptions.size()]);
+
+                if (more) {
+                    BrowseContinuationPoint c = new BrowseContinuationPoint(
+                            this, cursor, identifier != null ? identifier : BrowseContinuationPoint.generateId(),
+                            (long) referenceCount * ESTIMATED_REFERENCE_SIZE);
 
-                    BrowseContinuationPoint c = new BrowseContinuationPoint(references, max);
-                    server.getBrowseContinuationPoints().put(c.identifier, c);
+                    if (!continuationPoints.put(c)) return NO_CONTINUATION_POINTS_RESULT;
 
-                    return new BrowseResult(StatusCode.GOOD, c.identifier, current.toArray(new ReferenceDescription[current.size()]));
+                    return new BrowseResult(StatusCode.GOOD, c.identifier, references);
+                } else {
+                    return new BrowseResult(StatusCode.GOOD, null, references);
                 }
-            } else {
-                return new BrowseResult(StatusCode.GOOD, null, references.toArray(new ReferenceDescription[references.size()]));
+            });
+        }
+
+        /**
+         * Describe {@code references} in a single pass, reading target attributes directly from their {@link UaNode}s.
+         * If a target belongs to a namespace without a local {@link UaNodeManager} the page is described by reading
+         * attributes through each target's {@link Namespace} instead.
+         */
+        private CompletableFuture<List<ReferenceDescription>> describe(List<Reference> references) {
+            List<ReferenceDescription> referenceDescriptions = Lists.newArrayListWithCapacity(references.size());
+
+            for (Reference reference : references) {
+                ReferenceDescription referenceDescription = localReferenceDescription(reference);
+
+                if (referenceDescription == null) {
+                    return sequence(references.stream()
+                            .map(this::referenceDescription)
+                            .collect(toList()));
+                }
+
+                referenceDescriptions.add(referenceDescription);
             }
+
+            return CompletableFuture.completedFuture(referenceDescriptions);
+        }
+
+        /**
+         * @return a lazy cursor over the references that pass this browse's filters.
+         */
+        private Iterator<Reference> filter(List<Reference> references) {
+            return references.stream()
+                    .filter(this::directionFilter)
+                    .filter(this::referenceTypeFilter)
+                    .filter(this::nodeClassFilter)
+                    .distinct()
+                    .iterator();
+        }
+
+        private int max() {
+            return maxReferencesPerNode.longValue() == 0 ?
+                    Integer.MAX_VALUE :
+                    Ints.saturatedCast(maxReferencesPerNode.longValue());
         }
 
         private boolean directionFilter(Reference reference) {
@@ -200,27 +313,53 @@ public class BrowseHelper {
         }
 
         private boolean referenceTypeFilter(Reference reference) {
-            NodeId referenceTypeId = browseDescription.getReferenceTypeId();
-
-            boolean includeAny = referenceTypeId == null || referenceTypeId.isNull();
-            boolean includeSubtypes = browseDescription.getIncludeSubtypes();
-
-            return includeAny || reference.getReferenceTypeId().equals(referenceTypeId) ||
-                    (includeSubtypes && reference.subtypeOf(referenceTypeId, server.getReferenceTypes()));
+            return referenceTypeFilter.test(reference.getReferenceTypeId());
         }
 
         private boolean nodeClassFilter(Reference reference) {
-            long mask = browseDescription.getNodeClassMask().longValue();
+            return nodeClasses.contains(reference.getTargetNodeClass());
+        }
+
+        /**
+         * @return a {@link ReferenceDescription} built from the target {@link UaNode}, or {@code null} if the target's
+         * namespace has no local {@link UaNodeManager}.
+         */
+        private ReferenceDescription localReferenceDescription(Reference reference) {
+            ExpandedNodeId targetNodeId = reference.getTargetNodeId();
 
-            EnumSet<NodeClass> nodeClasses = (mask == 0L) ?
-                    EnumSet.allOf(NodeClass.class) : nodeClasses(mask);
+            NodeId referenceTypeId = masks.contains(BrowseResultMask.ReferenceTypeId) ?
+                    reference.getReferenceTypeId() : NodeId.NULL_VALUE;
 
-            return nodeClasses.contains(reference.getTargetNodeClass());
+            Optional<NodeId> local = targetNodeId.local();
+            UaNode node = null;
+
+            if (local.isPresent()) {
+                Namespace namespace = server.getNamespaceManager().getNamespace(local.get().getNamespaceIndex());
+                Optional<UaNodeManager> nodeManager = namespace.getLocalNodeManager();
+
+                if (!nodeManager.isPresent()) return null;
+
+                node = nodeManager.get().get(local.get());
+            }
+
+            if (node == null) {
+                return new ReferenceDescription(
+                        referenceTypeId, reference.isForward(), targetNodeId,
+                        QualifiedName.NULL_VALUE, LocalizedText.NULL_VALUE,
+                        NodeClass.Unspecified, ExpandedNodeId.NULL_VALUE);
+            }
+
+            return new ReferenceDescription(
+                    referenceTypeId,
+                    reference.isForward(),
+                    targetNodeId,
+                    masks.contains(BrowseResultMask.BrowseName) ? node.getBrowseName() : QualifiedName.NULL_VALUE,
+                    masks.contains(BrowseResultMask.DisplayName) ? node.getDisplayName() : LocalizedText.NULL_VALUE,
+                    masks.contains(BrowseResultMask.NodeClass) ? node.getNodeClass() : NodeClass.Unspecified,
+                    node.getTypeDefinition());
         }
 
         private CompletableFuture<ReferenceDescription> referenceDescription(Reference reference) {
-            EnumSet<BrowseResultMask> masks = browseResultMasks(browseDescription.getResultMask().longValue());
-
             ExpandedNodeId targetNodeId = reference.getTargetNodeId();
 
             NodeId referenceTypeId = masks.contains(BrowseResultMask.ReferenceTypeId) ?
@@ -307,13 +446,13 @@ public class BrowseHelper {
 
     private class BrowseNext implements Runnable {
 
-        private final OpcUaServer server;
+        private final BrowseContinuationPoints continuationPoints;
         private final ServiceRequest<BrowseNextRequest, BrowseNextResponse> service;
 
-        private BrowseNext(OpcUaServer server,
+        private BrowseNext(Session session,
                            ServiceRequest<BrowseNextRequest, BrowseNextResponse> service) {
 
-            this.server = server;
+            this.continuationPoints = session.getBrowseContinuationPoints();
             this.service = service;
         }
 
@@ -321,91 +460,90 @@ public class BrowseHelper {
         public void run() {
             BrowseNextRequest request = service.getRequest();
 
-            List<BrowseResult> results = Lists.newArrayList();
+            List<CompletableFuture<BrowseResult>> results = Lists.newArrayList();
 
             ByteString[] cs = request.getContinuationPoints() != null ?
                     request.getContinuationPoints() : new ByteString[0];
 
             for (ByteString bs : cs) {
                 if (request.getReleaseContinuationPoints()) {
-                    results.add(release(bs));
+                    results.add(CompletableFuture.completedFuture(release(bs)));
                 } else {
                     results.add(references(bs));
                 }
             }
 
-            ResponseHeader header = service.createResponseHeader();
-            BrowseNextResponse response = new BrowseNextResponse(
-                    header, results.toArray(new BrowseResult[results.size()]), new DiagnosticInfo[0]);
+            sequence(results).thenAccept(rs -> {
+                ResponseHeader header = service.createResponseHeader();
+                BrowseNextResponse response = new BrowseNextResponse(
+                        header, rs.toArray(new BrowseResult[rs.size()]), new DiagnosticInfo[0]);
 
-            service.setResponse(response);
+                service.setResponse(response);
+            });
         }
 
         private BrowseResult release(ByteString bs) {
-            BrowseContinuationPoint c = server.getBrowseContinuationPoints().remove(bs);
+            BrowseContinuationPoint c = continuationPoints.remove(bs);
 
             return c != null ?
                     new BrowseResult(StatusCode.GOOD, null, null) :
                     new BrowseResult(BAD_CONTINUATION_POINT_INVALID, null, null);
         }
 
-        private BrowseResult references(ByteString bs) {
-            BrowseContinuationPoint c = server.getBrowseContinuationPoints().remove(bs);
+        private CompletableFuture<BrowseResult> references(ByteString bs) {
+            BrowseContinuationPoint c = continuationPoints.remove(bs);
 
             if (c != null) {
-                int max = c.max;
-                List<ReferenceDescription> references = c.references;
-
-                if (references.size() > max) {
-                    List<ReferenceDescription> subList = references.subList(0, max);
-                    List<ReferenceDescription> current = Lists.newArrayList(subList);
-                    subList.clear();
-
-                    server.getBrowseContinuationPoints().put(c.identifier, c);
-
-                    return new BrowseResult(
-                            StatusCode.GOOD,
-                            c.identifier,
-                            current.toArray(new ReferenceDescription[current.size()]));
-                } else {
-                    return new BrowseResult(
-                            StatusCode.GOOD,
-                            null,
-                            references.toArray(new ReferenceDescription[references.size()]));
-                }
+                return c.next().exceptionally(ex -> NODE_ID_UNKNOWN_RESULT);
             } else {
-                return new BrowseResult(BAD_CONTINUATION_POINT_INVALID, null, null);
+                return CompletableFuture.completedFuture(
+                        new BrowseResult(BAD_CONTINUATION_POINT_INVALID, null, null));
             }
         }
 
     }
 
+    /**
+     * The position of a Browse that returned fewer references than it found. It holds the browse's filters and a lazy
+     * cursor over the remaining references; nothing past the current page has been described yet.
+     */
     public static class BrowseContinuationPoint {
 
-        private final List<ReferenceDescription> references;
-        private final int max;
+        private final Browse browse;
+        private final Iterator<Reference> cursor;
         private final ByteString identifier;
+        private final long estimatedSize;
 
-        public BrowseContinuationPoint(List<ReferenceDescription> references, int max) {
-            this(references, max, generateId());
-        }
+        BrowseContinuationPoint(Browse browse,
+                                        Iterator<Reference> cursor,
+                                        ByteString identifier,
+                                        long estimatedSize) {
 
-        public BrowseContinuationPoint(List<ReferenceDescription> references, int max, ByteString identifier) {
-            this.references = Collections.synchronizedList(references);
-            this.max = max;
+            this.browse = browse;
+            this.cursor = cursor;
             this.identifier = identifier;
+            this.estimatedSize = estimatedSize;
         }
 
-        public List<ReferenceDescription> getReferences() {
-            return references;
+        public ByteString getIdentifier() {
+            return identifier;
         }
 
-        public int getMax() {
-            return max;
+        /**
+         * @return the estimated number of bytes this continuation point keeps reachable.
+         */
+        public long getEstimatedSize() {
+            return estimatedSize;
         }
 
-        public ByteString getIdentifier() {
-            return identifier;
+        /**
+         * Describe the next page of references. Callers must remove this continuation point from the store first so
+         * that no two requests advance the cursor at once; it's stored again if references remain.
+         *
+         * @return the next page, as a {@link BrowseResult}.
+         */
+        private CompletableFuture<BrowseResult> next() {
+            return browse.nextPage(cursor, identifier);
         }
 
         public static ByteString generateId() {
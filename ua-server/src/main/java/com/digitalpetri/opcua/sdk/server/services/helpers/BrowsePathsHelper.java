@@ -22,6 +22,7 @@ package com.digitalpetri.opcua.sdk.server.services.helpers;
 import java.util.List;
 import java.util.Optional;
 import java.util.concurrent.CompletableFuture;
+import java.util.function.Predicate;
 
 import com.digitalpetri.opcua.sdk.core.AttributeIds;
 import com.digitalpetri.opcua.sdk.core.Reference;
@@ -164,6 +165,9 @@ public class BrowsePathsHelper {
         boolean includeSubtypes = element.getIncludeSubtypes();
         QualifiedName targetName = element.getTargetName();
 
+        Predicate<NodeId> referenceTypeFilter =
+                server.getReferenceTypeHierarchy().filter(referenceTypeId, includeSubtypes);
+
         Namespace namespace = namespaceManager.getNamespace(nodeId.getNamespaceIndex());
 
         CompletableFuture<List<Reference>> future = namespace.getReferences(nodeId);
@@ -171,9 +175,7 @@ public class BrowsePathsHelper {
         return future.thenCompose(references -> {
             List<ExpandedNodeId> targetNodeIds = references.stream()
                     /* Filter for references of the requested type or its subtype, if allowed... */
-                    .filter(r -> referenceTypeId.isNull() ||
-                            r.getReferenceTypeId().equals(referenceTypeId) ||
-                            (includeSubtypes && r.subtypeOf(referenceTypeId, server.getReferenceTypes())))
+                    .filter(r -> referenceTypeFilter.test(r.getReferenceTypeId()))
 
                     /* Filter for reference direction... */
                     .filter(r -> r.isInverse() == element.getIsInverse())
@@ -201,6 +203,9 @@ public class BrowsePathsHelper {
         boolean includeSubtypes = element.getIncludeSubtypes();
         QualifiedName targetName = element.getTargetName();
 
+        Predicate<NodeId> referenceTypeFilter =
+                server.getReferenceTypeHierarchy().filter(referenceTypeId, includeSubtypes);
+
         Namespace namespace = namespaceManager.getNamespace(nodeId.getNamespaceIndex());
 
         CompletableFuture<List<Reference>> future = namespace.getReferences(nodeId);
@@ -208,9 +213,7 @@ public class BrowsePathsHelper {
         return future.thenCompose(references -> {
             List<ExpandedNodeId> targetNodeIds = references.stream()
                     /* Filter for references of the requested type or its subtype, if allowed... */
-                    .filter(r -> referenceTypeId.isNull() ||
-                            r.getReferenceTypeId().equals(referenceTypeId) ||
-                            (includeSubtypes && r.subtypeOf(referenceTypeId, server.getReferenceTypes())))
+                    .filter(r -> referenceTypeFilter.test(r.getReferenceTypeId()))
 
                     /* Filter for reference direction... */
                     .filter(r -> r.isInverse() == element.getIsInverse())
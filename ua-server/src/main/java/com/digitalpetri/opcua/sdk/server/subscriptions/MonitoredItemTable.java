@@ -0,0 +1,228 @@
+/*
+ * digitalpetri OPC-UA SDK
+ *
+ * Copyright (C) 2015 Kevin Herron
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.digitalpetri.opcua.sdk.server.subscriptions;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.Consumer;
+
+import com.digitalpetri.opcua.sdk.server.items.BaseMonitoredItem;
+import com.digitalpetri.opcua.stack.core.types.builtin.unsigned.UInteger;
+import com.google.common.collect.Lists;
+
+/**
+ * The monitored items of a {@link Subscription}, indexed by id.
+ * <p>
+ * A monitored item id is a slot index in its low {@value #SLOT_BITS} bits and the slot's generation in the high bits,
+ * so a lookup is an array read plus an id comparison. Freed slots are reused before the table grows, oldest first, and
+ * each reuse advances the slot's generation; an id handed out for a deleted item stops resolving, and can only resolve
+ * again, to a different item, once its slot has been reused {@value #MAX_GENERATION} times.
+ * <p>
+ * Lookups and iteration don't lock; changes are serialized on the table.
+ */
+public class MonitoredItemTable {
+
+    static final int SLOT_BITS = 20;
+    static final int MAX_GENERATION = (1 << (32 - SLOT_BITS)) - 1;
+
+    private static final int MAX_SLOTS = 1 << SLOT_BITS;
+    private static final int SLOT_MASK = MAX_SLOTS - 1;
+
+    private volatile AtomicReferenceArray<BaseMonitoredItem<?>> items = new AtomicReferenceArray<>(16);
+
+    private int[] generations = new int[16];
+    /**
+     * A FIFO of free slots, so a slot waits behind every other free slot before it's reused.
+     */
+    private int[] freeSlots = new int[16];
+    private int freeHead = 0;
+    private int freeCount = 0;
+    private int nextSlot = 0;
+    private volatile int size = 0;
+
+    /**
+     * Reserve a slot and return the id for it. The id must later be passed to {@link #put(BaseMonitoredItem)} or
+     * {@link #release(UInteger)}.
+     *
+     * @return a new monitored item id.
+     * @throws IllegalStateException if every slot is in use.
+     */
+    public synchronized long reserve() {
+        int slot;
+
+        if (freeCount > 0) {
+            slot = freeSlots[freeHead];
+            freeHead = (freeHead + 1) % freeSlots.length;
+            freeCount--;
+        } else {
+            if (nextSlot == MAX_SLOTS) {
+                throw new IllegalStateException("monitored item table is full");
+            }
+
+            slot = nextSlot++;
+
+            if (slot == generations.length) grow();
+        }
+
+        // generation 0 is skipped so that no id is ever 0.
+        int generation = Math.abs(generations[slot]) % MAX_GENERATION + 1;
+        generations[slot] = generation;
+
+        return ((long) generation << SLOT_BITS) | slot;
+    }
+
+    /**
+     * Release an id that was reserved but never used for an item.
+     *
+     * @param id the id returned by {@link #reserve()}.
+     */
+    public synchronized void release(UInteger id) {
+        int slot = slotOf(id.longValue());
+
+        if (slot >= 0 && items.get(slot) == null) {
+            free(slot);
+        }
+    }
+
+    /**
+     * @param item an item whose id was returned by {@link #reserve()}.
+     */
+    public synchronized void put(BaseMonitoredItem<?> item) {
+        int slot = slotOf(item.getId().longValue());
+
+        if (slot >= 0 && items.get(slot) == null) {
+            items.set(slot, item);
+            size++;
+        }
+    }
+
+    /**
+     * Remove {@code item} and free its slot for reuse.
+     *
+     * @param item the item to remove.
+     * @return {@code true} if it was in this table.
+     */
+    public synchronized boolean remove(BaseMonitoredItem<?> item) {
+        int slot = slotOf(item.getId().longValue());
+
+        if (slot >= 0 && items.get(slot) == item) {
+            items.set(slot, null);
+            free(slot);
+            size--;
+            return true;
+        } else {
+            return false;
+        }
+    }
+
+    /**
+     * @param id a monitored item id.
+     * @return the item with {@code id}, or {@code null} if there is none.
+     */
+    public BaseMonitoredItem<?> get(UInteger id) {
+        return id != null ? get(id.longValue()) : null;
+    }
+
+    public BaseMonitoredItem<?> get(long id) {
+        AtomicReferenceArray<BaseMonitoredItem<?>> items = this.items;
+        int slot = (int) (id & SLOT_MASK);
+
+        if (slot >= items.length()) return null;
+
+        BaseMonitoredItem<?> item = items.get(slot);
+
+        return (item != null && item.getId().longValue() == id) ? item : null;
+    }
+
+    /**
+     * Visit each item in slot order.
+     *
+     * @param consumer the {@link Consumer} to visit items with.
+     */
+    public void forEach(Consumer<BaseMonitoredItem<?>> consumer) {
+        AtomicReferenceArray<BaseMonitoredItem<?>> items = this.items;
+
+        for (int i = 0; i < items.length(); i++) {
+            BaseMonitoredItem<?> item = items.get(i);
+
+            if (item != null) consumer.accept(item);
+        }
+    }
+
+    /**
+     * @return a snapshot of the items in this table, in slot order.
+     */
+    public List<BaseMonitoredItem<?>> values() {
+        List<BaseMonitoredItem<?>> values = Lists.newArrayListWithCapacity(size);
+
+        forEach(values::add);
+
+        return values;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * A free slot keeps its last generation negated, so ids for it stop resolving until it's reserved again.
+     */
+    private void free(int slot) {
+        generations[slot] = -generations[slot];
+        freeSlots[(freeHead + freeCount++) % freeSlots.length] = slot;
+    }
+
+    /**
+     * @return the reserved or occupied slot {@code id} refers to, or -1 if {@code id} is stale.
+     */
+    private int slotOf(long id) {
+        int slot = (int) (id & SLOT_MASK);
+        int generation = (int) (id >>> SLOT_BITS);
+
+        return (slot < nextSlot && generations[slot] == generation) ? slot : -1;
+    }
+
+    private void grow() {
+        int capacity = Math.min(generations.length * 2, MAX_SLOTS);
+
+        AtomicReferenceArray<BaseMonitoredItem<?>> grown = new AtomicReferenceArray<>(capacity);
+        for (int i = 0; i < items.length(); i++) {
+            grown.set(i, items.get(i));
+        }
+
+        int[] generations = new int[capacity];
+        System.arraycopy(this.generations, 0, generations, 0, this.generations.length);
+        this.generations = generations;
+
+        int[] freeSlots = new int[capacity];
+        for (int i = 0; i < freeCount; i++) {
+            freeSlots[i] = this.freeSlots[(freeHead + i) % this.freeSlots.length];
+        }
+        this.freeSlots = freeSlots;
+        this.freeHead = 0;
+
+        items = grown;
+    }
+
+}
@@ -0,0 +1,117 @@
+/*
+ * digitalpetri OPC-UA SDK
+ *
+ * Copyright (C) 2015 Kevin Herron
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.digitalpetri.opcua.sdk.server.subscriptions;
+
+import java.util.Arrays;
+
+import com.digitalpetri.opcua.stack.core.serialization.UaStructure;
+import com.digitalpetri.opcua.stack.core.types.structured.EventFieldList;
+import com.digitalpetri.opcua.stack.core.types.structured.MonitoredItemNotification;
+
+/**
+ * A reusable buffer that notifications are gathered into while a {@link Subscription} assembles a
+ * NotificationMessage.
+ * <p>
+ * The backing arrays grow as needed and are kept between publishes, so a steady-state publish only allocates the
+ * exact-size arrays handed to the response. Not thread-safe; it is only used while holding the Subscription's monitor.
+ */
+public class NotificationBuffer {
+
+    private static final int INITIAL_CAPACITY = 16;
+
+    private static final MonitoredItemNotification[] NO_DATA_NOTIFICATIONS = new MonitoredItemNotification[0];
+    private static final EventFieldList[] NO_EVENT_NOTIFICATIONS = new EventFieldList[0];
+
+    private MonitoredItemNotification[] dataNotifications = new MonitoredItemNotification[INITIAL_CAPACITY];
+    private int dataCount = 0;
+
+    private EventFieldList[] eventNotifications = new EventFieldList[INITIAL_CAPACITY];
+    private int eventCount = 0;
+
+    public void add(UaStructure notification) {
+        if (notification instanceof MonitoredItemNotification) {
+            addDataNotification((MonitoredItemNotification) notification);
+        } else if (notification instanceof EventFieldList) {
+            addEventNotification((EventFieldList) notification);
+        }
+    }
+
+    public void addDataNotification(MonitoredItemNotification notification) {
+        if (dataCount == dataNotifications.length) {
+            dataNotifications = Arrays.copyOf(dataNotifications, dataCount * 2);
+        }
+
+        dataNotifications[dataCount++] = notification;
+    }
+
+    public void addEventNotification(EventFieldList notification) {
+        if (eventCount == eventNotifications.length) {
+            eventNotifications = Arrays.copyOf(eventNotifications, eventCount * 2);
+        }
+
+        eventNotifications[eventCount++] = notification;
+    }
+
+    /**
+     * @return the total number of notifications in the buffer.
+     */
+    public int size() {
+        return dataCount + eventCount;
+    }
+
+    public int getDataNotificationCount() {
+        return dataCount;
+    }
+
+    public int getEventNotificationCount() {
+        return eventCount;
+    }
+
+    /**
+     * Remove the buffered {@link MonitoredItemNotification}s.
+     *
+     * @return an exact-size array of the buffered {@link MonitoredItemNotification}s.
+     */
+    public MonitoredItemNotification[] takeDataNotifications() {
+        if (dataCount == 0) return NO_DATA_NOTIFICATIONS;
+
+        MonitoredItemNotification[] notifications = Arrays.copyOf(dataNotifications, dataCount);
+        Arrays.fill(dataNotifications, 0, dataCount, null);
+        dataCount = 0;
+
+        return notifications;
+    }
+
+    /**
+     * Remove the buffered {@link EventFieldList}s.
+     *
+     * @return an exact-size array of the buffered {@link EventFieldList}s.
+     */
+    public EventFieldList[] takeEventNotifications() {
+        if (eventCount == 0) return NO_EVENT_NOTIFICATIONS;
+
+        EventFieldList[] notifications = Arrays.copyOf(eventNotifications, eventCount);
+        Arrays.fill(eventNotifications, 0, eventCount, null);
+        eventCount = 0;
+
+        return notifications;
+    }
+
+}
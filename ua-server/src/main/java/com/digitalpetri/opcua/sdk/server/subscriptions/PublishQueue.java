@@ -19,26 +19,49 @@
 
 package com.digitalpetri.opcua.sdk.server.subscriptions;
 
-import java.util.Date;
-import java.util.LinkedHashMap;
-import java.util.LinkedList;
-import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicLongArray;
 
 import com.digitalpetri.opcua.stack.core.application.services.ServiceRequest;
 import com.digitalpetri.opcua.stack.core.types.builtin.unsigned.UInteger;
 import com.digitalpetri.opcua.stack.core.types.structured.PublishRequest;
 import com.digitalpetri.opcua.stack.core.types.structured.PublishResponse;
-import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+/**
+ * Matches queued Publish {@link ServiceRequest}s with wait-listed {@link Subscription}s.
+ * <p>
+ * Wait-listed Subscriptions are kept in one FIFO bucket per priority (priority is a Byte), and a bitmap of the
+ * non-empty buckets makes finding the highest-priority, longest-waiting Subscription O(1). Neither side takes a lock:
+ * every insert is followed by an attempt to match, so whichever of a request or a Subscription arrives last is
+ * guaranteed to see the other.
+ * <p>
+ * Callers frequently hold the monitor of their own Subscription, so a request is only delivered on the calling thread
+ * to the Subscription that wait-listed itself; deliveries to any other Subscription are made on the executor.
+ */
 public class PublishQueue {
 
+    private static final int PRIORITY_COUNT = 256;
+
     private final Logger logger = LoggerFactory.getLogger(getClass());
 
-    private final LinkedList<ServiceRequest<PublishRequest, PublishResponse>> serviceQueue = new LinkedList<>();
+    private final Queue<ServiceRequest<PublishRequest, PublishResponse>> serviceQueue = new ConcurrentLinkedQueue<>();
+
+    private final Map<UInteger, WaitingSubscription> waitList = Maps.newConcurrentMap();
 
-    private final LinkedHashMap<UInteger, WaitingSubscription> waitList = new LinkedHashMap<>();
+    private final WaitingBuckets waitingBuckets = new WaitingBuckets();
+
+    private final Executor executor;
+
+    public PublishQueue(Executor executor) {
+        this.executor = executor;
+    }
 
     /**
      * Add a Publish {@link ServiceRequest} to the queue.
@@ -48,44 +71,12 @@ public class PublishQueue {
      *
      * @param service the Publish {@link ServiceRequest}.
      */
-    public synchronized void addRequest(ServiceRequest<PublishRequest, PublishResponse> service) {
-        List<WaitingSubscription> waitingSubscriptions = Lists.newArrayList(waitList.values());
-
-        if (waitingSubscriptions.isEmpty()) {
-            serviceQueue.add(service);
-
-            logger.debug("Queued PublishRequest, size={}", serviceQueue.size());
-        } else {
-            WaitingSubscription subscription = null;
-
-            int maxPriority = 0;
-            long minWaitingSince = Long.MAX_VALUE;
+    public void addRequest(ServiceRequest<PublishRequest, PublishResponse> service) {
+        serviceQueue.add(service);
 
-            for (WaitingSubscription waiting : waitingSubscriptions) {
-                int priority = waiting.getSubscription().getPriority();
-                long waitingSince = waiting.getWaitingSince().getTime();
+        logger.debug("Queued PublishRequest.");
 
-                if (priority > maxPriority) {
-                    maxPriority = priority;
-                    minWaitingSince = Long.MAX_VALUE;
-                }
-                if (priority >= maxPriority && waitingSince < minWaitingSince) {
-                    minWaitingSince = waitingSince;
-                    subscription = waiting;
-                }
-            }
-
-            if (subscription != null) {
-                waitList.remove(subscription.subscription.getId());
-
-                logger.debug("Delivering PublishRequest to Subscription [id={}]",
-                        subscription.getSubscription().getId());
-
-                subscription.subscription.onPublish(service);
-            } else {
-                serviceQueue.add(service);
-            }
-        }
+        match(null);
     }
 
     /**
@@ -101,44 +92,168 @@ public class PublishQueue {
      *
      * @param subscription the subscription to wait-list.
      */
-    public synchronized void addSubscription(Subscription subscription) {
-        if (waitList.isEmpty() && !serviceQueue.isEmpty()) {
-            subscription.onPublish(serviceQueue.poll());
-        } else {
-            waitList.putIfAbsent(subscription.getId(), new WaitingSubscription(subscription));
+    public void addSubscription(Subscription subscription) {
+        WaitingSubscription waiting = new WaitingSubscription(subscription);
+
+        if (waitList.putIfAbsent(subscription.getId(), waiting) == null) {
+            waitingBuckets.addLast(waiting);
+
+            match(subscription);
         }
     }
 
-    public synchronized boolean isEmpty() {
+    public boolean isEmpty() {
         return serviceQueue.isEmpty();
     }
 
-    public synchronized boolean isNotEmpty() {
+    public boolean isNotEmpty() {
         return !isEmpty();
     }
 
-    public synchronized ServiceRequest<PublishRequest, PublishResponse> poll() {
+    public ServiceRequest<PublishRequest, PublishResponse> poll() {
         return serviceQueue.poll();
     }
 
+    /**
+     * Deliver queued requests to wait-listed Subscriptions until one side is empty.
+     *
+     * @param caller the {@link Subscription} on whose behalf this is being called, if any.
+     */
+    private void match(Subscription caller) {
+        while (!serviceQueue.isEmpty()) {
+            WaitingSubscription waiting = waitingBuckets.pollHighest();
+
+            if (waiting == null) return;
+
+            ServiceRequest<PublishRequest, PublishResponse> service = serviceQueue.poll();
+
+            if (service == null) {
+                // Another thread took the request; put the Subscription back where it was and re-check.
+                waitingBuckets.addFirst(waiting);
+                continue;
+            }
+
+            Subscription subscription = waiting.getSubscription();
+
+            waitList.remove(subscription.getId(), waiting);
+
+            logger.debug("Delivering PublishRequest to Subscription [id={}]", subscription.getId());
+
+            if (subscription == caller) {
+                subscription.onPublish(service);
+            } else {
+                executor.execute(() -> subscription.onPublish(service));
+            }
+        }
+    }
+
+    private static final class WaitingBuckets {
+
+        /**
+         * One bit per priority; a set bit is a hint that the bucket may be non-empty. A bit is only ever cleared after
+         * its bucket was observed empty, and is set again if the bucket turns out to be non-empty after all.
+         */
+        private final AtomicLongArray nonEmpty = new AtomicLongArray(PRIORITY_COUNT / 64);
+
+        @SuppressWarnings("unchecked")
+        private final ConcurrentLinkedDeque<WaitingSubscription>[] buckets =
+                new ConcurrentLinkedDeque[PRIORITY_COUNT];
+
+        private WaitingBuckets() {
+            for (int i = 0; i < PRIORITY_COUNT; i++) {
+                buckets[i] = new ConcurrentLinkedDeque<>();
+            }
+        }
+
+        void addLast(WaitingSubscription waiting) {
+            int priority = waiting.getPriority();
+
+            buckets[priority].addLast(waiting);
+            setBit(priority);
+        }
+
+        void addFirst(WaitingSubscription waiting) {
+            int priority = waiting.getPriority();
+
+            buckets[priority].addFirst(waiting);
+            setBit(priority);
+        }
+
+        WaitingSubscription pollHighest() {
+            for (int word = nonEmpty.length() - 1; word >= 0; word--) {
+                long bits;
+
+                while ((bits = nonEmpty.get(word)) != 0L) {
+                    int bit = 63 - Long.numberOfLeadingZeros(bits);
+                    int priority = word * 64 + bit;
+
+                    WaitingSubscription waiting = buckets[priority].pollFirst();
+
+                    if (waiting != null) return waiting;
+
+                    clearBit(priority);
+
+                    if (!buckets[priority].isEmpty()) {
+                        setBit(priority);
+                    }
+                }
+            }
+
+            return null;
+        }
+
+        private void setBit(int priority) {
+            int word = priority >>> 6;
+            long mask = 1L << (priority & 63);
+
+            long bits;
+            while (((bits = nonEmpty.get(word)) & mask) == 0L) {
+                if (nonEmpty.compareAndSet(word, bits, bits | mask)) return;
+            }
+        }
+
+        private void clearBit(int priority) {
+            int word = priority >>> 6;
+            long mask = 1L << (priority & 63);
+
+            long bits;
+            while (((bits = nonEmpty.get(word)) & mask) != 0L) {
+                if (nonEmpty.compareAndSet(word, bits, bits & ~mask)) return;
+            }
+        }
+
+    }
+
     public static class WaitingSubscription {
 
-        private final Date waitingSince = new Date();
+        private final long waitingSince = System.nanoTime();
 
         private final Subscription subscription;
+        private final int priority;
 
         public WaitingSubscription(Subscription subscription) {
             this.subscription = subscription;
+            this.priority = subscription.getPriority() & 0xFF;
         }
 
         public Subscription getSubscription() {
             return subscription;
         }
 
-        public Date getWaitingSince() {
+        /**
+         * @return the value of {@link System#nanoTime()} when this Subscription was wait-listed.
+         */
+        public long getWaitingSince() {
             return waitingSince;
         }
 
+        /**
+         * @return the priority of the Subscription at the time it was wait-listed.
+         */
+        public int getPriority() {
+            return priority;
+        }
+
     }
 
 }
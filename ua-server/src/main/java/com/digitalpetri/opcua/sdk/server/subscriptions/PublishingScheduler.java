@@ -0,0 +1,286 @@
+/*
+ * digitalpetri OPC-UA SDK
+ *
+ * Copyright (C) 2015 Kevin Herron
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.digitalpetri.opcua.sdk.server.subscriptions;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import com.codahale.metrics.ExponentiallyDecayingReservoir;
+import com.codahale.metrics.Histogram;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A hashed timing wheel that drives the publishing timers of every {@link Subscription} on the server.
+ * <p>
+ * Timers are handed off to a single worker thread through a lock-free queue and placed in the bucket of the wheel
+ * their deadline hashes to, so timers that share a publishing interval and phase share a bucket. Each tick the worker
+ * collects the expired timers of one bucket and dispatches them to the executor in batches.
+ */
+public class PublishingScheduler {
+
+    private static final long DEFAULT_TICK_DURATION_MS = 10;
+    private static final int DEFAULT_WHEEL_SIZE = 512;
+    private static final int DEFAULT_BATCH_SIZE = 64;
+
+    private final Logger logger = LoggerFactory.getLogger(getClass());
+
+    private final Histogram tickSkew = new Histogram(new ExponentiallyDecayingReservoir());
+
+    private final Queue<Timeout> pendingTimeouts = new ConcurrentLinkedQueue<>();
+
+    private final ThreadFactory threadFactory = new ThreadFactoryBuilder()
+            .setNameFormat("ua-publishing-scheduler-%d")
+            .setDaemon(true)
+            .build();
+
+    private volatile boolean running = false;
+    private volatile Thread workerThread;
+
+    private final List<Timeout>[] wheel;
+    private final int mask;
+    private final long tickDuration;
+    private final int batchSize;
+
+    private final ExecutorService executor;
+
+    public PublishingScheduler(ExecutorService executor) {
+        this(executor, DEFAULT_TICK_DURATION_MS, TimeUnit.MILLISECONDS, DEFAULT_WHEEL_SIZE, DEFAULT_BATCH_SIZE);
+    }
+
+    /**
+     * @param executor     the {@link ExecutorService} expired timers are dispatched to.
+     * @param tickDuration the duration of a single tick of the wheel.
+     * @param unit         the {@link TimeUnit} of {@code tickDuration}.
+     * @param wheelSize    the number of buckets in the wheel; rounded up to a power of 2.
+     * @param batchSize    the maximum number of expired timers dispatched to the executor as a single task.
+     */
+    @SuppressWarnings("unchecked")
+    public PublishingScheduler(ExecutorService executor,
+                               long tickDuration,
+                               TimeUnit unit,
+                               int wheelSize,
+                               int batchSize) {
+
+        this.executor = executor;
+        this.tickDuration = unit.toNanos(tickDuration);
+        this.batchSize = Math.max(batchSize, 1);
+
+        int size = Integer.highestOneBit(Math.max(wheelSize, 1) - 1) << 1;
+        if (size <= 0) size = 1;
+
+        wheel = new List[size];
+        for (int i = 0; i < size; i++) {
+            wheel[i] = new ArrayList<>();
+        }
+        mask = size - 1;
+    }
+
+    public synchronized void startup() {
+        if (running) return;
+
+        running = true;
+        workerThread = threadFactory.newThread(new Worker());
+        workerThread.start();
+    }
+
+    public synchronized void shutdown() {
+        if (!running) return;
+
+        running = false;
+
+        Thread thread = workerThread;
+        workerThread = null;
+
+        if (thread != null) {
+            thread.interrupt();
+        }
+    }
+
+    /**
+     * Schedule {@code task} to run once after {@code delay} has elapsed.
+     * <p>
+     * Timers never fire early, but may fire up to one tick late.
+     *
+     * @param task  the task to run.
+     * @param delay the delay after which {@code task} should run.
+     * @param unit  the {@link TimeUnit} of {@code delay}.
+     * @return a {@link Timeout} that can be used to cancel the task.
+     */
+    public Timeout schedule(Runnable task, long delay, TimeUnit unit) {
+        Timeout timeout = new Timeout(task, System.nanoTime() + unit.toNanos(delay));
+
+        pendingTimeouts.add(timeout);
+
+        return timeout;
+    }
+
+    /**
+     * @return a {@link Histogram} of the amount of time, in microseconds, each tick of the wheel ran behind schedule.
+     */
+    public Histogram getTickSkew() {
+        return tickSkew;
+    }
+
+    private class Worker implements Runnable {
+
+        private final long startTime = System.nanoTime();
+
+        private long tick = 0L;
+
+        @Override
+        public void run() {
+            while (running) {
+                long deadline = startTime + tickDuration * (tick + 1);
+
+                if (!waitUntil(deadline)) break;
+
+                tickSkew.update(TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - deadline));
+
+                transferPendingTimeouts();
+
+                List<Timeout> expired = expireTimeouts(wheel[(int) (tick & mask)]);
+
+                dispatch(expired);
+
+                tick++;
+            }
+
+            logger.debug("Publishing scheduler stopped after {} ticks.", tick);
+        }
+
+        private boolean waitUntil(long deadline) {
+            long remaining;
+
+            while ((remaining = deadline - System.nanoTime()) > 0) {
+                LockSupport.parkNanos(remaining);
+
+                if (Thread.interrupted() || !running) return false;
+            }
+
+            return true;
+        }
+
+        private void transferPendingTimeouts() {
+            Timeout timeout;
+
+            while ((timeout = pendingTimeouts.poll()) != null) {
+                if (timeout.cancelled) continue;
+
+                long ticks = (timeout.deadline - startTime + tickDuration - 1) / tickDuration;
+
+                // deadlines in the past expire on the current tick.
+                long targetTick = Math.max(ticks - 1, tick);
+
+                timeout.remainingRounds = (targetTick - tick) / wheel.length;
+
+                wheel[(int) (targetTick & mask)].add(timeout);
+            }
+        }
+
+        private List<Timeout> expireTimeouts(List<Timeout> bucket) {
+            List<Timeout> expired = new ArrayList<>();
+
+            Iterator<Timeout> iterator = bucket.iterator();
+
+            while (iterator.hasNext()) {
+                Timeout timeout = iterator.next();
+
+                if (timeout.cancelled) {
+                    iterator.remove();
+                } else if (timeout.remainingRounds <= 0) {
+                    iterator.remove();
+                    expired.add(timeout);
+                } else {
+                    timeout.remainingRounds--;
+                }
+            }
+
+            return expired;
+        }
+
+        /**
+         * Hand {@code expired} to the executor in batches. A batch the executor rejects is expired on this thread
+         * instead, so neither its timers nor the worker are lost.
+         */
+        private void dispatch(List<Timeout> expired) {
+            for (int i = 0; i < expired.size(); i += batchSize) {
+                List<Timeout> batch = expired.subList(i, Math.min(i + batchSize, expired.size()));
+
+                try {
+                    executor.execute(() -> batch.forEach(Timeout::expire));
+                } catch (RejectedExecutionException e) {
+                    logger.warn("Publishing timer batch rejected by executor; expiring {} timers inline.",
+                            batch.size(), e);
+
+                    batch.forEach(Timeout::expire);
+                }
+            }
+        }
+
+    }
+
+    public final class Timeout {
+
+        private volatile boolean cancelled = false;
+
+        /**
+         * Only accessed by the worker thread.
+         */
+        private long remainingRounds;
+
+        private final Runnable task;
+        private final long deadline;
+
+        private Timeout(Runnable task, long deadline) {
+            this.task = task;
+            this.deadline = deadline;
+        }
+
+        public void cancel() {
+            cancelled = true;
+        }
+
+        public boolean isCancelled() {
+            return cancelled;
+        }
+
+        private void expire() {
+            if (cancelled) return;
+
+            try {
+                task.run();
+            } catch (Throwable t) {
+                logger.error("Uncaught Throwable running publishing timer task.", t);
+            }
+        }
+
+    }
+
+}
@@ -0,0 +1,265 @@
+/*
+ * digitalpetri OPC-UA SDK
+ *
+ * Copyright (C) 2015 Kevin Herron
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.digitalpetri.opcua.sdk.server.subscriptions;
+
+import com.codahale.metrics.Counter;
+import com.digitalpetri.opcua.stack.core.types.builtin.ByteString;
+import com.digitalpetri.opcua.stack.core.types.builtin.ExtensionObject;
+import com.digitalpetri.opcua.stack.core.types.builtin.unsigned.UInteger;
+import com.digitalpetri.opcua.stack.core.types.structured.NotificationMessage;
+
+import static com.digitalpetri.opcua.stack.core.types.builtin.unsigned.Unsigned.uint;
+
+/**
+ * Holds the {@link NotificationMessage}s of a {@link Subscription} that are available for Republish until they are
+ * acknowledged.
+ * <p>
+ * Messages are kept in a ring ordered by sequence number and are bounded both by count and by estimated encoded size;
+ * when either bound would be exceeded the oldest messages are evicted. Not thread-safe; it is only used while holding
+ * the Subscription's monitor.
+ */
+public class RetransmissionQueue {
+
+    /**
+     * Approximate encoded size of a NotificationMessage without its notification data.
+     */
+    private static final int MESSAGE_OVERHEAD = 32;
+
+    private final long[] sequenceNumbers;
+    private final NotificationMessage[] messages;
+    private final int[] sizes;
+
+    /**
+     * Index of the oldest slot. Slots between head and head + used are either retained or holes left by an
+     * acknowledgement; the slot at head is never a hole.
+     */
+    private int head = 0;
+    private int used = 0;
+
+    private int count = 0;
+    private long bytes = 0L;
+
+    private final long maxBytes;
+    private final Counter memory;
+
+    /**
+     * @param maxMessages the maximum number of messages to retain.
+     * @param maxBytes    the maximum estimated encoded size, in bytes, of all retained messages.
+     * @param memory      a server-wide {@link Counter} of retained bytes to keep up to date.
+     */
+    public RetransmissionQueue(int maxMessages, long maxBytes, Counter memory) {
+        int capacity = Math.max(maxMessages, 1);
+
+        this.sequenceNumbers = new long[capacity];
+        this.messages = new NotificationMessage[capacity];
+        this.sizes = new int[capacity];
+        this.maxBytes = maxBytes;
+        this.memory = memory;
+    }
+
+    /**
+     * Retain {@code message}, evicting the oldest messages as needed to stay within bounds.
+     * <p>
+     * Sequence numbers must be added in increasing order.
+     *
+     * @param message the {@link NotificationMessage} to retain.
+     */
+    public void add(NotificationMessage message) {
+        int size = estimateSize(message);
+
+        while (count > 0 && (count == messages.length || bytes + size > maxBytes)) {
+            evictOldest();
+        }
+
+        if (used == messages.length) compact();
+
+        int index = (head + used) % messages.length;
+
+        sequenceNumbers[index] = message.getSequenceNumber().longValue();
+        messages[index] = message;
+        sizes[index] = size;
+
+        used++;
+        count++;
+        bytes += size;
+        memory.inc(size);
+    }
+
+    /**
+     * @param sequenceNumber the sequence number of the message to get.
+     * @return the retained {@link NotificationMessage} with {@code sequenceNumber}, or {@code null} if none.
+     */
+    public NotificationMessage get(UInteger sequenceNumber) {
+        int index = indexOf(sequenceNumber.longValue());
+
+        return index >= 0 ? messages[index] : null;
+    }
+
+    /**
+     * Remove the message with {@code sequenceNumber}.
+     *
+     * @param sequenceNumber the sequence number of the message to remove.
+     * @return {@code true} if a message with {@code sequenceNumber} was retained.
+     */
+    public boolean remove(UInteger sequenceNumber) {
+        int index = indexOf(sequenceNumber.longValue());
+
+        if (index < 0) return false;
+
+        release(index);
+
+        while (used > 0 && messages[head] == null) {
+            head = (head + 1) % messages.length;
+            used--;
+        }
+
+        return true;
+    }
+
+    /**
+     * @return the sequence numbers of all retained messages, in increasing order.
+     */
+    public UInteger[] getSequenceNumbers() {
+        UInteger[] available = new UInteger[count];
+
+        for (int i = 0, j = 0; i < used; i++) {
+            int index = (head + i) % messages.length;
+
+            if (messages[index] != null) {
+                available[j++] = uint(sequenceNumbers[index]);
+            }
+        }
+
+        return available;
+    }
+
+    /**
+     * Remove all retained messages.
+     */
+    public void clear() {
+        for (int i = 0; i < used; i++) {
+            int index = (head + i) % messages.length;
+
+            if (messages[index] != null) release(index);
+        }
+
+        head = 0;
+        used = 0;
+    }
+
+    public int size() {
+        return count;
+    }
+
+    /**
+     * @return the estimated encoded size, in bytes, of all retained messages.
+     */
+    public long getEstimatedBytes() {
+        return bytes;
+    }
+
+    private void evictOldest() {
+        release(head);
+
+        do {
+            head = (head + 1) % messages.length;
+            used--;
+        } while (used > 0 && messages[head] == null);
+    }
+
+    private void release(int index) {
+        bytes -= sizes[index];
+        memory.dec(sizes[index]);
+        count--;
+
+        messages[index] = null;
+        sizes[index] = 0;
+    }
+
+    /**
+     * Squeeze out the holes left by out-of-order acknowledgements so there is room at the tail.
+     */
+    private void compact() {
+        int j = 0;
+
+        for (int i = 0; i < used; i++) {
+            int from = (head + i) % messages.length;
+
+            if (messages[from] != null) {
+                int to = (head + j) % messages.length;
+
+                if (to != from) {
+                    sequenceNumbers[to] = sequenceNumbers[from];
+                    messages[to] = messages[from];
+                    sizes[to] = sizes[from];
+                    messages[from] = null;
+                    sizes[from] = 0;
+                }
+
+                j++;
+            }
+        }
+
+        used = j;
+    }
+
+    /**
+     * Binary search the retained range for {@code sequenceNumber}.
+     */
+    private int indexOf(long sequenceNumber) {
+        int low = 0;
+        int high = used - 1;
+
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int index = (head + mid) % messages.length;
+            long midValue = sequenceNumbers[index];
+
+            if (midValue < sequenceNumber) {
+                low = mid + 1;
+            } else if (midValue > sequenceNumber) {
+                high = mid - 1;
+            } else {
+                return messages[index] != null ? index : -1;
+            }
+        }
+
+        return -1;
+    }
+
+    private static int estimateSize(NotificationMessage message) {
+        int size = MESSAGE_OVERHEAD;
+
+        ExtensionObject[] notificationData = message.getNotificationData();
+
+        if (notificationData != null) {
+            for (ExtensionObject xo : notificationData) {
+                Object encoded = xo.getEncoded();
+
+                if (encoded instanceof ByteString) {
+                    size += Math.max(((ByteString) encoded).length(), 0);
+                }
+            }
+        }
+
+        return size;
+    }
+
+}
@@ -20,23 +20,21 @@
 package com.digitalpetri.opcua.sdk.server.subscriptions;
 
 import java.math.RoundingMode;
-import java.util.Arrays;
-import java.util.Collections;
-import java.util.Iterator;
-import java.util.LinkedHashSet;
+import java.util.ArrayDeque;
 import java.util.List;
-import java.util.Map;
 import java.util.Optional;
-import java.util.Set;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.atomic.AtomicReference;
 
+import com.digitalpetri.opcua.sdk.server.OpcUaServer;
 import com.digitalpetri.opcua.sdk.server.Session;
+import com.digitalpetri.opcua.sdk.server.api.config.OpcUaServerConfigLimits;
 import com.digitalpetri.opcua.sdk.server.items.BaseMonitoredItem;
 import com.digitalpetri.opcua.stack.core.StatusCodes;
 import com.digitalpetri.opcua.stack.core.application.services.ServiceRequest;
-import com.digitalpetri.opcua.stack.core.serialization.UaStructure;
 import com.digitalpetri.opcua.stack.core.types.builtin.DateTime;
 import com.digitalpetri.opcua.stack.core.types.builtin.DiagnosticInfo;
 import com.digitalpetri.opcua.stack.core.types.builtin.ExtensionObject;
@@ -53,10 +51,6 @@ import com.digitalpetri.opcua.stack.core.types.structured.PublishResponse;
 import com.digitalpetri.opcua.stack.core.types.structured.ResponseHeader;
 import com.digitalpetri.opcua.stack.core.types.structured.SetPublishingModeRequest;
 import com.digitalpetri.opcua.stack.core.types.structured.StatusChangeNotification;
-import com.google.common.collect.Iterators;
-import com.google.common.collect.Lists;
-import com.google.common.collect.Maps;
-import com.google.common.collect.PeekingIterator;
 import com.google.common.math.DoubleMath;
 import com.google.common.primitives.Ints;
 import org.slf4j.Logger;
@@ -74,19 +68,33 @@ public class Subscription {
 
     private static final int MAX_NOTIFICATIONS = 0xFFFF;
 
+    private static final DiagnosticInfo[] NO_DIAGNOSTIC_INFOS = new DiagnosticInfo[0];
+
     private final Logger logger = LoggerFactory.getLogger(getClass());
 
-    private volatile Iterator<BaseMonitoredItem<?>> lastIterator = Collections.emptyIterator();
+    private final MonitoredItemTable itemsById = new MonitoredItemTable();
+
+    /**
+     * Items that gained a queued value or were triggered since they were last drained.
+     */
+    private final Queue<BaseMonitoredItem<?>> readyItems = new ConcurrentLinkedQueue<>();
 
-    private final AtomicLong itemIds = new AtomicLong(1L);
-    private final Map<UInteger, BaseMonitoredItem<?>> itemsById = Maps.newConcurrentMap();
+    /**
+     * Items with notifications left to gather, in the order they will be drained; each item appears at most once, as
+     * tracked by {@link BaseMonitoredItem#isPending()}. Guarded by this Subscription.
+     */
+    private final ArrayDeque<BaseMonitoredItem<?>> pendingItems = new ArrayDeque<>();
+
+    private final NotificationBuffer notificationBuffer = new NotificationBuffer();
+
+    private final TriggeringGraph triggeringGraph = new TriggeringGraph();
 
     private final AtomicReference<State> state = new AtomicReference<>(State.Normal);
     private final AtomicReference<StateListener> stateListener = new AtomicReference<>();
 
     private final AtomicLong sequenceNumber = new AtomicLong(1L);
 
-    private final Map<UInteger, NotificationMessage> availableMessages = Maps.newConcurrentMap();
+    private final RetransmissionQueue retransmissionQueue;
 
     private final PublishHandler publishHandler = new PublishHandler();
     private final TimerHandler timerHandler = new TimerHandler();
@@ -119,6 +127,15 @@ public class Subscription {
         this.subscriptionManager = subscriptionManager;
         this.subscriptionId = subscriptionId;
 
+        OpcUaServer server = subscriptionManager.getServer();
+        OpcUaServerConfigLimits limits = server.getConfig().getLimits();
+
+        this.retransmissionQueue = new RetransmissionQueue(
+                Ints.saturatedCast(limits.getMaxRetransmissionQueueSize().longValue()),
+                limits.getMaxRetransmissionQueueBytes().longValue(),
+                server.getRetransmissionMemory()
+        );
+
         setPublishingInterval(publishingInterval);
         setMaxKeepAliveCount(maxKeepAliveCount);
         setLifetimeCount(lifetimeCount);
@@ -153,7 +170,7 @@ public class Subscription {
 
         logger.debug("[id={}] subscription deleted.", subscriptionId);
 
-        return Lists.newArrayList(itemsById.values());
+        return itemsById.values();
     }
 
     public synchronized void setPublishingMode(SetPublishingModeRequest request) {
@@ -166,9 +183,12 @@ public class Subscription {
 
     public synchronized void addMonitoredItems(List<BaseMonitoredItem<?>> createdItems) {
         for (BaseMonitoredItem<?> item : createdItems) {
-            itemsById.put(item.getId(), item);
+            itemsById.put(item);
+            item.setReadyListener(readyItems::add);
         }
 
+        triggeringGraph.add(createdItems);
+
         resetLifetimeCounter();
 
         logger.debug("[id={}] created {} MonitoredItems.", subscriptionId, createdItems.size());
@@ -176,18 +196,32 @@ public class Subscription {
 
     public synchronized void removeMonitoredItems(List<BaseMonitoredItem<?>> deletedItems) {
         for (BaseMonitoredItem<?> item : deletedItems) {
-            itemsById.remove(item.getId());
+            itemsById.remove(item);
+            item.setReadyListener(null);
+
+            if (item.isPending()) {
+                pendingItems.remove(item);
+                item.setPending(false);
+            }
+
+            item.onDeleted();
         }
 
+        triggeringGraph.remove(deletedItems);
+
         resetLifetimeCounter();
 
         logger.debug("[id={}] deleted {} MonitoredItems.", subscriptionId, deletedItems.size());
     }
 
-    public synchronized Map<UInteger, BaseMonitoredItem<?>> getMonitoredItems() {
+    public synchronized MonitoredItemTable getMonitoredItems() {
         return itemsById;
     }
 
+    public TriggeringGraph getTriggeringGraph() {
+        return triggeringGraph;
+    }
+
     /**
      * Given the requested publishing interval, set it to something reasonable.
      *
@@ -326,7 +360,7 @@ public class Subscription {
         PublishResponse response = new PublishResponse(
                 header, subscriptionId, available,
                 moreNotifications, notificationMessage,
-                acknowledgeResults, new DiagnosticInfo[0]);
+                acknowledgeResults, NO_DIAGNOSTIC_INFOS);
 
         service.setResponse(response);
 
@@ -359,92 +393,75 @@ public class Subscription {
     }
 
     private void returnNotifications(ServiceRequest<PublishRequest, PublishResponse> service) {
-        LinkedHashSet<BaseMonitoredItem<?>> items = new LinkedHashSet<>();
-
-        lastIterator.forEachRemaining(items::add);
-
-        itemsById.values().stream()
-                .filter(item -> item.hasNotifications() || item.isTriggered())
-                .forEach(items::add);
+        BaseMonitoredItem<?> item;
+        while ((item = readyItems.poll()) != null) {
+            item.clearReady();
 
-        PeekingIterator<BaseMonitoredItem<?>> iterator = Iterators.peekingIterator(items.iterator());
+            if (!item.isPending() && itemsById.get(item.getId()) == item &&
+                    (item.hasNotifications() || item.isTriggered())) {
 
-        gatherAndSend(iterator, Optional.of(service));
+                item.setPending(true);
+                pendingItems.addLast(item);
+            }
+        }
 
-        lastIterator = iterator.hasNext() ? iterator : Collections.emptyIterator();
+        gatherAndSend(service);
     }
 
     /**
-     * Gather {@link MonitoredItemNotification}s and send them using {@code service}, if present.
+     * Gather notifications from {@link #pendingItems} and send them using {@code service}, continuing with queued
+     * Publish requests for as long as there are more notifications than fit in a single NotificationMessage.
+     * <p>
+     * Items that could not be drained completely stay at the head of {@link #pendingItems} for the next publish.
      *
-     * @param iterator a {@link PeekingIterator} over the current {@link BaseMonitoredItem}s.
-     * @param service  a {@link ServiceRequest}, if available.
+     * @param service the {@link ServiceRequest} to send the first NotificationMessage with.
      */
-    private void gatherAndSend(PeekingIterator<BaseMonitoredItem<?>> iterator,
-                               Optional<ServiceRequest<PublishRequest, PublishResponse>> service) {
+    private void gatherAndSend(ServiceRequest<PublishRequest, PublishResponse> service) {
+        while (service != null) {
+            while (notificationBuffer.size() < maxNotificationsPerPublish && !pendingItems.isEmpty()) {
+                BaseMonitoredItem<?> item = pendingItems.peekFirst();
 
-        if (service.isPresent()) {
-            List<UaStructure> notifications = Lists.newArrayList();
+                boolean gatheredAllForItem = item.getNotifications(
+                        notificationBuffer, maxNotificationsPerPublish - notificationBuffer.size());
 
-            while (notifications.size() < maxNotificationsPerPublish && iterator.hasNext()) {
-                BaseMonitoredItem<?> item = iterator.peek();
-
-                boolean gatheredAllForItem = gather(item, notifications, maxNotificationsPerPublish);
-
-                if (gatheredAllForItem && iterator.hasNext()) {
-                    iterator.next();
+                if (gatheredAllForItem) {
+                    pendingItems.pollFirst();
+                    item.setPending(false);
                 }
             }
 
-            moreNotifications = iterator.hasNext();
+            moreNotifications = !pendingItems.isEmpty();
 
-            sendNotifications(service.get(), notifications);
+            sendNotifications(service);
 
-            if (moreNotifications) {
-                gatherAndSend(iterator, Optional.ofNullable(publishQueue().poll()));
-            }
-        } else {
-            if (moreNotifications) {
-                publishQueue().addSubscription(this);
-            }
+            service = moreNotifications ? publishQueue().poll() : null;
         }
-    }
 
-    private boolean gather(BaseMonitoredItem<?> item, List<UaStructure> notifications, int maxNotifications) {
-        int max = maxNotifications - notifications.size();
-
-        return item.getNotifications(notifications, max);
+        if (moreNotifications) {
+            publishQueue().addSubscription(this);
+        }
     }
 
-    private void sendNotifications(ServiceRequest<PublishRequest, PublishResponse> service,
-                                   List<UaStructure> notifications) {
+    private void sendNotifications(ServiceRequest<PublishRequest, PublishResponse> service) {
+        MonitoredItemNotification[] dataNotifications = notificationBuffer.takeDataNotifications();
+        EventFieldList[] eventNotifications = notificationBuffer.takeEventNotifications();
 
-        List<MonitoredItemNotification> dataNotifications = Lists.newArrayList();
-        List<EventFieldList> eventNotifications = Lists.newArrayList();
+        int dataCount = dataNotifications.length > 0 ? 1 : 0;
+        int eventCount = eventNotifications.length > 0 ? 1 : 0;
 
-        notifications.forEach(notification -> {
-            if (notification instanceof MonitoredItemNotification) {
-                dataNotifications.add((MonitoredItemNotification) notification);
-            } else if (notification instanceof EventFieldList) {
-                eventNotifications.add((EventFieldList) notification);
-            }
-        });
+        ExtensionObject[] notificationData = new ExtensionObject[dataCount + eventCount];
 
-        List<ExtensionObject> notificationData = Lists.newArrayList();
-
-        if (dataNotifications.size() > 0) {
+        if (dataCount > 0) {
             DataChangeNotification dataChange = new DataChangeNotification(
-                    dataNotifications.toArray(new MonitoredItemNotification[dataNotifications.size()]),
-                    new DiagnosticInfo[0]);
+                    dataNotifications, NO_DIAGNOSTIC_INFOS);
 
-            notificationData.add(ExtensionObject.encode(dataChange));
+            notificationData[0] = ExtensionObject.encode(dataChange);
         }
 
-        if (eventNotifications.size() > 0) {
-            EventNotificationList eventChange = new EventNotificationList(
-                    eventNotifications.toArray(new EventFieldList[eventNotifications.size()]));
+        if (eventCount > 0) {
+            EventNotificationList eventChange = new EventNotificationList(eventNotifications);
 
-            notificationData.add(ExtensionObject.encode(eventChange));
+            notificationData[dataCount] = ExtensionObject.encode(eventChange);
         }
 
         UInteger sequenceNumber = uint(nextSequenceNumber());
@@ -452,10 +469,10 @@ public class Subscription {
         NotificationMessage notificationMessage = new NotificationMessage(
                 sequenceNumber,
                 new DateTime(),
-                notificationData.toArray(new ExtensionObject[notificationData.size()])
+                notificationData
         );
 
-        availableMessages.put(notificationMessage.getSequenceNumber(), notificationMessage);
+        retransmissionQueue.add(notificationMessage);
         UInteger[] available = getAvailableSequenceNumbers();
 
         UInteger requestHandle = service.getRequest().getRequestHeader().getRequestHandle();
@@ -466,22 +483,37 @@ public class Subscription {
         PublishResponse response = new PublishResponse(
                 header, subscriptionId,
                 available, moreNotifications, notificationMessage,
-                acknowledgeResults, new DiagnosticInfo[0]);
+                acknowledgeResults, NO_DIAGNOSTIC_INFOS);
 
         service.setResponse(response);
 
-        logger.debug("[id={}] returning {} DataChangeNotification(s) and {} EventNotificationList(s) sequenceNumber={}.",
-                subscriptionId, dataNotifications.size(), eventNotifications.size(), sequenceNumber);
+        logger.debug("[id={}] returning {} MonitoredItemNotification(s) and {} EventFieldList(s) sequenceNumber={}.",
+                subscriptionId, dataNotifications.length, eventNotifications.length, sequenceNumber);
     }
 
+    /**
+     * @return {@code true} if there are notifications to send, including those left over in {@link #pendingItems}
+     * from a previous publish.
+     */
     private boolean notificationsAvailable() {
-        return itemsById.values().stream()
+        if (!pendingItems.isEmpty() || moreNotifications) return true;
+
+        return readyItems.stream()
+                .filter(item -> itemsById.get(item.getId()) == item)
                 .anyMatch(item -> item.hasNotifications() || item.isTriggered());
     }
 
     private void setState(State state) {
         State previousState = this.state.getAndSet(state);
 
+        if (state == State.Closed) {
+            retransmissionQueue.clear();
+
+            if (previousState != State.Closed) {
+                itemsById.forEach(BaseMonitoredItem::onDeleted);
+            }
+        }
+
         logger.debug("[id={}] {} -> {}", subscriptionId, previousState, state);
 
         StateListener listener = stateListener.get();
@@ -520,10 +552,7 @@ public class Subscription {
     }
 
     public synchronized UInteger[] getAvailableSequenceNumbers() {
-        Set<UInteger> uIntegers = availableMessages.keySet();
-        UInteger[] available = uIntegers.toArray(new UInteger[uIntegers.size()]);
-        Arrays.sort(available);
-        return available;
+        return retransmissionQueue.getSequenceNumbers();
     }
 
     public synchronized SubscriptionManager getSubscriptionManager() {
@@ -538,8 +567,18 @@ public class Subscription {
         return subscriptionManager.getSession();
     }
 
+    /**
+     * Reserve an id for a new monitored item. If the item is never added with
+     * {@link #addMonitoredItems(List)} the id must be given back with {@link #releaseItemId(UInteger)}.
+     *
+     * @return the reserved id.
+     */
     public long nextItemId() {
-        return itemIds.getAndIncrement();
+        return itemsById.reserve();
+    }
+
+    public void releaseItemId(UInteger itemId) {
+        itemsById.release(itemId);
     }
 
     public void setStateListener(StateListener listener) {
@@ -593,7 +632,7 @@ public class Subscription {
         } else {
             long interval = DoubleMath.roundToLong(publishingInterval, RoundingMode.UP);
 
-            subscriptionManager.getServer().getScheduledExecutorService().schedule(
+            subscriptionManager.getServer().getPublishingScheduler().schedule(
                     this::onPublishingTimer,
                     interval,
                     TimeUnit.MILLISECONDS
@@ -602,7 +641,7 @@ public class Subscription {
     }
 
     public synchronized StatusCode acknowledge(UInteger sequenceNumber) {
-        if (availableMessages.remove(sequenceNumber) != null) {
+        if (retransmissionQueue.remove(sequenceNumber)) {
             logger.debug("[id={}] sequence number acknowledged: {}", subscriptionId, sequenceNumber);
 
             return StatusCode.GOOD;
@@ -616,7 +655,7 @@ public class Subscription {
     public synchronized NotificationMessage republish(UInteger sequenceNumber) {
         resetLifetimeCounter();
 
-        return availableMessages.get(sequenceNumber);
+        return retransmissionQueue.get(sequenceNumber);
     }
 
     private class PublishHandler {
@@ -33,6 +33,7 @@ import java.util.stream.Collectors;
 import com.digitalpetri.opcua.sdk.core.AccessLevel;
 import com.digitalpetri.opcua.sdk.core.AttributeIds;
 import com.digitalpetri.opcua.sdk.core.NumericRange;
+import com.digitalpetri.opcua.sdk.core.model.variables.AnalogItemType;
 import com.digitalpetri.opcua.sdk.server.DiagnosticsContext;
 import com.digitalpetri.opcua.sdk.server.OpcUaServer;
 import com.digitalpetri.opcua.sdk.server.Session;
@@ -44,6 +45,7 @@ import com.digitalpetri.opcua.sdk.server.api.Namespace;
 import com.digitalpetri.opcua.sdk.server.items.BaseMonitoredItem;
 import com.digitalpetri.opcua.sdk.server.items.MonitoredDataItem;
 import com.digitalpetri.opcua.sdk.server.items.MonitoredEventItem;
+import com.digitalpetri.opcua.sdk.server.model.UaNode;
 import com.digitalpetri.opcua.sdk.server.subscriptions.Subscription.State;
 import com.digitalpetri.opcua.stack.core.AttributeId;
 import com.digitalpetri.opcua.stack.core.StatusCodes;
@@ -79,6 +81,7 @@ import com.digitalpetri.opcua.stack.core.types.structured.MonitoringParameters;
 import com.digitalpetri.opcua.stack.core.types.structured.NotificationMessage;
 import com.digitalpetri.opcua.stack.core.types.structured.PublishRequest;
 import com.digitalpetri.opcua.stack.core.types.structured.PublishResponse;
+import com.digitalpetri.opcua.stack.core.types.structured.Range;
 import com.digitalpetri.opcua.stack.core.types.structured.ReadValueId;
 import com.digitalpetri.opcua.stack.core.types.structured.RepublishRequest;
 import com.digitalpetri.opcua.stack.core.types.structured.RepublishResponse;
@@ -119,7 +122,7 @@ public class SubscriptionManager {
 
     private final Map<UInteger, StatusCode[]> acknowledgeResults = Maps.newConcurrentMap();
 
-    private final PublishQueue publishQueue = new PublishQueue();
+    private final PublishQueue publishQueue;
 
     private final Map<UInteger, Subscription> subscriptions = Maps.newConcurrentMap();
     private final List<Subscription> transferred = Lists.newCopyOnWriteArrayList();
@@ -130,6 +133,8 @@ public class SubscriptionManager {
     public SubscriptionManager(Session session, OpcUaServer server) {
         this.session = session;
         this.server = server;
+
+        publishQueue = new PublishQueue(server.getExecutorService());
     }
 
     public Session getSession() {
@@ -373,31 +378,47 @@ public class SubscriptionManager {
                                 throw new UaException(StatusCodes.Bad_AttributeIdInvalid);
                             }
 
-                            MonitoredEventItem item = new MonitoredEventItem(
-                                    uint(subscription.nextItemId()),
-                                    subscriptionId,
-                                    r.getItemToMonitor(),
-                                    r.getMonitoringMode(),
-                                    timestamps,
-                                    r.getRequestedParameters().getClientHandle(),
-                                    0.0,
-                                    r.getRequestedParameters().getQueueSize(),
-                                    r.getRequestedParameters().getDiscardOldest(),
-                                    r.getRequestedParameters().getFilter());
-
-                            createdItems.add(item);
-
-                            MonitoredItemCreateResult result = new MonitoredItemCreateResult(
-                                    StatusCode.GOOD,
-                                    item.getId(),
-                                    item.getSamplingInterval(),
-                                    uint(item.getQueueSize()),
-                                    item.getFilterResult());
+                            UInteger itemId = uint(subscription.nextItemId());
+                            MonitoredEventItem item = null;
+                            MonitoredItemCreateResult result;
+
+                            try {
+                                item = new MonitoredEventItem(
+                                        itemId,
+                                        subscriptionId,
+                                        r.getItemToMonitor(),
+                                        r.getMonitoringMode(),
+                                        timestamps,
+                                        r.getRequestedParameters().getClientHandle(),
+                                        0.0,
+                                        r.getRequestedParameters().getQueueSize(),
+                                        r.getRequestedParameters().getDiscardOldest(),
+                                        r.getRequestedParameters().getFilter(),
+                                        server.getEventFieldRegistry());
+
+                                result = new MonitoredItemCreateResult(
+                                        StatusCode.GOOD,
+                                        item.getId(),
+                                        item.getSamplingInterval(),
+                                        uint(item.getQueueSize()),
+                                        item.getFilterResult());
+
+                                createdItems.add(item);
+                            } catch (Throwable t) {
+                                // the item never reaches the subscription; give back what it holds.
+                                if (item != null) item.onDeleted();
+                                subscription.releaseItemId(itemId);
+                                throw t;
+                            }
 
                             p.getResultFuture().complete(result);
-                        } catch (UaException e) {
+                        } catch (Throwable t) {
+                            StatusCode statusCode = UaException.extract(t)
+                                    .map(UaException::getStatusCode)
+                                    .orElse(StatusCode.BAD);
+
                             MonitoredItemCreateResult result =
-                                    new MonitoredItemCreateResult(e.getStatusCode(), uint(0), 0d, uint(0), null);
+                                    new MonitoredItemCreateResult(statusCode, uint(0), 0d, uint(0), null);
 
                             p.getResultFuture().complete(result);
                         }
@@ -423,6 +444,9 @@ public class SubscriptionManager {
                             Double minimumSamplingInterval = Optional.ofNullable(
                                     (Double) vs.get(2).getValue().getValue()).orElse(0.0);
 
+                            Object dataTypeValue = vs.get(3).getValue().getValue();
+                            NodeId dataType = dataTypeValue instanceof NodeId ? (NodeId) dataTypeValue : null;
+
                             EnumSet<AccessLevel> accessLevels = AccessLevel.fromMask(accessLevel);
                             EnumSet<AccessLevel> userAccessLevels = AccessLevel.fromMask(userAccessLevel);
 
@@ -446,26 +470,39 @@ public class SubscriptionManager {
                             String indexRange = r.getItemToMonitor().getIndexRange();
                             if (indexRange != null) NumericRange.parse(indexRange);
 
-                            MonitoredDataItem item = new MonitoredDataItem(
-                                    uint(subscription.nextItemId()),
-                                    subscriptionId,
-                                    r.getItemToMonitor(),
-                                    r.getMonitoringMode(),
-                                    timestamps,
-                                    r.getRequestedParameters().getClientHandle(),
-                                    samplingInterval,
-                                    r.getRequestedParameters().getFilter(),
-                                    r.getRequestedParameters().getQueueSize(),
-                                    r.getRequestedParameters().getDiscardOldest());
-
-                            createdItems.add(item);
-
-                            MonitoredItemCreateResult result = new MonitoredItemCreateResult(
-                                    StatusCode.GOOD,
-                                    item.getId(),
-                                    item.getSamplingInterval(),
-                                    uint(item.getQueueSize()),
-                                    item.getFilterResult());
+                            UInteger itemId = uint(subscription.nextItemId());
+                            MonitoredDataItem item = null;
+                            MonitoredItemCreateResult result;
+
+                            try {
+                                item = new MonitoredDataItem(
+                                        itemId,
+                                        subscriptionId,
+                                        r.getItemToMonitor(),
+                                        r.getMonitoringMode(),
+                                        timestamps,
+                                        r.getRequestedParameters().getClientHandle(),
+                                        samplingInterval,
+                                        r.getRequestedParameters().getFilter(),
+                                        r.getRequestedParameters().getQueueSize(),
+                                        r.getRequestedParameters().getDiscardOldest(),
+                                        getEURange(nodeId),
+                                        dataType);
+
+                                result = new MonitoredItemCreateResult(
+                                        StatusCode.GOOD,
+                                        item.getId(),
+                                        item.getSamplingInterval(),
+                                        uint(item.getQueueSize()),
+                                        item.getFilterResult());
+
+                                createdItems.add(item);
+                            } catch (Throwable t) {
+                                // the item never reaches the subscription; give back what it holds.
+                                if (item != null) item.onDeleted();
+                                subscription.releaseItemId(itemId);
+                                throw t;
+                            }
 
                             p.getResultFuture().complete(result);
                         } catch (Throwable t) {
@@ -706,13 +743,27 @@ public class SubscriptionManager {
         List<ReadValueId> attributes = newArrayList(
                 f.apply(AttributeId.AccessLevel),
                 f.apply(AttributeId.UserAccessLevel),
-                f.apply(AttributeId.MinimumSamplingInterval));
+                f.apply(AttributeId.MinimumSamplingInterval),
+                f.apply(AttributeId.DataType));
 
         namespace.read(readContext, 0.0, TimestampsToReturn.Neither, attributes);
 
         return future;
     }
 
+    /**
+     * @return the EURange property of the node with {@code nodeId}, or {@code null} if it doesn't have one.
+     */
+    private Range getEURange(NodeId nodeId) {
+        UaNode node = server.getNodeManager().get(nodeId);
+
+        if (node == null) return null;
+
+        Object euRange = node.getProperty(AnalogItemType.E_U_RANGE.getBrowseName()).orElse(null);
+
+        return euRange instanceof Range ? (Range) euRange : null;
+    }
+
     private CompletableFuture<EventAttributes> readEventAttributes(Namespace namespace, NodeId nodeId) {
         Function<AttributeId, ReadValueId> f = id ->
                 new ReadValueId(nodeId, id.uid(), null, QualifiedName.NULL_VALUE);
@@ -981,7 +1032,7 @@ public class SubscriptionManager {
 
 
         synchronized (subscription) {
-            Map<UInteger, BaseMonitoredItem<?>> itemsById = subscription.getMonitoredItems();
+            MonitoredItemTable itemsById = subscription.getMonitoredItems();
 
             BaseMonitoredItem<?> triggerItem = itemsById.get(triggerId);
             if (triggerItem == null) {
@@ -989,33 +1040,19 @@ public class SubscriptionManager {
                 return;
             }
 
-            List<StatusCode> removeResults = Arrays.stream(linksToRemove)
-                    .map(linkedItemId -> {
-                        BaseMonitoredItem<?> item = itemsById.get(linkedItemId);
-                        if (item != null) {
-                            if (triggerItem.getTriggeredItems().remove(linkedItemId) != null) {
-                                return StatusCode.GOOD;
-                            } else {
-                                return new StatusCode(StatusCodes.Bad_MonitoredItemIdInvalid);
-                            }
-                        } else {
-                            return new StatusCode(StatusCodes.Bad_MonitoredItemIdInvalid);
-                        }
-                    })
+            TriggeringGraph triggeringGraph = subscription.getTriggeringGraph();
+
+            List<BaseMonitoredItem<?>> itemsToRemove = Arrays.stream(linksToRemove)
+                    .map(itemsById::get)
                     .collect(toList());
 
-            List<StatusCode> addResults = Arrays.stream(linksToAdd)
-                    .map(linkedItemId -> {
-                        BaseMonitoredItem<?> linkedItem = itemsById.get(linkedItemId);
-                        if (linkedItem != null) {
-                            triggerItem.getTriggeredItems().put(linkedItemId, linkedItem);
-                            return StatusCode.GOOD;
-                        } else {
-                            return new StatusCode(StatusCodes.Bad_MonitoredItemIdInvalid);
-                        }
-                    })
+            List<BaseMonitoredItem<?>> itemsToAdd = Arrays.stream(linksToAdd)
+                    .map(itemsById::get)
                     .collect(toList());
 
+            List<StatusCode> removeResults = toStatusCodes(triggeringGraph.unlink(triggerItem, itemsToRemove));
+            List<StatusCode> addResults = toStatusCodes(triggeringGraph.link(triggerItem, itemsToAdd));
+
             SetTriggeringResponse response = new SetTriggeringResponse(
                     service.createResponseHeader(),
                     addResults.toArray(new StatusCode[addResults.size()]),
@@ -1028,6 +1065,16 @@ public class SubscriptionManager {
         }
     }
 
+    private static List<StatusCode> toStatusCodes(boolean[] results) {
+        List<StatusCode> statusCodes = newArrayListWithCapacity(results.length);
+
+        for (boolean result : results) {
+            statusCodes.add(result ? StatusCode.GOOD : new StatusCode(StatusCodes.Bad_MonitoredItemIdInvalid));
+        }
+
+        return statusCodes;
+    }
+
     public void sessionClosed(boolean deleteSubscriptions) {
         Iterator<Subscription> iterator = subscriptions.values().iterator();
 
@@ -0,0 +1,224 @@
+/*
+ * digitalpetri OPC-UA SDK
+ *
+ * Copyright (C) 2015 Kevin Herron
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.digitalpetri.opcua.sdk.server.subscriptions;
+
+import java.util.Arrays;
+import java.util.List;
+
+import com.digitalpetri.opcua.sdk.server.items.BaseMonitoredItem;
+
+/**
+ * The triggering links between the monitored items of a {@link Subscription}.
+ * <p>
+ * Each item is given a dense slot when it's added, and the links from a triggering item are kept as an {@code int[]}
+ * of the slots it triggers. Changes copy the table and publish it with a single volatile write, so firing a trigger
+ * only reads plain arrays and never takes a lock.
+ */
+public class TriggeringGraph {
+
+    private static final int[] NO_LINKS = new int[0];
+
+    private volatile Table table = new Table(new BaseMonitoredItem<?>[16], new int[16][]);
+
+    /**
+     * Give each of {@code items} a slot in this graph.
+     *
+     * @param items the items being added to the {@link Subscription}.
+     */
+    public synchronized void add(List<BaseMonitoredItem<?>> items) {
+        BaseMonitoredItem<?>[] slots = table.items;
+        int[][] links = table.links;
+
+        int free = 0;
+        for (BaseMonitoredItem<?> item : items) {
+            while (free < slots.length && slots[free] != null) free++;
+
+            if (free == slots.length) {
+                int capacity = Math.max(slots.length * 2, slots.length + items.size());
+                slots = Arrays.copyOf(slots, capacity);
+                links = Arrays.copyOf(links, capacity);
+            } else if (slots == table.items) {
+                slots = slots.clone();
+                links = links.clone();
+            }
+
+            slots[free] = item;
+            links[free] = NO_LINKS;
+            item.setTriggeringGraph(this, free);
+        }
+
+        table = new Table(slots, links);
+    }
+
+    /**
+     * Release the slots of {@code items}, removing every link from or to them.
+     *
+     * @param items the items being removed from the {@link Subscription}.
+     */
+    public synchronized void remove(List<BaseMonitoredItem<?>> items) {
+        BaseMonitoredItem<?>[] slots = table.items.clone();
+        int[][] links = table.links.clone();
+
+        boolean[] removed = new boolean[slots.length];
+        for (BaseMonitoredItem<?> item : items) {
+            int slot = slotOf(item, slots);
+
+            if (slot >= 0) {
+                slots[slot] = null;
+                links[slot] = null;
+                removed[slot] = true;
+                item.setTriggeringGraph(null, -1);
+            }
+        }
+
+        for (int i = 0; i < links.length; i++) {
+            int[] row = links[i];
+
+            if (row != null && row.length > 0) {
+                int[] retained = Arrays.stream(row).filter(s -> !removed[s]).toArray();
+
+                if (retained.length != row.length) {
+                    links[i] = retained.length > 0 ? retained : NO_LINKS;
+                }
+            }
+        }
+
+        table = new Table(slots, links);
+    }
+
+    /**
+     * Link {@code trigger} to each of {@code linked}.
+     *
+     * @param trigger the triggering item.
+     * @param linked  the items to link; {@code null} entries are skipped.
+     * @return for each of {@code linked}, whether it's now linked.
+     */
+    public synchronized boolean[] link(BaseMonitoredItem<?> trigger, List<BaseMonitoredItem<?>> linked) {
+        boolean[] results = new boolean[linked.size()];
+
+        int triggerSlot = slotOf(trigger, table.items);
+        if (triggerSlot < 0) return results;
+
+        int[] row = table.links[triggerSlot];
+        int length = row.length;
+        row = Arrays.copyOf(row, length + linked.size());
+
+        for (int i = 0; i < results.length; i++) {
+            int slot = slotOf(linked.get(i), table.items);
+
+            if (slot >= 0) {
+                if (indexOf(row, length, slot) < 0) {
+                    row[length++] = slot;
+                }
+                results[i] = true;
+            }
+        }
+
+        publish(triggerSlot, Arrays.copyOf(row, length));
+
+        return results;
+    }
+
+    /**
+     * Remove the links from {@code trigger} to each of {@code linked}.
+     *
+     * @param trigger the triggering item.
+     * @param linked  the items to unlink; {@code null} entries are skipped.
+     * @return for each of {@code linked}, whether it was linked.
+     */
+    public synchronized boolean[] unlink(BaseMonitoredItem<?> trigger, List<BaseMonitoredItem<?>> linked) {
+        boolean[] results = new boolean[linked.size()];
+
+        int triggerSlot = slotOf(trigger, table.items);
+        if (triggerSlot < 0) return results;
+
+        int[] row = table.links[triggerSlot].clone();
+        int length = row.length;
+
+        for (int i = 0; i < results.length; i++) {
+            int slot = slotOf(linked.get(i), table.items);
+            int index = slot >= 0 ? indexOf(row, length, slot) : -1;
+
+            if (index >= 0) {
+                row[index] = row[--length];
+                results[i] = true;
+            }
+        }
+
+        publish(triggerSlot, length > 0 ? Arrays.copyOf(row, length) : NO_LINKS);
+
+        return results;
+    }
+
+    /**
+     * Mark every item linked to the item in {@code slot} as triggered.
+     *
+     * @param slot the slot of the triggering item.
+     */
+    public void fire(int slot) {
+        Table table = this.table;
+
+        if (slot < 0 || slot >= table.links.length) return;
+
+        int[] row = table.links[slot];
+        if (row == null) return;
+
+        for (int linked : row) {
+            BaseMonitoredItem<?> item = table.items[linked];
+
+            if (item != null) item.setTriggered();
+        }
+    }
+
+    private void publish(int slot, int[] row) {
+        int[][] links = table.links.clone();
+        links[slot] = row;
+
+        table = new Table(table.items, links);
+    }
+
+    private static int indexOf(int[] row, int length, int slot) {
+        for (int i = 0; i < length; i++) {
+            if (row[i] == slot) return i;
+        }
+        return -1;
+    }
+
+    private static int slotOf(BaseMonitoredItem<?> item, BaseMonitoredItem<?>[] slots) {
+        if (item == null) return -1;
+
+        int slot = item.getTriggeringSlot();
+
+        return (slot >= 0 && slot < slots.length && slots[slot] == item) ? slot : -1;
+    }
+
+    private static final class Table {
+
+        final BaseMonitoredItem<?>[] items;
+        final int[][] links;
+
+        Table(BaseMonitoredItem<?>[] items, int[][] links) {
+            this.items = items;
+            this.links = links;
+        }
+
+    }
+
+}
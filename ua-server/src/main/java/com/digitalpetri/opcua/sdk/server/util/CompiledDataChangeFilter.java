@@ -0,0 +1,43 @@
+/*
+ * digitalpetri OPC-UA SDK
+ *
+ * Copyright (C) 2015 Kevin Herron
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.digitalpetri.opcua.sdk.server.util;
+
+import com.digitalpetri.opcua.stack.core.types.builtin.DataValue;
+import com.digitalpetri.opcua.stack.core.types.structured.DataChangeFilter;
+import com.digitalpetri.opcua.stack.core.types.structured.Range;
+
+/**
+ * A {@link DataChangeFilter} specialized, once per monitored item, for its trigger, deadband and the DataType of the
+ * monitored node, so that testing a sample doesn't have to look any of them up again.
+ * <p>
+ * Behaves the same as {@link DataChangeMonitoringFilter#filter(DataValue, DataValue, DataChangeFilter, Range)}.
+ *
+ * @see DataChangeMonitoringFilter#compile
+ */
+@FunctionalInterface
+public interface CompiledDataChangeFilter {
+
+    /**
+     * @param lastValue    the last value that passed the filter; never {@code null}.
+     * @param currentValue the value to test.
+     * @return {@code true} if {@code currentValue} passes the filter.
+     */
+    boolean test(DataValue lastValue, DataValue currentValue);
+
+}
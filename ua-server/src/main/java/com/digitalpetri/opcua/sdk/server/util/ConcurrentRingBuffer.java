@@ -0,0 +1,50 @@
+/*
+ * digitalpetri OPC-UA SDK
+ *
+ * Copyright (C) 2015 Kevin Herron
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.digitalpetri.opcua.sdk.server.util;
+
+/**
+ * A {@link ConcurrentValueQueue} that stores its values in an array.
+ * <p>
+ * Slots aren't cleared when values are polled, since the producer may already be reusing them; up to
+ * {@link #maxSize()} values stay reachable until they are overwritten.
+ *
+ * @param <E> the type of value queued.
+ */
+public class ConcurrentRingBuffer<E> extends ConcurrentValueQueue<E> {
+
+    private final Object[] slots;
+
+    public ConcurrentRingBuffer(int capacity) {
+        super(capacity);
+
+        slots = new Object[capacity];
+    }
+
+    @Override
+    protected void store(int index, E value) {
+        slots[index] = value;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    protected E load(int index) {
+        return (E) slots[index];
+    }
+
+}
@@ -0,0 +1,175 @@
+/*
+ * digitalpetri OPC-UA SDK
+ *
+ * Copyright (C) 2015 Kevin Herron
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.digitalpetri.opcua.sdk.server.util;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.UnaryOperator;
+
+/**
+ * A bounded FIFO queue of values that one producer fills and any thread drains without locking.
+ * <p>
+ * The position of the oldest value, the number of values and a version stamp are packed into a single
+ * {@link AtomicLong}; every change to the queue is a compare-and-set of that word, so a consumer that read a slot while
+ * the producer was changing it simply retries. Slot storage is left to subclasses.
+ * <p>
+ * {@link #offer} must not be called concurrently with itself; {@link #poll}, {@link #size} and {@link #clear} may be
+ * called from any thread at any time.
+ *
+ * @param <E> the type of value queued.
+ */
+public abstract class ConcurrentValueQueue<E> {
+
+    /**
+     * The largest capacity that fits the packed state.
+     */
+    public static final int MAX_CAPACITY = 0xFFFF;
+
+    private static final long MASK_16 = 0xFFFFL;
+
+    /**
+     * version (32 bits) | head index (16 bits) | count (16 bits)
+     */
+    private final AtomicLong state = new AtomicLong(0L);
+
+    private final int capacity;
+
+    protected ConcurrentValueQueue(int capacity) {
+        if (capacity < 1 || capacity > MAX_CAPACITY) {
+            throw new IllegalArgumentException("capacity=" + capacity);
+        }
+
+        this.capacity = capacity;
+    }
+
+    /**
+     * Add {@code value} to the queue.
+     * <p>
+     * If the queue is full, {@code discardOldest} decides whether the oldest value is discarded or the newest value is
+     * replaced, and the value actually queued is {@code onOverflow} applied to {@code value}.
+     *
+     * @param value         the value to add.
+     * @param discardOldest {@code true} to discard the oldest value when full, {@code false} to replace the newest.
+     * @param onOverflow    applied to {@code value} when a value has to be discarded to make room for it.
+     * @return {@code true} if a value was discarded.
+     */
+    public boolean offer(E value, boolean discardOldest, UnaryOperator<E> onOverflow) {
+        boolean discarded = false;
+        E queued = value;
+
+        while (true) {
+            long s = state.get();
+            int head = head(s);
+            int count = count(s);
+
+            if (count < capacity) {
+                // the tail slot is outside the range consumers can claim until the compare-and-set succeeds.
+                store(index(head + count), queued);
+
+                if (state.compareAndSet(s, pack(version(s) + 1, head, count + 1))) return discarded;
+            } else if (discardOldest) {
+                // drop the oldest value; if a consumer takes it first there's room without discarding anything.
+                if (state.compareAndSet(s, pack(version(s) + 1, index(head + 1), count - 1))) {
+                    discarded = true;
+                    queued = onOverflow.apply(value);
+                }
+            } else {
+                // take the newest value out of reach of consumers, replace it, then put it back.
+                if (state.compareAndSet(s, pack(version(s) + 1, head, count - 1))) {
+                    store(index(head + count - 1), onOverflow.apply(value));
+
+                    while (true) {
+                        long r = state.get();
+
+                        if (state.compareAndSet(r, pack(version(r) + 1, head(r), count(r) + 1))) return true;
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * @return the oldest value in the queue, or {@code null} if the queue is empty.
+     */
+    public E poll() {
+        while (true) {
+            long s = state.get();
+            int count = count(s);
+
+            if (count == 0) return null;
+
+            int head = head(s);
+            E value = load(head);
+
+            if (state.compareAndSet(s, pack(version(s) + 1, index(head + 1), count - 1))) return value;
+        }
+    }
+
+    /**
+     * Remove all values from the queue.
+     */
+    public void clear() {
+        while (poll() != null) {
+            // discard
+        }
+    }
+
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    public int size() {
+        return count(state.get());
+    }
+
+    public int maxSize() {
+        return capacity;
+    }
+
+    /**
+     * Store {@code value} in slot {@code index}. Only called by the producer, for a slot consumers can't claim.
+     */
+    protected abstract void store(int index, E value);
+
+    /**
+     * Load the value in slot {@code index}. May race with {@link #store}, in which case the result is discarded, so it
+     * must not fail on a partially stored value.
+     */
+    protected abstract E load(int index);
+
+    private int index(int position) {
+        return position % capacity;
+    }
+
+    private static long pack(long version, int head, int count) {
+        return (version << 32) | ((long) head << 16) | count;
+    }
+
+    private static long version(long s) {
+        return s >>> 32;
+    }
+
+    private static int head(long s) {
+        return (int) ((s >>> 16) & MASK_16);
+    }
+
+    private static int count(long s) {
+        return (int) (s & MASK_16);
+    }
+
+}
@@ -21,15 +21,110 @@ package com.digitalpetri.opcua.sdk.server.util;
 
 import java.util.Objects;
 
+import com.digitalpetri.opcua.stack.core.Identifiers;
 import com.digitalpetri.opcua.stack.core.types.builtin.DataValue;
+import com.digitalpetri.opcua.stack.core.types.builtin.NodeId;
 import com.digitalpetri.opcua.stack.core.types.enumerated.DataChangeTrigger;
 import com.digitalpetri.opcua.stack.core.types.enumerated.DeadbandType;
 import com.digitalpetri.opcua.stack.core.types.structured.DataChangeFilter;
+import com.digitalpetri.opcua.stack.core.types.structured.Range;
 
 public class DataChangeMonitoringFilter {
 
     public static boolean filter(DataValue lastValue, DataValue currentValue, DataChangeFilter filter) {
-        return triggerFilter(lastValue, currentValue, filter) && deadbandFilter(lastValue, currentValue, filter);
+        return filter(lastValue, currentValue, filter, null);
+    }
+
+    /**
+     * @param lastValue    the last value that passed the filter, or {@code null} if none has.
+     * @param currentValue the value to test.
+     * @param filter       the {@link DataChangeFilter} to apply.
+     * @param euRange      the EURange of the monitored node, required for {@link DeadbandType#Percent}; a Percent
+     *                     deadband without an EURange passes every value.
+     * @return {@code true} if {@code currentValue} passes the filter.
+     */
+    public static boolean filter(DataValue lastValue, DataValue currentValue, DataChangeFilter filter, Range euRange) {
+        return triggerFilter(lastValue, currentValue, filter) &&
+                deadbandFilter(lastValue, currentValue, filter, euRange);
+    }
+
+    /**
+     * @param filter   the {@link DataChangeFilter} to compile.
+     * @param euRange  the EURange of the monitored node, or {@code null} if it has none.
+     * @param dataType the DataType of the monitored node, or {@code null} if unknown.
+     * @return a {@link CompiledDataChangeFilter} specialized for {@code filter} and the node being monitored.
+     */
+    public static CompiledDataChangeFilter compile(DataChangeFilter filter, Range euRange, NodeId dataType) {
+        CompiledDataChangeFilter trigger = compileTrigger(filter.getTrigger());
+
+        double deadband = getDeadband(filter, euRange);
+
+        if (Double.isNaN(deadband)) return trigger;
+
+        CompiledDataChangeFilter deadbandFilter = compileDeadband(deadband, dataType);
+
+        return (lastValue, currentValue) ->
+                trigger.test(lastValue, currentValue) && deadbandFilter.test(lastValue, currentValue);
+    }
+
+    private static CompiledDataChangeFilter compileTrigger(DataChangeTrigger trigger) {
+        if (trigger == DataChangeTrigger.Status) {
+            return (lastValue, currentValue) ->
+                    !Objects.equals(lastValue.getStatusCode(), currentValue.getStatusCode());
+        } else if (trigger == DataChangeTrigger.StatusValue) {
+            return (lastValue, currentValue) ->
+                    !Objects.equals(lastValue.getValue(), currentValue.getValue()) ||
+                            !Objects.equals(lastValue.getStatusCode(), currentValue.getStatusCode());
+        } else {
+            // DataChangeTrigger.StatusValueTimestamp
+            return (lastValue, currentValue) ->
+                    !Objects.equals(lastValue.getSourceTime(), currentValue.getSourceTime()) ||
+                            !Objects.equals(lastValue.getValue(), currentValue.getValue()) ||
+                            !Objects.equals(lastValue.getStatusCode(), currentValue.getStatusCode());
+        }
+    }
+
+    private static CompiledDataChangeFilter compileDeadband(double deadband, NodeId dataType) {
+        if (Identifiers.Double.equals(dataType)) {
+            return (lastValue, currentValue) -> {
+                Object last = lastValue.getValue().getValue();
+                Object current = currentValue.getValue().getValue();
+
+                if (last instanceof Double && current instanceof Double) {
+                    return Math.abs((Double) last - (Double) current) > deadband;
+                } else {
+                    return exceedsDeadband(last, current, deadband);
+                }
+            };
+        } else if (isScalarNumeric(dataType)) {
+            return (lastValue, currentValue) -> {
+                Object last = lastValue.getValue().getValue();
+                Object current = currentValue.getValue().getValue();
+
+                if (last instanceof Number && current instanceof Number) {
+                    return Math.abs(((Number) last).doubleValue() - ((Number) current).doubleValue()) > deadband;
+                } else {
+                    return exceedsDeadband(last, current, deadband);
+                }
+            };
+        } else {
+            return (lastValue, currentValue) -> exceedsDeadband(
+                    lastValue.getValue().getValue(),
+                    currentValue.getValue().getValue(),
+                    deadband);
+        }
+    }
+
+    private static boolean isScalarNumeric(NodeId dataType) {
+        return Identifiers.Float.equals(dataType) ||
+                Identifiers.Int32.equals(dataType) ||
+                Identifiers.Int64.equals(dataType) ||
+                Identifiers.Int16.equals(dataType) ||
+                Identifiers.SByte.equals(dataType) ||
+                Identifiers.UInt32.equals(dataType) ||
+                Identifiers.UInt64.equals(dataType) ||
+                Identifiers.UInt16.equals(dataType) ||
+                Identifiers.Byte.equals(dataType);
     }
 
     private static boolean triggerFilter(DataValue lastValue, DataValue currentValue, DataChangeFilter filter) {
@@ -49,57 +144,147 @@ public class DataChangeMonitoringFilter {
         }
     }
 
-    private static boolean deadbandFilter(DataValue lastValue, DataValue currentValue, DataChangeFilter filter) {
+    private static boolean deadbandFilter(DataValue lastValue,
+                                          DataValue currentValue,
+                                          DataChangeFilter filter,
+                                          Range euRange) {
+
         if (lastValue == null) return true;
 
-        int index = filter.getDeadbandType().intValue();
-        if (index < 0 || index >= DeadbandType.values().length) return true;
-        DeadbandType deadbandType = DeadbandType.values()[index];
+        double deadband = getDeadband(filter, euRange);
 
-        if (deadbandType != DeadbandType.Absolute) return true;
+        if (Double.isNaN(deadband)) return true;
 
         Object last = lastValue.getValue().getValue();
         Object current = currentValue.getValue().getValue();
 
+        return exceedsDeadband(last, current, deadband);
+    }
+
+    /**
+     * Get the absolute deadband {@code filter} applies.
+     *
+     * @param filter  the {@link DataChangeFilter}.
+     * @param euRange the EURange of the monitored node, or {@code null} if it has none.
+     * @return the absolute deadband, or {@link Double#NaN} if no deadband applies.
+     */
+    public static double getDeadband(DataChangeFilter filter, Range euRange) {
+        DeadbandType deadbandType = DeadbandType.from(filter.getDeadbandType().intValue());
+
+        if (deadbandType == DeadbandType.Absolute) {
+            return filter.getDeadbandValue();
+        } else if (deadbandType == DeadbandType.Percent && euRange != null) {
+            double low = euRange.getLow() != null ? euRange.getLow() : 0.0;
+            double high = euRange.getHigh() != null ? euRange.getHigh() : 0.0;
+
+            return (filter.getDeadbandValue() / 100.0) * Math.abs(high - low);
+        } else {
+            return Double.NaN;
+        }
+    }
+
+    /**
+     * @param last     the last value; a scalar or array.
+     * @param current  the current value; a scalar or array.
+     * @param deadband the absolute deadband.
+     * @return {@code true} if any element of {@code current} differs from {@code last} by more than {@code deadband},
+     * or if the values can't be compared numerically (null, non-numeric, or arrays of different types or lengths).
+     */
+    public static boolean exceedsDeadband(Object last, Object current, double deadband) {
         if (last == null || current == null) {
             return true;
-        } else if (last.getClass().isArray() && current.getClass().isArray()) {
-            return compareArrayDeadband(last, current, filter.getDeadbandValue());
+        } else if (last instanceof Number && current instanceof Number) {
+            return Math.abs(((Number) last).doubleValue() - ((Number) current).doubleValue()) > deadband;
+        } else if (last instanceof double[] && current instanceof double[]) {
+            return exceedsDeadband((double[]) last, (double[]) current, deadband);
+        } else if (last instanceof float[] && current instanceof float[]) {
+            return exceedsDeadband((float[]) last, (float[]) current, deadband);
+        } else if (last instanceof int[] && current instanceof int[]) {
+            return exceedsDeadband((int[]) last, (int[]) current, deadband);
+        } else if (last instanceof long[] && current instanceof long[]) {
+            return exceedsDeadband((long[]) last, (long[]) current, deadband);
+        } else if (last instanceof short[] && current instanceof short[]) {
+            return exceedsDeadband((short[]) last, (short[]) current, deadband);
+        } else if (last instanceof byte[] && current instanceof byte[]) {
+            return exceedsDeadband((byte[]) last, (byte[]) current, deadband);
+        } else if (last instanceof Object[] && current instanceof Object[]) {
+            return exceedsDeadband((Object[]) last, (Object[]) current, deadband);
         } else {
-            return compareScalarDeadband(last, current, filter.getDeadbandValue());
+            return true;
         }
     }
 
-    private static boolean compareArrayDeadband(Object last, Object current, double deadband) {
-        Object[] lastA = Object[].class.cast(last);
-        Object[] currentA = Object[].class.cast(current);
+    static boolean exceedsDeadband(double[] last, double[] current, double deadband) {
+        if (last.length != current.length) return true;
 
-        if (lastA.length != currentA.length) {
-            return true;
-        } else {
-            boolean exceeds = false;
+        for (int i = 0; i < last.length; i++) {
+            if (Math.abs(last[i] - current[i]) > deadband) return true;
+        }
+
+        return false;
+    }
 
-            for (int i = 0; i < lastA.length; i++) {
-                exceeds = exceeds || exceedsDeadband(lastA[i], currentA[i], deadband);
-            }
+    static boolean exceedsDeadband(float[] last, float[] current, double deadband) {
+        if (last.length != current.length) return true;
 
-            return exceeds;
+        for (int i = 0; i < last.length; i++) {
+            if (Math.abs((double) last[i] - current[i]) > deadband) return true;
         }
+
+        return false;
     }
 
-    private static boolean compareScalarDeadband(Object last, Object current, double deadband) {
-        return exceedsDeadband(last, current, deadband);
+    static boolean exceedsDeadband(int[] last, int[] current, double deadband) {
+        if (last.length != current.length) return true;
+
+        for (int i = 0; i < last.length; i++) {
+            if (Math.abs((double) last[i] - current[i]) > deadband) return true;
+        }
+
+        return false;
     }
 
-    private static boolean exceedsDeadband(Object last, Object current, double deadband) {
-        try {
-            double lastD = Number.class.cast(last).doubleValue();
-            double currentD = Number.class.cast(current).doubleValue();
+    static boolean exceedsDeadband(long[] last, long[] current, double deadband) {
+        if (last.length != current.length) return true;
 
-            return Math.abs(lastD - currentD) > deadband;
-        } catch (Throwable t) {
-            return true;
+        for (int i = 0; i < last.length; i++) {
+            if (Math.abs((double) last[i] - current[i]) > deadband) return true;
+        }
+
+        return false;
+    }
+
+    static boolean exceedsDeadband(short[] last, short[] current, double deadband) {
+        if (last.length != current.length) return true;
+
+        for (int i = 0; i < last.length; i++) {
+            if (Math.abs((double) last[i] - current[i]) > deadband) return true;
         }
+
+        return false;
+    }
+
+    static boolean exceedsDeadband(byte[] last, byte[] current, double deadband) {
+        if (last.length != current.length) return true;
+
+        for (int i = 0; i < last.length; i++) {
+            if (Math.abs((double) last[i] - current[i]) > deadband) return true;
+        }
+
+        return false;
+    }
+
+    /**
+     * Boxed arrays, including multi-dimensional arrays whose elements are themselves arrays.
+     */
+    static boolean exceedsDeadband(Object[] last, Object[] current, double deadband) {
+        if (last.length != current.length) return true;
+
+        for (int i = 0; i < last.length; i++) {
+            if (exceedsDeadband(last[i], current[i], deadband)) return true;
+        }
+
+        return false;
     }
 
     private static boolean statusChanged(DataValue lastValue, DataValue currentValue) {
@@ -0,0 +1,204 @@
+/*
+ * digitalpetri OPC-UA SDK
+ *
+ * Copyright (C) 2015 Kevin Herron
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.digitalpetri.opcua.sdk.server.util;
+
+import java.util.Set;
+
+import com.digitalpetri.opcua.stack.core.Identifiers;
+import com.digitalpetri.opcua.stack.core.types.builtin.DataValue;
+import com.digitalpetri.opcua.stack.core.types.builtin.DateTime;
+import com.digitalpetri.opcua.stack.core.types.builtin.NodeId;
+import com.digitalpetri.opcua.stack.core.types.builtin.StatusCode;
+import com.digitalpetri.opcua.stack.core.types.builtin.Variant;
+import com.digitalpetri.opcua.stack.core.types.builtin.unsigned.UByte;
+import com.digitalpetri.opcua.stack.core.types.builtin.unsigned.UInteger;
+import com.digitalpetri.opcua.stack.core.types.builtin.unsigned.UShort;
+import com.google.common.collect.ImmutableSet;
+
+import static com.digitalpetri.opcua.stack.core.types.builtin.unsigned.Unsigned.ubyte;
+import static com.digitalpetri.opcua.stack.core.types.builtin.unsigned.Unsigned.uint;
+import static com.digitalpetri.opcua.stack.core.types.builtin.unsigned.Unsigned.ushort;
+
+/**
+ * A {@link ConcurrentValueQueue} of {@link DataValue}s that stores scalar numeric samples in parallel primitive arrays.
+ * <p>
+ * The value, status and timestamps of a numeric sample are unpacked when it is queued and a new {@link DataValue} is
+ * built only when it is read back out. Samples that can't be represented this way (non-numeric or array values, null
+ * status, picosecond timestamps) are kept as-is.
+ */
+public class NumericRingBuffer extends ConcurrentValueQueue<DataValue> {
+
+    private static final byte KIND_OBJECT = 0;
+    private static final byte KIND_SBYTE = 1;
+    private static final byte KIND_INT16 = 2;
+    private static final byte KIND_INT32 = 3;
+    private static final byte KIND_INT64 = 4;
+    private static final byte KIND_FLOAT = 5;
+    private static final byte KIND_DOUBLE = 6;
+    private static final byte KIND_UBYTE = 7;
+    private static final byte KIND_UINT16 = 8;
+    private static final byte KIND_UINT32 = 9;
+
+    private static final long NULL_TIME = Long.MIN_VALUE;
+
+    /**
+     * DataTypes whose scalar values are all stored unpacked.
+     */
+    private static final Set<NodeId> NUMERIC_DATA_TYPES = ImmutableSet.of(
+            Identifiers.Double, Identifiers.Float,
+            Identifiers.Int64, Identifiers.Int32, Identifiers.Int16, Identifiers.SByte,
+            Identifiers.UInt32, Identifiers.UInt16, Identifiers.Byte,
+            Identifiers.Number, Identifiers.Integer, Identifiers.UInteger);
+
+    private final byte[] kinds;
+    private final long[] values;
+    private final long[] statuses;
+    private final long[] sourceTimes;
+    private final long[] serverTimes;
+
+    /**
+     * Samples of {@link #KIND_OBJECT}; only allocated once such a sample is queued.
+     */
+    private DataValue[] objects;
+
+    public NumericRingBuffer(int maxSize) {
+        super(maxSize);
+
+        kinds = new byte[maxSize];
+        values = new long[maxSize];
+        statuses = new long[maxSize];
+        sourceTimes = new long[maxSize];
+        serverTimes = new long[maxSize];
+    }
+
+    /**
+     * The parallel arrays cost about 33 bytes per slot up front, which only pays off if the samples are numeric.
+     *
+     * @param dataType the DataType of the values to be queued; may be {@code null} if unknown.
+     * @return {@code true} if values of {@code dataType} are stored unpacked.
+     */
+    public static boolean isSupported(NodeId dataType) {
+        return dataType != null && NUMERIC_DATA_TYPES.contains(dataType);
+    }
+
+    @Override
+    protected void store(int index, DataValue value) {
+        byte kind = kindOf(value);
+
+        kinds[index] = kind;
+
+        if (kind == KIND_OBJECT) {
+            if (objects == null) objects = new DataValue[maxSize()];
+            objects[index] = value;
+        } else {
+            if (objects != null) objects[index] = null;
+
+            values[index] = bitsOf(kind, value.getValue().getValue());
+            statuses[index] = value.getStatusCode().getValue();
+            sourceTimes[index] = timeOf(value.getSourceTime());
+            serverTimes[index] = timeOf(value.getServerTime());
+        }
+    }
+
+    @Override
+    protected DataValue load(int index) {
+        byte kind = kinds[index];
+
+        if (kind == KIND_OBJECT) {
+            DataValue[] objects = this.objects;
+            return objects != null ? objects[index] : null;
+        } else {
+            return new DataValue(
+                    new Variant(valueOf(kind, values[index])),
+                    new StatusCode(statuses[index]),
+                    dateTimeOf(sourceTimes[index]),
+                    dateTimeOf(serverTimes[index])
+            );
+        }
+    }
+
+    private static byte kindOf(DataValue value) {
+        if (value == null || value.getStatusCode() == null ||
+                value.getSourcePicoseconds() != null || value.getServerPicoseconds() != null) {
+            return KIND_OBJECT;
+        }
+
+        Object o = value.getValue() != null ? value.getValue().getValue() : null;
+
+        if (o instanceof Double) return KIND_DOUBLE;
+        else if (o instanceof Float) return KIND_FLOAT;
+        else if (o instanceof Integer) return KIND_INT32;
+        else if (o instanceof Long) return KIND_INT64;
+        else if (o instanceof Short) return KIND_INT16;
+        else if (o instanceof Byte) return KIND_SBYTE;
+        else if (o instanceof UInteger) return KIND_UINT32;
+        else if (o instanceof UShort) return KIND_UINT16;
+        else if (o instanceof UByte) return KIND_UBYTE;
+        else return KIND_OBJECT;
+    }
+
+    private static long bitsOf(byte kind, Object o) {
+        switch (kind) {
+            case KIND_DOUBLE:
+                return Double.doubleToRawLongBits((Double) o);
+            case KIND_FLOAT:
+                return Float.floatToRawIntBits((Float) o);
+            default:
+                return ((Number) o).longValue();
+        }
+    }
+
+    /**
+     * Total for every kind and any bits: a consumer racing the producer may pair a slot's new kind with its old bits,
+     * and the unsigned conversions would otherwise throw on bits out of their range.
+     */
+    private static Object valueOf(byte kind, long bits) {
+        switch (kind) {
+            case KIND_DOUBLE:
+                return Double.longBitsToDouble(bits);
+            case KIND_FLOAT:
+                return Float.intBitsToFloat((int) bits);
+            case KIND_INT32:
+                return (int) bits;
+            case KIND_INT64:
+                return bits;
+            case KIND_INT16:
+                return (short) bits;
+            case KIND_SBYTE:
+                return (byte) bits;
+            case KIND_UINT32:
+                return uint(bits & 0xFFFFFFFFL);
+            case KIND_UINT16:
+                return ushort((int) (bits & 0xFFFF));
+            case KIND_UBYTE:
+                return ubyte(bits & 0xFF);
+            default:
+                throw new IllegalArgumentException("kind=" + kind);
+        }
+    }
+
+    private static long timeOf(DateTime dateTime) {
+        return dateTime != null ? dateTime.getUtcTime() : NULL_TIME;
+    }
+
+    private static DateTime dateTimeOf(long utcTime) {
+        return utcTime != NULL_TIME ? new DateTime(utcTime) : null;
+    }
+
+}
@@ -0,0 +1,176 @@
+/*
+ * digitalpetri OPC-UA SDK
+ *
+ * Copyright (C) 2015 Kevin Herron
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.digitalpetri.opcua.sdk.server.util;
+
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Optional;
+import java.util.function.Predicate;
+
+import com.digitalpetri.opcua.stack.core.ReferenceType;
+import com.digitalpetri.opcua.stack.core.types.builtin.NodeId;
+import com.google.common.collect.Maps;
+
+/**
+ * Answers whether one reference type is a subtype of another.
+ * <p>
+ * Each known reference type gets a dense ordinal, and the subtypes of each type are kept as a {@link BitSet} over
+ * those ordinals, so a subtype check is a map lookup and a bit test instead of a walk up the supertype chain. The
+ * closure is rebuilt on first use after a reference type is registered.
+ */
+public class ReferenceTypeHierarchy {
+
+    private final Map<NodeId, ReferenceType> referenceTypes = Maps.newConcurrentMap();
+
+    private volatile Closure closure;
+
+    /**
+     * Add {@code referenceType}, or replace the type already registered under its id.
+     *
+     * @param referenceType the {@link ReferenceType} to register.
+     */
+    public synchronized void register(ReferenceType referenceType) {
+        referenceTypes.put(referenceType.getNodeId(), referenceType);
+
+        closure = null;
+    }
+
+    /**
+     * @return a read-only view of the registered reference types.
+     */
+    public Map<NodeId, ReferenceType> getReferenceTypes() {
+        return Collections.unmodifiableMap(referenceTypes);
+    }
+
+    /**
+     * @param typeId      the reference type to check.
+     * @param superTypeId the possible supertype.
+     * @return {@code true} if {@code typeId} is a strict subtype of {@code superTypeId}.
+     */
+    public boolean isSubtypeOf(NodeId typeId, NodeId superTypeId) {
+        Closure closure = closure();
+
+        Integer type = closure.ordinals.get(typeId);
+        Integer superType = closure.ordinals.get(superTypeId);
+
+        return type != null && superType != null && closure.subtypes[superType].get(type);
+    }
+
+    /**
+     * Build a filter for the reference types selected by a Browse or RelativePath element.
+     *
+     * @param referenceTypeId the requested reference type; a null id selects every type.
+     * @param includeSubtypes whether subtypes of {@code referenceTypeId} are selected too.
+     * @return a {@link Predicate} that tests a reference type id.
+     */
+    public Predicate<NodeId> filter(NodeId referenceTypeId, boolean includeSubtypes) {
+        if (referenceTypeId == null || referenceTypeId.isNull()) {
+            return typeId -> true;
+        }
+
+        if (!includeSubtypes) {
+            return referenceTypeId::equals;
+        }
+
+        Closure closure = closure();
+        Integer superType = closure.ordinals.get(referenceTypeId);
+
+        if (superType == null) {
+            return referenceTypeId::equals;
+        }
+
+        BitSet subtypes = closure.subtypes[superType];
+
+        return typeId -> {
+            if (referenceTypeId.equals(typeId)) return true;
+
+            Integer type = closure.ordinals.get(typeId);
+
+            return type != null && subtypes.get(type);
+        };
+    }
+
+    private Closure closure() {
+        Closure closure = this.closure;
+
+        if (closure == null) {
+            synchronized (this) {
+                closure = this.closure;
+
+                if (closure == null) {
+                    closure = build();
+                    this.closure = closure;
+                }
+            }
+        }
+
+        return closure;
+    }
+
+    private Closure build() {
+        // supertypes that were never registered themselves still get an ordinal.
+        Map<NodeId, ReferenceType> types = Maps.newLinkedHashMap();
+        for (ReferenceType type : referenceTypes.values()) {
+            Optional<? extends ReferenceType> next = Optional.of(type);
+
+            while (next.isPresent() && types.putIfAbsent(next.get().getNodeId(), next.get()) == null) {
+                next = next.get().getSuperType();
+            }
+        }
+
+        Map<NodeId, Integer> ordinals = Maps.newHashMapWithExpectedSize(types.size());
+        for (NodeId typeId : types.keySet()) {
+            ordinals.put(typeId, ordinals.size());
+        }
+
+        BitSet[] subtypes = new BitSet[ordinals.size()];
+        for (int i = 0; i < subtypes.length; i++) {
+            subtypes[i] = new BitSet(subtypes.length);
+        }
+
+        for (ReferenceType type : types.values()) {
+            int ordinal = ordinals.get(type.getNodeId());
+
+            // the hop limit guards against a cycle in a misconfigured hierarchy.
+            Optional<? extends ReferenceType> superType = type.getSuperType();
+            for (int hops = 0; superType.isPresent() && hops < subtypes.length; hops++) {
+                subtypes[ordinals.get(superType.get().getNodeId())].set(ordinal);
+
+                superType = superType.get().getSuperType();
+            }
+        }
+
+        return new Closure(ordinals, subtypes);
+    }
+
+    private static final class Closure {
+
+        final Map<NodeId, Integer> ordinals;
+        final BitSet[] subtypes;
+
+        Closure(Map<NodeId, Integer> ordinals, BitSet[] subtypes) {
+            this.ordinals = ordinals;
+            this.subtypes = subtypes;
+        }
+
+    }
+
+}
@@ -16,7 +16,6 @@
  * You should have received a copy of the GNU Affero General Public License
  * along with this program.  If not, see <http://www.gnu.org/licenses/>.
  */
-
 package com.digitalpetri.opcua.sdk.server.util;
 
 import java.math.RoundingMode;
@@ -24,13 +23,21 @@ import java.util.Collections;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
 import java.util.Set;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Predicate;
 import java.util.stream.Collectors;
 
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.ExponentiallyDecayingReservoir;
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.RatioGauge;
 import com.digitalpetri.opcua.sdk.core.AttributeIds;
 import com.digitalpetri.opcua.sdk.server.DiagnosticsContext;
 import com.digitalpetri.opcua.sdk.server.OpcUaServer;
@@ -38,19 +45,59 @@ import com.digitalpetri.opcua.sdk.server.api.AttributeManager;
 import com.digitalpetri.opcua.sdk.server.api.AttributeManager.ReadContext;
 import com.digitalpetri.opcua.sdk.server.api.DataItem;
 import com.digitalpetri.opcua.sdk.server.api.MonitoredItem;
+import com.digitalpetri.opcua.sdk.server.model.AttributeObserver;
+import com.digitalpetri.opcua.sdk.server.model.UaNode;
+import com.digitalpetri.opcua.sdk.server.model.UaVariableNode;
 import com.digitalpetri.opcua.stack.core.types.builtin.DataValue;
+import com.digitalpetri.opcua.stack.core.types.builtin.NodeId;
+import com.digitalpetri.opcua.stack.core.types.builtin.QualifiedName;
 import com.digitalpetri.opcua.stack.core.types.enumerated.TimestampsToReturn;
 import com.digitalpetri.opcua.stack.core.types.structured.ReadValueId;
 import com.digitalpetri.opcua.stack.core.util.ExecutionQueue;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 import com.google.common.math.DoubleMath;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 public class SubscriptionModel {
 
-    private final Set<DataItem> itemSet = Collections.newSetFromMap(Maps.newConcurrentMap());
+    private final Logger logger = LoggerFactory.getLogger(getClass());
+
+    /**
+     * The group each sampled item belongs to. Only accessed from {@link #executionQueue}.
+     */
+    private final Map<DataItem, SamplingGroup> groupsByItem = Maps.newHashMap();
+
+    /**
+     * Sampling groups by sampling interval, in milliseconds. Only accessed from {@link #executionQueue}.
+     */
+    private final Map<Long, SamplingGroup> groups = Maps.newHashMap();
+
+    /**
+     * Pushed items and the nodes they observe. Only accessed from {@link #executionQueue}.
+     */
+    private final Map<DataItem, PushedItem> pushedItems = Maps.newHashMap();
+    private final Map<NodeId, PushedSource> pushedSources = Maps.newHashMap();
+
+    private volatile Predicate<UaVariableNode> pushPredicate = node -> false;
 
-    private final List<ScheduledUpdate> schedule = Lists.newCopyOnWriteArrayList();
+    private final Histogram fanOut = new Histogram(new ExponentiallyDecayingReservoir());
+
+    private final AtomicInteger sampledItemCount = new AtomicInteger(0);
+    private final AtomicInteger sampledSourceCount = new AtomicInteger(0);
+
+    /**
+     * Overrun counts by sampling interval; kept after a group is dropped so the counts survive item churn.
+     */
+    private final Map<Long, Counter> overruns = Maps.newConcurrentMap();
+
+    private final RatioGauge dedupeRatio = new RatioGauge() {
+        @Override
+        protected Ratio getRatio() {
+            return Ratio.of(sampledItemCount.get(), sampledSourceCount.get());
+        }
+    };
 
     private final ExecutorService executor;
     private final ScheduledExecutorService scheduler;
@@ -58,11 +105,17 @@ public class SubscriptionModel {
 
     private final OpcUaServer server;
     private final AttributeManager attributeServices;
+    private final SamplingMode samplingMode;
 
     public SubscriptionModel(OpcUaServer server, AttributeManager attributeServices) {
+        this(server, attributeServices, SamplingMode.FixedRate);
+    }
+
+    public SubscriptionModel(OpcUaServer server, AttributeManager attributeServices, SamplingMode samplingMode) {
         this.server = server;
 
         this.attributeServices = attributeServices;
+        this.samplingMode = samplingMode;
 
         executor = server.getExecutorService();
         scheduler = server.getScheduledExecutorService();
@@ -71,68 +124,256 @@ public class SubscriptionModel {
     }
 
     public void onDataItemsCreated(List<DataItem> items) {
-        executionQueue.submit(() -> {
-            itemSet.addAll(items);
-            reschedule();
-        });
+        executionQueue.submit(() -> items.forEach(this::update));
     }
 
     public void onDataItemsModified(List<DataItem> items) {
-        executionQueue.submit(this::reschedule);
+        executionQueue.submit(() -> items.forEach(this::update));
     }
 
     public void onDataItemsDeleted(List<DataItem> items) {
-        executionQueue.submit(() -> {
-            itemSet.removeAll(items);
-            reschedule();
-        });
+        executionQueue.submit(() -> items.forEach(this::remove));
     }
 
     public void onMonitoringModeChanged(List<MonitoredItem> items) {
-        executionQueue.submit(this::reschedule);
+        executionQueue.submit(() -> items.stream()
+                .filter(item -> item instanceof DataItem)
+                .map(item -> (DataItem) item)
+                .forEach(this::update));
+    }
+
+    /**
+     * @return a {@link Histogram} of the number of {@link DataItem}s sampled by each distinct read, updated whenever a
+     * read gains or loses an item.
+     */
+    public Histogram getFanOut() {
+        return fanOut;
+    }
+
+    /**
+     * @return the ratio of sampled {@link DataItem}s to the distinct reads made to sample them.
+     */
+    public RatioGauge getDedupeRatio() {
+        return dedupeRatio;
+    }
+
+    /**
+     * Select the {@link UaVariableNode}s whose Value attribute is pushed to {@link DataItem}s instead of being sampled.
+     * <p>
+     * A pushed item gets the node's value when it is created and whenever {@link UaVariableNode#setValue(DataValue)}
+     * is called, rate-limited to the item's sampling interval. Only select nodes whose value changes exclusively
+     * through {@code setValue}; nodes that compute their value on read must continue to be sampled. Applies to items
+     * created or modified after this call.
+     *
+     * @param pushPredicate a {@link Predicate} that selects the nodes to push values from.
+     */
+    public void setPushPredicate(Predicate<UaVariableNode> pushPredicate) {
+        this.pushPredicate = pushPredicate;
+    }
+
+    /**
+     * Get the number of sampling ticks skipped because the previous read of a group had not completed in time, by
+     * sampling interval in milliseconds. Only counted in {@link SamplingMode#FixedRate}.
+     * <p>
+     * Overruns are also added to the server-wide counts in {@link OpcUaServer#getSamplingOverruns()}.
+     *
+     * @return an unmodifiable view of the overrun {@link Counter}s by sampling interval.
+     */
+    public Map<Long, Counter> getOverrunCounts() {
+        return Collections.unmodifiableMap(overruns);
+    }
+
+    /**
+     * Move {@code item} to a push source or into the group for its current sampling interval, or out of sampling
+     * altogether if sampling is disabled. Other groups and their timers are left undisturbed.
+     */
+    private void update(DataItem item) {
+        if (!item.isSamplingEnabled()) {
+            remove(item);
+            return;
+        }
+
+        UaVariableNode pushNode = getPushNode(item);
+
+        if (pushNode != null) {
+            if (pushedItems.containsKey(item)) return;
+
+            remove(item);
+
+            PushedSource source = pushedSources.computeIfAbsent(pushNode.getNodeId(), nodeId -> {
+                PushedSource s = new PushedSource(pushNode);
+                pushNode.addAttributeObserver(s);
+                return s;
+            });
+
+            PushedItem pushedItem = new PushedItem(item, source);
+            source.items.add(pushedItem);
+            pushedItems.put(item, pushedItem);
+
+            pushedItem.onValue(pushNode.getValue());
+        } else {
+            long samplingInterval = DoubleMath.roundToLong(item.getSamplingInterval(), RoundingMode.UP);
+
+            SamplingGroup current = groupsByItem.get(item);
+
+            if (current != null && current.samplingInterval == samplingInterval) return;
+
+            remove(item);
+
+            SamplingGroup group = groups.computeIfAbsent(samplingInterval, SamplingGroup::new);
+
+            if (group.isEmpty()) group.start();
+
+            group.add(item);
+            groupsByItem.put(item, group);
+        }
     }
 
-    private void reschedule() {
-        Map<Double, List<DataItem>> bySamplingInterval = itemSet.stream()
-                .filter(DataItem::isSamplingEnabled)
-                .collect(Collectors.groupingBy(DataItem::getSamplingInterval));
+    private void remove(DataItem item) {
+        SamplingGroup group = groupsByItem.remove(item);
 
-        List<ScheduledUpdate> updates = bySamplingInterval.keySet().stream().map(samplingInterval -> {
-            List<DataItem> items = bySamplingInterval.get(samplingInterval);
+        if (group != null) {
+            group.remove(item);
 
-            return new ScheduledUpdate(samplingInterval, items);
-        }).collect(Collectors.toList());
+            if (group.isEmpty()) {
+                group.cancel();
+                groups.remove(group.samplingInterval, group);
+            }
+        }
+
+        PushedItem pushedItem = pushedItems.remove(item);
+
+        if (pushedItem != null) {
+            pushedItem.cancel();
+
+            PushedSource source = pushedItem.source;
+            source.items.remove(pushedItem);
+
+            if (source.items.isEmpty()) {
+                source.node.removeAttributeObserver(source);
+                pushedSources.remove(source.node.getNodeId(), source);
+            }
+        }
+    }
+
+    /**
+     * @return the {@link UaVariableNode} to push values to {@code item} from, or {@code null} if it must be sampled.
+     */
+    private UaVariableNode getPushNode(DataItem item) {
+        ReadValueId readValueId = item.getReadValueId();
+
+        if (readValueId.getAttributeId().intValue() != AttributeIds.Value) return null;
+        if (readValueId.getIndexRange() != null && !readValueId.getIndexRange().isEmpty()) return null;
 
-        schedule.forEach(ScheduledUpdate::cancel);
-        schedule.clear();
-        schedule.addAll(updates);
-        schedule.forEach(scheduler::execute);
+        QualifiedName dataEncoding = readValueId.getDataEncoding();
+        if (dataEncoding != null && dataEncoding.getName() != null && !dataEncoding.getName().isEmpty()) return null;
+
+        UaNode node = server.getNodeManager().get(readValueId.getNodeId());
+
+        if (node instanceof UaVariableNode && pushPredicate.test((UaVariableNode) node)) {
+            return (UaVariableNode) node;
+        } else {
+            return null;
+        }
     }
 
-    private class ScheduledUpdate implements Runnable {
+    private static DataValue derive(DataItem item, DataValue value) {
+        TimestampsToReturn timestamps = item.getTimestampsToReturn();
+
+        if (timestamps != null) {
+            return (item.getReadValueId().getAttributeId().intValue() == AttributeIds.Value) ?
+                    DataValue.derivedValue(value, timestamps) :
+                    DataValue.derivedNonValue(value, timestamps);
+        } else {
+            return value;
+        }
+    }
+
+    private class SamplingGroup implements Runnable {
 
         private volatile boolean cancelled = false;
+        private volatile ScheduledFuture<?> nextUpdate;
+
+        /**
+         * The distinct sources to read, each with the items its value is fanned out to.
+         */
+        private final Map<SourceKey, SampledSource> sources = Maps.newConcurrentMap();
 
         private final long samplingInterval;
-        private final List<DataItem> items;
+        private final long intervalNanos;
+        private final Counter overrunCount;
+        private final Counter serverOverrunCount;
+
+        /**
+         * The start of the fixed-rate timeline and the index of the tick currently being sampled.
+         */
+        private volatile long startNanos;
+        private volatile long tick;
+
+        private SamplingGroup(long samplingInterval) {
+            this.samplingInterval = samplingInterval;
+            this.intervalNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(samplingInterval, 1L));
+            this.overrunCount = overruns.computeIfAbsent(samplingInterval, k -> new Counter());
+            this.serverOverrunCount = server.getSamplingOverruns()
+                    .computeIfAbsent(samplingInterval, k -> new Counter());
+        }
 
-        private ScheduledUpdate(double samplingInterval, List<DataItem> items) {
-            this.samplingInterval = DoubleMath.roundToLong(samplingInterval, RoundingMode.UP);
-            this.items = items;
+        private void add(DataItem item) {
+            SampledSource source = sources.computeIfAbsent(
+                    new SourceKey(item.getReadValueId()),
+                    key -> {
+                        sampledSourceCount.incrementAndGet();
+                        return new SampledSource(key.getReadValueId());
+                    });
+
+            source.items.add(item);
+
+            sampledItemCount.incrementAndGet();
+            fanOut.update(source.items.size());
+        }
+
+        private void remove(DataItem item) {
+            SourceKey key = new SourceKey(item.getReadValueId());
+            SampledSource source = sources.get(key);
+
+            if (source != null && source.items.remove(item)) {
+                sampledItemCount.decrementAndGet();
+
+                if (source.items.isEmpty()) {
+                    sources.remove(key);
+                    sampledSourceCount.decrementAndGet();
+                } else {
+                    fanOut.update(source.items.size());
+                }
+            }
+        }
+
+        private boolean isEmpty() {
+            return sources.isEmpty();
+        }
+
+        private void start() {
+            startNanos = System.nanoTime();
+            tick = 0L;
+
+            scheduler.execute(this);
         }
 
         private void cancel() {
             cancelled = true;
+
+            ScheduledFuture<?> next = nextUpdate;
+            if (next != null) next.cancel(false);
         }
 
         @Override
         public void run() {
-            List<PendingRead> pending = items.stream()
-                    .map(item -> new PendingRead(item.getReadValueId()))
-                    .collect(Collectors.toList());
+            if (cancelled) return;
 
-            List<ReadValueId> ids = pending.stream()
-                    .map(PendingRead::getInput)
+            List<SampledSource> sampled = Lists.newArrayList(sources.values());
+
+            List<ReadValueId> ids = sampled.stream()
+                    .map(source -> source.readValueId)
                     .collect(Collectors.toList());
 
             CompletableFuture<List<DataValue>> future = new CompletableFuture<>();
@@ -140,31 +381,233 @@ public class SubscriptionModel {
             ReadContext context = new ReadContext(
                     server, null, future, new DiagnosticsContext<>());
 
-            future.thenAcceptAsync(values -> {
-                Iterator<DataItem> ii = items.iterator();
-                Iterator<DataValue> vi = values.iterator();
+            future.whenCompleteAsync((values, ex) -> {
+                // a group cancelled while its read was in flight drops the result and stops.
+                if (cancelled) return;
 
-                while (ii.hasNext() && vi.hasNext()) {
-                    DataItem item = ii.next();
-                    DataValue value = vi.next();
+                // the next tick is scheduled whatever happens to this one; nothing else restarts a running group.
+                try {
+                    if (values != null) {
+                        deliver(sampled, values);
+                    } else {
+                        logger.warn("Sampling read failed for samplingInterval={}ms.", samplingInterval, ex);
+                    }
+                } finally {
+                    if (!cancelled) scheduleNext();
+                }
+            }, executor);
 
-                    TimestampsToReturn timestamps = item.getTimestampsToReturn();
+            executor.execute(() -> {
+                try {
+                    attributeServices.read(context, 0d, TimestampsToReturn.Both, ids);
+                } catch (Throwable t) {
+                    future.completeExceptionally(t);
+                }
+            });
+        }
+
+        private void deliver(List<SampledSource> sampled, List<DataValue> values) {
+            Iterator<SampledSource> si = sampled.iterator();
+            Iterator<DataValue> vi = values.iterator();
 
-                    if (timestamps != null) {
-                        value = (item.getReadValueId().getAttributeId().intValue() == AttributeIds.Value) ?
-                                DataValue.derivedValue(value, timestamps) :
-                                DataValue.derivedNonValue(value, timestamps);
+            while (si.hasNext() && vi.hasNext()) {
+                SampledSource source = si.next();
+                DataValue value = vi.next();
+
+                for (DataItem item : source.items) {
+                    try {
+                        item.setValue(derive(item, value));
+                    } catch (Throwable t) {
+                        logger.error("Uncaught Throwable setting sampled value on item id={}.", item.getId(), t);
                     }
+                }
+            }
+        }
 
-                    item.setValue(value);
+        private void scheduleNext() {
+            if (samplingMode == SamplingMode.FixedDelay) {
+                nextUpdate = scheduler.schedule(this, samplingInterval, TimeUnit.MILLISECONDS);
+            } else {
+                long now = System.nanoTime();
+                long nextTick = Math.max((now - startNanos) / intervalNanos + 1, tick + 1);
+                long missed = nextTick - tick - 1;
+
+                if (missed > 0) {
+                    overrunCount.inc(missed);
+                    serverOverrunCount.inc(missed);
                 }
 
-                if (!cancelled) {
-                    scheduler.schedule(this, samplingInterval, TimeUnit.MILLISECONDS);
+                tick = nextTick;
+
+                long delay = Math.max(startNanos + nextTick * intervalNanos - now, 0L);
+
+                nextUpdate = scheduler.schedule(this, delay, TimeUnit.NANOSECONDS);
+            }
+        }
+
+    }
+
+    public enum SamplingMode {
+
+        /**
+         * Each read starts one sampling interval after the previous read completed, so the effective period is the
+         * sampling interval plus the read latency.
+         */
+        FixedDelay,
+
+        /**
+         * Reads are aligned to a fixed-rate timeline; ticks that pass while a read is still in flight are skipped and
+         * counted as overruns rather than queued.
+         */
+        FixedRate
+
+    }
+
+    /**
+     * Observes the Value attribute of a {@link UaVariableNode} on behalf of the items pushed from it.
+     */
+    private static final class PushedSource implements AttributeObserver {
+
+        private final Set<PushedItem> items = Collections.newSetFromMap(Maps.newConcurrentMap());
+
+        private final UaVariableNode node;
+
+        private PushedSource(UaVariableNode node) {
+            this.node = node;
+        }
+
+        @Override
+        public void attributeChanged(UaNode node, int attributeId, Object value) {
+            if (attributeId == AttributeIds.Value && value instanceof DataValue) {
+                for (PushedItem item : items) {
+                    item.onValue((DataValue) value);
                 }
-            }, executor);
+            }
+        }
+
+    }
+
+    /**
+     * Delivers pushed values to a {@link DataItem}, at most once per sampling interval. A value that arrives too soon
+     * is held, replacing any value already held, and delivered when the interval has elapsed.
+     */
+    private class PushedItem {
+
+        private boolean cancelled = false;
+        private boolean delivered = false;
+        private long lastDelivery;
+
+        private DataValue pending;
+        private ScheduledFuture<?> pendingDelivery;
+
+        private final DataItem item;
+        private final PushedSource source;
+
+        private PushedItem(DataItem item, PushedSource source) {
+            this.item = item;
+            this.source = source;
+        }
+
+        private synchronized void onValue(DataValue value) {
+            if (cancelled) return;
+
+            if (pendingDelivery != null) {
+                pending = value;
+                return;
+            }
+
+            long now = System.nanoTime();
+            long intervalNanos = TimeUnit.MILLISECONDS.toNanos(
+                    DoubleMath.roundToLong(item.getSamplingInterval(), RoundingMode.UP));
 
-            executor.execute(() -> attributeServices.read(context, 0d, TimestampsToReturn.Both, ids));
+            long wait = delivered ? lastDelivery + intervalNanos - now : 0L;
+
+            if (wait <= 0L) {
+                deliver(value, now);
+            } else {
+                pending = value;
+                pendingDelivery = scheduler.schedule(
+                        () -> executor.execute(this::deliverPending), wait, TimeUnit.NANOSECONDS);
+            }
+        }
+
+        private synchronized void deliverPending() {
+            DataValue value = pending;
+
+            pending = null;
+            pendingDelivery = null;
+
+            if (!cancelled && value != null) {
+                deliver(value, System.nanoTime());
+            }
+        }
+
+        private void deliver(DataValue value, long now) {
+            delivered = true;
+            lastDelivery = now;
+
+            item.setValue(derive(item, value));
+        }
+
+        private synchronized void cancel() {
+            cancelled = true;
+            pending = null;
+
+            if (pendingDelivery != null) {
+                pendingDelivery.cancel(false);
+                pendingDelivery = null;
+            }
+        }
+
+    }
+
+    private static final class SampledSource {
+
+        private final Set<DataItem> items = Collections.newSetFromMap(Maps.newConcurrentMap());
+
+        private final ReadValueId readValueId;
+
+        private SampledSource(ReadValueId readValueId) {
+            this.readValueId = readValueId;
+        }
+
+    }
+
+    /**
+     * Identifies a distinct read: items whose ReadValueIds agree on all of these fields get the same value.
+     */
+    private static final class SourceKey {
+
+        private final ReadValueId readValueId;
+
+        private SourceKey(ReadValueId readValueId) {
+            this.readValueId = readValueId;
+        }
+
+        private ReadValueId getReadValueId() {
+            return readValueId;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+
+            ReadValueId other = ((SourceKey) o).readValueId;
+
+            return Objects.equals(readValueId.getNodeId(), other.getNodeId()) &&
+                    Objects.equals(readValueId.getAttributeId(), other.getAttributeId()) &&
+                    Objects.equals(readValueId.getIndexRange(), other.getIndexRange()) &&
+                    Objects.equals(readValueId.getDataEncoding(), other.getDataEncoding());
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(
+                    readValueId.getNodeId(),
+                    readValueId.getAttributeId(),
+                    readValueId.getIndexRange(),
+                    readValueId.getDataEncoding());
         }
 
     }
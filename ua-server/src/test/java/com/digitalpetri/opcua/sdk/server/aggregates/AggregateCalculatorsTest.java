@@ -0,0 +1,150 @@
+/*
+ * digitalpetri OPC-UA SDK
+ *
+ * Copyright (C) 2015 Kevin Herron
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.digitalpetri.opcua.sdk.server.aggregates;
+
+import com.digitalpetri.opcua.stack.core.Identifiers;
+import com.digitalpetri.opcua.stack.core.StatusCodes;
+import com.digitalpetri.opcua.stack.core.UaException;
+import com.digitalpetri.opcua.stack.core.types.builtin.DataValue;
+import com.digitalpetri.opcua.stack.core.types.builtin.NodeId;
+import org.testng.annotations.Test;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
+
+public class AggregateCalculatorsTest {
+
+    @Test
+    public void testAverage() throws UaException {
+        AggregateCalculator calculator = AggregateCalculators.create(Identifiers.AggregateFunction_Average);
+
+        calculator.add(0, 1.0);
+        calculator.add(1, 2.0);
+        calculator.add(2, 6.0);
+
+        assertGood(calculator.compute(0, 10), 3.0);
+        assertNoData(calculator.compute(10, 20));
+    }
+
+    @Test
+    public void testMinimum() throws UaException {
+        AggregateCalculator calculator = AggregateCalculators.create(Identifiers.AggregateFunction_Minimum);
+
+        calculator.add(0, 5.0);
+        calculator.add(1, -2.0);
+        calculator.add(2, 3.0);
+
+        assertGood(calculator.compute(0, 10), -2.0);
+        assertNoData(calculator.compute(10, 20));
+
+        calculator.add(20, 7.0);
+        assertGood(calculator.compute(20, 30), 7.0);
+    }
+
+    @Test
+    public void testMaximum() throws UaException {
+        AggregateCalculator calculator = AggregateCalculators.create(Identifiers.AggregateFunction_Maximum);
+
+        calculator.add(0, -5.0);
+        calculator.add(1, -2.0);
+        calculator.add(2, -3.0);
+
+        assertGood(calculator.compute(0, 10), -2.0);
+        assertNoData(calculator.compute(10, 20));
+
+        calculator.add(20, -7.0);
+        assertGood(calculator.compute(20, 30), -7.0);
+    }
+
+    @Test
+    public void testCount() throws UaException {
+        AggregateCalculator calculator = AggregateCalculators.create(Identifiers.AggregateFunction_Count);
+
+        calculator.add(0, 1.0);
+        calculator.add(1, 1.0);
+        calculator.add(2, 1.0);
+
+        assertGood(calculator.compute(0, 10), 3);
+        assertGood(calculator.compute(10, 20), 0);
+    }
+
+    @Test
+    public void testTimeAverage() throws UaException {
+        AggregateCalculator calculator = AggregateCalculators.create(Identifiers.AggregateFunction_TimeAverage);
+
+        assertNoData(calculator.compute(-10, 0));
+
+        // ramp from 0 to 10 over [0, 5), then 10 held until the end: (25 + 50) / 10.
+        calculator.add(0, 0.0);
+        calculator.add(5, 10.0);
+        assertGood(calculator.compute(0, 10), 7.5);
+
+        // the start bound is interpolated to 15 at t=10: (87.5 + 100) / 10.
+        calculator.add(15, 20.0);
+        assertGood(calculator.compute(10, 20), 18.75);
+
+        // no samples; the last value holds.
+        assertGood(calculator.compute(20, 30), 20.0);
+    }
+
+    @Test
+    public void testInterpolative() throws UaException {
+        AggregateCalculator calculator = AggregateCalculators.create(Identifiers.AggregateFunction_Interpolative);
+
+        assertNoData(calculator.compute(-10, 0));
+
+        calculator.add(0, 5.0);
+        assertGood(calculator.compute(0, 10), 5.0);
+
+        // interpolated between (0, 5) and (12, 9) at t=10.
+        calculator.add(12, 9.0);
+        calculator.add(15, 1.0);
+        assertGood(calculator.compute(10, 20), 5.0 + 4.0 * 10.0 / 12.0);
+
+        // no samples; the last value holds.
+        assertGood(calculator.compute(20, 30), 1.0);
+    }
+
+    @Test
+    public void testUnsupportedAggregate() {
+        try {
+            AggregateCalculators.create(new NodeId(0, 12345));
+            fail("expected Bad_AggregateNotSupported");
+        } catch (UaException e) {
+            assertEquals(e.getStatusCode().getValue(), StatusCodes.Bad_AggregateNotSupported);
+        }
+    }
+
+    private static void assertGood(DataValue value, double expected) {
+        assertTrue(value.getStatusCode().isGood());
+        assertEquals(((Number) value.getValue().getValue()).doubleValue(), expected, 1e-9);
+    }
+
+    private static void assertGood(DataValue value, int expected) {
+        assertTrue(value.getStatusCode().isGood());
+        assertEquals(value.getValue().getValue(), expected);
+    }
+
+    private static void assertNoData(DataValue value) {
+        assertEquals(value.getStatusCode().getValue(), StatusCodes.Bad_NoData);
+    }
+
+}
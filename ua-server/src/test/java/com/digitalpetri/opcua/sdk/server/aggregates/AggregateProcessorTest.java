@@ -0,0 +1,204 @@
+/*
+ * digitalpetri OPC-UA SDK
+ *
+ * Copyright (C) 2015 Kevin Herron
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.digitalpetri.opcua.sdk.server.aggregates;
+
+import java.util.Date;
+import java.util.List;
+
+import com.digitalpetri.opcua.stack.core.Identifiers;
+import com.digitalpetri.opcua.stack.core.StatusCodes;
+import com.digitalpetri.opcua.stack.core.UaException;
+import com.digitalpetri.opcua.stack.core.types.builtin.DataValue;
+import com.digitalpetri.opcua.stack.core.types.builtin.DateTime;
+import com.digitalpetri.opcua.stack.core.types.builtin.NodeId;
+import com.digitalpetri.opcua.stack.core.types.builtin.StatusCode;
+import com.digitalpetri.opcua.stack.core.types.builtin.Variant;
+import com.google.common.collect.Lists;
+import org.testng.annotations.Test;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+public class AggregateProcessorTest {
+
+    @Test
+    public void testIntervalsCloseWithoutSamples() throws UaException {
+        AggregateProcessor processor = processor(Identifiers.AggregateFunction_Count, 0L, 100L, 0L);
+        List<DataValue> output = Lists.newArrayList();
+
+        processor.add(sample(1.0, 10L), 10L, output::add);
+        assertTrue(output.isEmpty());
+
+        // no further samples, e.g. a pushed item whose value stopped changing; the clock alone closes intervals.
+        processor.advance(250L, output::add);
+
+        assertEquals(output.size(), 2);
+        assertInterval(output.get(0), 0L, 1);
+        assertInterval(output.get(1), 100L, 0);
+        assertEquals(processor.getIntervalEnd(), 300L);
+    }
+
+    @Test
+    public void testIntervalClosesAtItsEnd() throws UaException {
+        AggregateProcessor processor = processor(Identifiers.AggregateFunction_Count, 0L, 100L, 0L);
+        List<DataValue> output = Lists.newArrayList();
+
+        processor.advance(99L, output::add);
+        assertTrue(output.isEmpty());
+
+        processor.advance(100L, output::add);
+        assertEquals(output.size(), 1);
+    }
+
+    @Test
+    public void testStaleSampleCountsInCurrentInterval() throws UaException {
+        AggregateProcessor processor = processor(Identifiers.AggregateFunction_Count, 0L, 100L, 0L);
+        List<DataValue> output = Lists.newArrayList();
+
+        processor.advance(150L, output::add);
+
+        // a polled value that last changed in the previous interval.
+        processor.add(sample(1.0, 10L), 160L, output::add);
+        processor.add(sample(1.0, 10L), 170L, output::add);
+        processor.advance(200L, output::add);
+
+        assertEquals(output.size(), 2);
+        assertInterval(output.get(1), 100L, 2);
+    }
+
+    @Test
+    public void testStaleSampleHoldsFromIntervalStart() throws UaException {
+        AggregateProcessor processor = processor(Identifiers.AggregateFunction_TimeAverage, 0L, 100L, 150L);
+        List<DataValue> output = Lists.newArrayList();
+
+        processor.add(sample(4.0, -1000L), 150L, output::add);
+        processor.advance(200L, output::add);
+
+        assertEquals(output.size(), 1);
+        assertEquals(output.get(0).getSourceTime().getJavaTime(), 100L);
+        assertEquals((Double) output.get(0).getValue().getValue(), 4.0, 1e-9);
+    }
+
+    @Test
+    public void testFutureSampleClampedToNow() throws UaException {
+        AggregateProcessor processor = processor(Identifiers.AggregateFunction_TimeAverage, 0L, 100L, 0L);
+        List<DataValue> output = Lists.newArrayList();
+
+        // a source clock running ahead must neither close intervals early nor leave the interval.
+        processor.add(sample(0.0, 10000L), 50L, output::add);
+        processor.add(sample(10.0, 60L), 60L, output::add);
+        assertTrue(output.isEmpty());
+
+        processor.advance(100L, output::add);
+
+        // 0 ramping to 10 over [50, 60), then 10 held until 100: (50 + 400) / 50.
+        assertEquals(output.size(), 1);
+        assertEquals((Double) output.get(0).getValue().getValue(), 9.0, 1e-9);
+    }
+
+    @Test
+    public void testBadAndNonNumericSamplesIgnored() throws UaException {
+        AggregateProcessor processor = processor(Identifiers.AggregateFunction_Count, 0L, 100L, 0L);
+        List<DataValue> output = Lists.newArrayList();
+
+        processor.add(new DataValue(new Variant(1.0), new StatusCode(StatusCodes.Bad_NoData),
+                new DateTime(new Date(10L)), null), 10L, output::add);
+        processor.add(new DataValue(new Variant("x"), StatusCode.GOOD,
+                new DateTime(new Date(20L)), null), 20L, output::add);
+        processor.add(sample(true, 30L), 30L, output::add);
+
+        processor.advance(100L, output::add);
+
+        assertInterval(output.get(0), 0L, 1);
+    }
+
+    @Test
+    public void testSamplesBeforeStartTimeIgnored() throws UaException {
+        AggregateProcessor processor = processor(Identifiers.AggregateFunction_Count, 1000L, 100L, 0L);
+        List<DataValue> output = Lists.newArrayList();
+
+        processor.add(sample(1.0, 500L), 500L, output::add);
+        processor.advance(999L, output::add);
+        assertTrue(output.isEmpty());
+
+        processor.add(sample(1.0, 1050L), 1050L, output::add);
+        processor.advance(1100L, output::add);
+
+        assertEquals(output.size(), 1);
+        assertInterval(output.get(0), 1000L, 1);
+    }
+
+    @Test
+    public void testCatchUpIsBounded() throws UaException {
+        AggregateProcessor processor = processor(Identifiers.AggregateFunction_Count, 0L, 10L, 0L);
+        List<DataValue> output = Lists.newArrayList();
+
+        long now = 10L * (AggregateProcessor.MAX_CATCH_UP_INTERVALS + 50) + 5L;
+        processor.advance(now, output::add);
+
+        assertEquals(output.size(), AggregateProcessor.MAX_CATCH_UP_INTERVALS);
+        assertInterval(output.get(output.size() - 1), 10L * (AggregateProcessor.MAX_CATCH_UP_INTERVALS - 1), 0);
+
+        // skipped ahead to the interval containing now, still on the grid.
+        assertEquals(processor.getIntervalEnd(), now - 5L + 10L);
+
+        output.clear();
+        processor.advance(now, output::add);
+        assertTrue(output.isEmpty());
+    }
+
+    @Test
+    public void testCatchUpStartsCalculatorAtResumedInterval() throws UaException {
+        AggregateProcessor processor = processor(Identifiers.AggregateFunction_TimeAverage, 0L, 10L, 0L);
+        List<DataValue> output = Lists.newArrayList();
+
+        processor.add(sample(0.0, 5L), 5L, output::add);
+
+        long now = 10L * (AggregateProcessor.MAX_CATCH_UP_INTERVALS + 50) + 5L;
+        long resumedAt = now - 5L;
+
+        processor.advance(now, output::add);
+        output.clear();
+
+        // the skipped intervals must not be averaged into the interval processing resumed at.
+        processor.add(sample(100.0, resumedAt), now, output::add);
+        processor.advance(resumedAt + 10L, output::add);
+
+        assertEquals(output.size(), 1);
+        assertEquals(output.get(0).getSourceTime().getJavaTime(), resumedAt);
+        assertEquals((Double) output.get(0).getValue().getValue(), 100.0, 1e-9);
+    }
+
+    private static AggregateProcessor processor(NodeId type,
+                                                long start, long interval, long now) throws UaException {
+
+        return new AggregateProcessor(AggregateCalculators.create(type), start, interval, now);
+    }
+
+    private static DataValue sample(Object value, long sourceTime) {
+        return new DataValue(new Variant(value), StatusCode.GOOD, new DateTime(new Date(sourceTime)), null);
+    }
+
+    private static void assertInterval(DataValue value, long start, int count) {
+        assertEquals(value.getSourceTime().getJavaTime(), start);
+        assertEquals(value.getValue().getValue(), count);
+    }
+
+}
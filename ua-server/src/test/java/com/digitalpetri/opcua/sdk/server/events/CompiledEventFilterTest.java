@@ -0,0 +1,274 @@
+/*
+ * digitalpetri OPC-UA SDK
+ *
+ * Copyright (C) 2015 Kevin Herron
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.digitalpetri.opcua.sdk.server.events;
+
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.regex.Pattern;
+
+import com.digitalpetri.opcua.sdk.server.events.CompiledEventFilter.LikeOperand;
+import com.digitalpetri.opcua.sdk.core.AttributeIds;
+import com.digitalpetri.opcua.stack.core.Identifiers;
+import com.digitalpetri.opcua.stack.core.StatusCodes;
+import com.digitalpetri.opcua.stack.core.UaException;
+import com.digitalpetri.opcua.stack.core.types.builtin.ExtensionObject;
+import com.digitalpetri.opcua.stack.core.types.builtin.QualifiedName;
+import com.digitalpetri.opcua.stack.core.types.builtin.Variant;
+import com.digitalpetri.opcua.stack.core.types.enumerated.FilterOperator;
+import com.digitalpetri.opcua.stack.core.types.structured.ContentFilter;
+import com.digitalpetri.opcua.stack.core.types.structured.ContentFilterElement;
+import com.digitalpetri.opcua.stack.core.types.structured.ElementOperand;
+import com.digitalpetri.opcua.stack.core.types.structured.EventFilter;
+import com.digitalpetri.opcua.stack.core.types.structured.LiteralOperand;
+import com.digitalpetri.opcua.stack.core.types.structured.SimpleAttributeOperand;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+import static com.digitalpetri.opcua.stack.core.types.builtin.unsigned.Unsigned.uint;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNotNull;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.fail;
+
+public class CompiledEventFilterTest {
+
+    private static final SimpleAttributeOperand SOURCE_NAME = new SimpleAttributeOperand(
+            Identifiers.BaseEventType,
+            new QualifiedName[]{new QualifiedName(0, "SourceName")},
+            uint(AttributeIds.Value),
+            null);
+
+    @Test(dataProvider = "getLogicCases")
+    public void testThreeValuedLogic(FilterOperator operator, Boolean a, Boolean b, Boolean expected) throws UaException {
+        ContentFilterElement element = (b != null || operator != FilterOperator.Not) ?
+                element(operator, literal(a), literal(b)) :
+                element(operator, literal(a));
+
+        assertEquals(evaluate(element), expected);
+    }
+
+    @DataProvider
+    public Object[][] getLogicCases() {
+        return new Object[][]{
+                {FilterOperator.And, true, true, true},
+                {FilterOperator.And, true, false, false},
+                {FilterOperator.And, false, null, false},
+                {FilterOperator.And, null, false, false},
+                {FilterOperator.And, true, null, null},
+                {FilterOperator.And, null, null, null},
+                {FilterOperator.Or, false, false, false},
+                {FilterOperator.Or, true, null, true},
+                {FilterOperator.Or, null, true, true},
+                {FilterOperator.Or, false, null, null},
+                {FilterOperator.Or, null, null, null},
+                {FilterOperator.Not, true, null, false},
+                {FilterOperator.Not, false, null, true},
+                {FilterOperator.Not, null, null, null},
+                {FilterOperator.Equals, true, null, null},
+                {FilterOperator.Equals, true, true, true}
+        };
+    }
+
+    @Test
+    public void testNestedElementsPropagateNull() throws UaException {
+        // Or(And(true, NULL), Not(false)) is TRUE; And(And(true, NULL), true) is NULL.
+        ContentFilterElement[] or = {
+                element(FilterOperator.Or, elementOperand(1), elementOperand(2)),
+                element(FilterOperator.And, literal(true), literal(null)),
+                element(FilterOperator.Not, literal(false))
+        };
+
+        ContentFilterElement[] and = {
+                element(FilterOperator.And, elementOperand(1), literal(true)),
+                element(FilterOperator.And, literal(true), literal(null))
+        };
+
+        assertEquals(evaluate(or), Boolean.TRUE);
+        assertNull(evaluate(and));
+    }
+
+    @Test
+    public void testElementOperandMustReferToLaterElement() {
+        ContentFilterElement[] elements = {
+                element(FilterOperator.Not, elementOperand(0))
+        };
+
+        assertBadOperand(elements);
+    }
+
+    @Test(dataProvider = "getLikeCases")
+    public void testLikePattern(String pattern, String value, boolean expected) {
+        Pattern p = CompiledEventFilter.likePattern(pattern);
+
+        assertNotNull(p);
+        assertEquals(p.matcher(value).matches(), expected, pattern + " ~ " + value);
+    }
+
+    @DataProvider
+    public Object[][] getLikeCases() {
+        return new Object[][]{
+                {"abc", "abc", true},
+                {"abc", "abcd", false},
+                {"a%", "abcd", true},
+                {"%c%", "abcd", true},
+                {"a_c", "abc", true},
+                {"a_c", "ac", false},
+                {"[a-c]x", "bx", true},
+                {"[a-c]x", "dx", false},
+                {"[!a-c]x", "dx", true},
+                {"[^a-c]x", "ax", false},
+                {"\\%", "%", true},
+                {"\\%", "a", false},
+                {"a.c", "abc", false},
+                {"(a)+", "(a)+", true},
+                {"[", "[", true},
+                {"[]", "[]", true},
+                {"[&&]", "&", true},
+                {"a%", "a\nb", true}
+        };
+    }
+
+    @Test
+    public void testMalformedLikePattern() {
+        assertNull(CompiledEventFilter.likePattern("[!]"));
+        assertNull(CompiledEventFilter.likePattern("[^]"));
+        assertNull(CompiledEventFilter.likePattern("[z-a]"));
+    }
+
+    @Test
+    public void testMalformedLiteralLikePatternFailsCompile() {
+        ContentFilterElement[] elements = {
+                element(FilterOperator.Like, literal("abc"), literal("[!]"))
+        };
+
+        assertBadOperand(elements);
+    }
+
+    @Test
+    public void testDynamicLikePattern() {
+        AtomicReference<String> pattern = new AtomicReference<>("a%");
+        LikeOperand like = new LikeOperand(event -> "abc", event -> pattern.get());
+
+        assertEquals(like.evaluate(null), Boolean.TRUE);
+        assertEquals(like.evaluate(null), Boolean.TRUE);
+
+        pattern.set("b%");
+        assertEquals(like.evaluate(null), Boolean.FALSE);
+
+        pattern.set("[^]");
+        assertNull(like.evaluate(null));
+
+        pattern.set(null);
+        assertNull(like.evaluate(null));
+    }
+
+    @Test
+    public void testOfTypeWithNullLiteral() {
+        ContentFilterElement[] elements = {
+                element(FilterOperator.OfType, literal(null))
+        };
+
+        assertBadOperand(elements);
+    }
+
+    /**
+     * Evaluate a where clause through {@link CompiledEventFilter#matches}: TRUE passes the clause, FALSE passes it
+     * negated, and NULL passes neither. Both filters are released and must leave nothing registered.
+     */
+    private static Boolean evaluate(ContentFilterElement... elements) throws UaException {
+        EventFieldRegistry registry = new EventFieldRegistry(null);
+
+        CompiledEventFilter filter = compile(elements, registry);
+        CompiledEventFilter negated = compile(negate(elements), registry);
+
+        try {
+            boolean isTrue = filter.matches(null);
+            boolean isFalse = negated.matches(null);
+
+            assertFalse(isTrue && isFalse);
+
+            return isTrue ? Boolean.TRUE : isFalse ? Boolean.FALSE : null;
+        } finally {
+            filter.release();
+            negated.release();
+
+            assertEquals(registry.getFieldCount(), 0);
+        }
+    }
+
+    private static CompiledEventFilter compile(ContentFilterElement[] elements,
+                                               EventFieldRegistry registry) throws UaException {
+
+        EventFilter filter = new EventFilter(
+                new SimpleAttributeOperand[]{SOURCE_NAME},
+                new ContentFilter(elements));
+
+        return CompiledEventFilter.compile(filter, registry);
+    }
+
+    /**
+     * @return {@code elements} behind a leading Not element, with element operands shifted to match.
+     */
+    private static ContentFilterElement[] negate(ContentFilterElement[] elements) {
+        ContentFilterElement[] negated = new ContentFilterElement[elements.length + 1];
+        negated[0] = element(FilterOperator.Not, elementOperand(1));
+
+        for (int i = 0; i < elements.length; i++) {
+            ExtensionObject[] operands = elements[i].getFilterOperands().clone();
+
+            for (int j = 0; j < operands.length; j++) {
+                Object operand = operands[j].decode();
+
+                if (operand instanceof ElementOperand) {
+                    operands[j] = elementOperand(((ElementOperand) operand).getIndex().intValue() + 1);
+                }
+            }
+
+            negated[i + 1] = new ContentFilterElement(elements[i].getFilterOperator(), operands);
+        }
+
+        return negated;
+    }
+
+    private static void assertBadOperand(ContentFilterElement[] elements) {
+        EventFieldRegistry registry = new EventFieldRegistry(null);
+
+        try {
+            compile(elements, registry);
+            fail("expected Bad_FilterOperandInvalid");
+        } catch (UaException e) {
+            assertEquals(e.getStatusCode().getValue(), StatusCodes.Bad_FilterOperandInvalid);
+            assertEquals(registry.getFieldCount(), 0);
+        }
+    }
+
+    private static ContentFilterElement element(FilterOperator operator, ExtensionObject... operands) {
+        return new ContentFilterElement(operator, operands);
+    }
+
+    private static ExtensionObject literal(Object value) {
+        return ExtensionObject.encode(new LiteralOperand(value != null ? new Variant(value) : Variant.NULL_VALUE));
+    }
+
+    private static ExtensionObject elementOperand(int index) {
+        return ExtensionObject.encode(new ElementOperand(uint(index)));
+    }
+
+}
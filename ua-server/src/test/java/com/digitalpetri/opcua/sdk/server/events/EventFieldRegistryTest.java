@@ -0,0 +1,236 @@
+/*
+ * digitalpetri OPC-UA SDK
+ *
+ * Copyright (C) 2015 Kevin Herron
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.digitalpetri.opcua.sdk.server.events;
+
+import java.util.Optional;
+
+import com.digitalpetri.opcua.sdk.core.AttributeIds;
+import com.digitalpetri.opcua.stack.core.Identifiers;
+import com.digitalpetri.opcua.stack.core.UaException;
+import com.digitalpetri.opcua.stack.core.types.builtin.DataValue;
+import com.digitalpetri.opcua.stack.core.types.builtin.ExtensionObject;
+import com.digitalpetri.opcua.stack.core.types.builtin.QualifiedName;
+import com.digitalpetri.opcua.stack.core.types.builtin.Variant;
+import com.digitalpetri.opcua.stack.core.types.enumerated.FilterOperator;
+import com.digitalpetri.opcua.stack.core.types.structured.ContentFilter;
+import com.digitalpetri.opcua.stack.core.types.structured.ContentFilterElement;
+import com.digitalpetri.opcua.stack.core.types.structured.EventFilter;
+import com.digitalpetri.opcua.stack.core.types.structured.LiteralOperand;
+import com.digitalpetri.opcua.stack.core.types.structured.SimpleAttributeOperand;
+import org.testng.annotations.Test;
+
+import static com.digitalpetri.opcua.stack.core.types.builtin.unsigned.Unsigned.uint;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNotSame;
+import static org.testng.Assert.assertSame;
+import static org.testng.Assert.fail;
+
+public class EventFieldRegistryTest {
+
+    @Test
+    public void testIdenticalOperandsShareField() throws UaException {
+        EventFieldRegistry registry = new EventFieldRegistry(null);
+
+        EventField a = registry.compile(operand("A"));
+        EventField b = registry.compile(operand("A"));
+        EventField c = registry.compile(operand("C"));
+
+        assertSame(a, b);
+        assertNotSame(a, c);
+        assertEquals(registry.getFieldCount(), 2);
+    }
+
+    @Test
+    public void testFieldForgottenWhenLastReferenceReleased() throws UaException {
+        EventFieldRegistry registry = new EventFieldRegistry(null);
+
+        EventField a = registry.compile(operand("A"));
+        registry.compile(operand("A"));
+
+        registry.release(a);
+        assertEquals(registry.getFieldCount(), 1);
+
+        registry.release(a);
+        assertEquals(registry.getFieldCount(), 0);
+
+        // releasing a field that is no longer registered is a no-op.
+        registry.release(a);
+        assertEquals(registry.getFieldCount(), 0);
+
+        assertNotSame(registry.compile(operand("A")), a);
+    }
+
+    @Test
+    public void testReleasedSlotIsReused() throws UaException {
+        EventFieldRegistry registry = new EventFieldRegistry(null);
+
+        EventField a = registry.compile(operand("A"));
+        EventField b = registry.compile(operand("B"));
+
+        assertEquals(a.getSlot(), 0);
+        assertEquals(b.getSlot(), 1);
+
+        registry.release(a);
+
+        assertEquals(registry.compile(operand("C")).getSlot(), 0);
+        assertEquals(registry.compile(operand("D")).getSlot(), 2);
+    }
+
+    @Test
+    public void testSlotsAreNotExhaustedByChurn() throws UaException {
+        EventFieldRegistry registry = new EventFieldRegistry(null);
+
+        for (int i = 0; i < EventFieldRegistry.MAX_SHARED_FIELDS * 2; i++) {
+            EventField field = registry.compile(operand("F" + i));
+
+            assertEquals(field.getSlot(), 0);
+
+            registry.release(field);
+        }
+
+        assertEquals(registry.getFieldCount(), 0);
+    }
+
+    @Test
+    public void testSharedValueComputedOnce() throws UaException {
+        EventFieldRegistry registry = new EventFieldRegistry(null);
+        EventField a = registry.compile(operand("A"));
+
+        CountingEvent event = new CountingEvent();
+        EventFieldValues values = registry.newValues(event);
+
+        assertEquals(values.get(a), new Variant("A"));
+        assertEquals(values.get(a), new Variant("A"));
+        assertEquals(event.count, 1);
+
+        EventFieldValues unshared = new EventFieldValues(event);
+
+        unshared.get(a);
+        unshared.get(a);
+        assertEquals(event.count, 3);
+    }
+
+    @Test
+    public void testValuesGrowToHighestSlot() throws UaException {
+        EventFieldRegistry registry = new EventFieldRegistry(null);
+
+        EventField first = registry.compile(operand("F0"));
+        EventField last = first;
+
+        for (int i = 1; i < 100; i++) {
+            last = registry.compile(operand("F" + i));
+        }
+
+        CountingEvent event = new CountingEvent();
+        EventFieldValues values = registry.newValues(event);
+
+        assertEquals(values.get(first), new Variant("F0"));
+        assertEquals(values.get(last), new Variant("F99"));
+        assertEquals(values.get(first), new Variant("F0"));
+        assertEquals(values.get(last), new Variant("F99"));
+        assertEquals(event.count, 2);
+    }
+
+    @Test
+    public void testReusedSlotDoesNotShareStaleValue() throws UaException {
+        EventFieldRegistry registry = new EventFieldRegistry(null);
+        EventField a = registry.compile(operand("A"));
+
+        EventFieldValues values = registry.newValues(new CountingEvent());
+
+        assertEquals(values.get(a), new Variant("A"));
+
+        // an item is deleted and another created while the event is still being delivered.
+        registry.release(a);
+        EventField b = registry.compile(operand("B"));
+
+        assertEquals(b.getSlot(), a.getSlot());
+        assertEquals(values.get(b), new Variant("B"));
+    }
+
+    @Test
+    public void testFilterReleaseIsCounted() {
+        EventFieldRegistry registry = new EventFieldRegistry(null);
+
+        CompiledEventFilter f1 = CompiledEventFilter.defaultFilter(registry);
+        CompiledEventFilter f2 = CompiledEventFilter.defaultFilter(registry);
+
+        assertEquals(registry.getFieldCount(), 5);
+
+        f1.release();
+        f1.release();
+        assertEquals(registry.getFieldCount(), 5);
+
+        f2.release();
+        assertEquals(registry.getFieldCount(), 0);
+    }
+
+    @Test
+    public void testFailedCompileReleasesFields() {
+        EventFieldRegistry registry = new EventFieldRegistry(null);
+
+        ContentFilterElement like = new ContentFilterElement(
+                FilterOperator.Like,
+                new ExtensionObject[]{
+                        ExtensionObject.encode(operand("Message")),
+                        ExtensionObject.encode(new LiteralOperand(new Variant("[!]")))
+                });
+
+        EventFilter filter = new EventFilter(
+                new SimpleAttributeOperand[]{operand("SourceName")},
+                new ContentFilter(new ContentFilterElement[]{like}));
+
+        try {
+            CompiledEventFilter.compile(filter, registry);
+            fail("expected compile to fail");
+        } catch (UaException e) {
+            assertEquals(registry.getFieldCount(), 0);
+        }
+    }
+
+    private static SimpleAttributeOperand operand(String name) {
+        return new SimpleAttributeOperand(
+                Identifiers.BaseEventType,
+                new QualifiedName[]{new QualifiedName(1, name)},
+                uint(AttributeIds.Value),
+                null);
+    }
+
+    /**
+     * An event whose properties are named after themselves, counting how many times they are read.
+     */
+    private static class CountingEvent extends BaseEvent {
+
+        private int count = 0;
+
+        private CountingEvent() {
+            super(null, Identifiers.BaseEventType, null, null, null, null, Optional.empty(), null, null);
+        }
+
+        @Override
+        public DataValue getProperty(QualifiedName propertyName) {
+            count++;
+
+            return new DataValue(new Variant(propertyName.getName()));
+        }
+
+    }
+
+}
@@ -0,0 +1,115 @@
+/*
+ * digitalpetri OPC-UA SDK
+ *
+ * Copyright (C) 2015 Kevin Herron
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.digitalpetri.opcua.sdk.server.events;
+
+import java.util.Optional;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.digitalpetri.opcua.sdk.core.events.BaseEventType;
+import com.digitalpetri.opcua.stack.core.Identifiers;
+import org.testng.annotations.Test;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.fail;
+
+public class EventNotifierTest {
+
+    @Test(timeOut = 10000)
+    public void testRejectedDrainIsRetried() throws InterruptedException {
+        RejectingExecutor executor = new RejectingExecutor(1);
+        EventNotifier notifier = newNotifier(10, executor);
+
+        try {
+            notifier.post(event());
+            fail("expected RejectedExecutionException");
+        } catch (RejectedExecutionException expected) {
+            assertEquals(notifier.size(), 1);
+        }
+
+        notifier.post(event());
+
+        awaitEmpty(notifier);
+        executor.shutdown();
+    }
+
+    @Test(timeOut = 10000)
+    public void testFullQueueDoesNotBlockForeverAfterRejection() throws InterruptedException {
+        RejectingExecutor executor = new RejectingExecutor(1);
+        EventNotifier notifier = newNotifier(1, executor);
+
+        try {
+            notifier.offer(event());
+            fail("expected RejectedExecutionException");
+        } catch (RejectedExecutionException expected) {
+            assertEquals(notifier.size(), 1);
+        }
+
+        // the queue is full and nothing is draining it; waiting for room must submit the drain task again.
+        notifier.post(event());
+
+        awaitEmpty(notifier);
+        executor.shutdown();
+    }
+
+    private static EventNotifier newNotifier(int capacity, RejectingExecutor executor) {
+        EventRouter router = new EventRouter(null, new EventFieldRegistry(null), executor);
+
+        return new EventNotifier(capacity, router, executor);
+    }
+
+    private static void awaitEmpty(EventNotifier notifier) throws InterruptedException {
+        while (notifier.size() > 0) {
+            Thread.sleep(10);
+        }
+    }
+
+    private static BaseEventType event() {
+        return new BaseEvent(null, Identifiers.BaseEventType, null, null, null, null, Optional.empty(), null, null);
+    }
+
+    /**
+     * Rejects the first {@code rejections} tasks submitted to it.
+     */
+    private static class RejectingExecutor extends ThreadPoolExecutor {
+
+        private final AtomicInteger rejections;
+
+        private RejectingExecutor(int rejections) {
+            super(1, 1, 0L, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<>());
+
+            this.rejections = new AtomicInteger(rejections);
+        }
+
+        @Override
+        public void execute(Runnable command) {
+            if (rejections.getAndDecrement() > 0) {
+                throw new RejectedExecutionException();
+            }
+
+            super.execute(command);
+        }
+
+    }
+
+}
@@ -0,0 +1,136 @@
+/*
+ * digitalpetri OPC-UA SDK
+ *
+ * Copyright (C) 2015 Kevin Herron
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.digitalpetri.opcua.sdk.server.services.helpers;
+
+import com.codahale.metrics.Counter;
+import com.digitalpetri.opcua.sdk.server.services.helpers.BrowseHelper.BrowseContinuationPoint;
+import com.digitalpetri.opcua.stack.core.types.builtin.ByteString;
+import org.testng.annotations.Test;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertSame;
+import static org.testng.Assert.assertTrue;
+
+public class BrowseContinuationPointsTest {
+
+    private static final long NEVER = Long.MAX_VALUE;
+
+    @Test
+    public void testLimit() {
+        Counter memory = new Counter();
+        BrowseContinuationPoints continuationPoints = new BrowseContinuationPoints(2, NEVER, memory);
+
+        assertTrue(continuationPoints.put(continuationPoint(1, 100)));
+        assertTrue(continuationPoints.hasCapacity());
+        assertTrue(continuationPoints.put(continuationPoint(2, 200)));
+
+        assertFalse(continuationPoints.hasCapacity());
+        assertFalse(continuationPoints.put(continuationPoint(3, 400)));
+        assertEquals(continuationPoints.size(), 2);
+        assertEquals(memory.getCount(), 300);
+
+        // removing one makes room again.
+        assertEquals(continuationPoints.remove(id(1)).getEstimatedSize(), 100);
+        assertTrue(continuationPoints.hasCapacity());
+        assertTrue(continuationPoints.put(continuationPoint(3, 400)));
+        assertEquals(memory.getCount(), 600);
+    }
+
+    @Test
+    public void testRemove() {
+        Counter memory = new Counter();
+        BrowseContinuationPoints continuationPoints = new BrowseContinuationPoints(4, NEVER, memory);
+
+        BrowseContinuationPoint c = continuationPoint(1, 100);
+        continuationPoints.put(c);
+
+        assertNull(continuationPoints.remove(id(2)));
+        assertSame(continuationPoints.remove(id(1)), c);
+        assertNull(continuationPoints.remove(id(1)));
+
+        assertEquals(continuationPoints.size(), 0);
+        assertEquals(memory.getCount(), 0);
+    }
+
+    @Test
+    public void testPutReplacesSameIdentifier() {
+        Counter memory = new Counter();
+        BrowseContinuationPoints continuationPoints = new BrowseContinuationPoints(4, NEVER, memory);
+
+        continuationPoints.put(continuationPoint(1, 100));
+        continuationPoints.put(continuationPoint(1, 250));
+
+        assertEquals(continuationPoints.size(), 1);
+        assertEquals(memory.getCount(), 250);
+    }
+
+    @Test
+    public void testIdleExpiry() {
+        Counter memory = new Counter();
+        BrowseContinuationPoints continuationPoints = new BrowseContinuationPoints(1, 0L, memory);
+
+        // nothing expires until the store is used again.
+        assertTrue(continuationPoints.put(continuationPoint(1, 100)));
+        assertEquals(continuationPoints.size(), 1);
+        assertEquals(memory.getCount(), 100);
+
+        // the expired entry doesn't count against the limit, and its memory is released.
+        assertTrue(continuationPoints.put(continuationPoint(2, 200)));
+        assertEquals(continuationPoints.size(), 1);
+        assertEquals(memory.getCount(), 200);
+
+        assertNull(continuationPoints.remove(id(2)));
+        assertEquals(continuationPoints.size(), 0);
+        assertEquals(memory.getCount(), 0);
+    }
+
+    @Test
+    public void testClearReleasesMemory() {
+        Counter memory = new Counter();
+        BrowseContinuationPoints a = new BrowseContinuationPoints(4, NEVER, memory);
+        BrowseContinuationPoints b = new BrowseContinuationPoints(4, NEVER, memory);
+
+        a.put(continuationPoint(1, 100));
+        a.put(continuationPoint(2, 200));
+        b.put(continuationPoint(1, 400));
+        assertEquals(memory.getCount(), 700);
+
+        a.clear();
+        assertEquals(a.size(), 0);
+        assertEquals(memory.getCount(), 400);
+
+        b.clear();
+        assertEquals(memory.getCount(), 0);
+
+        a.clear();
+        assertEquals(memory.getCount(), 0);
+    }
+
+    private static ByteString id(int i) {
+        return new ByteString(new byte[]{(byte) i});
+    }
+
+    private static BrowseContinuationPoint continuationPoint(int i, long estimatedSize) {
+        return new BrowseContinuationPoint(null, null, id(i), estimatedSize);
+    }
+
+}
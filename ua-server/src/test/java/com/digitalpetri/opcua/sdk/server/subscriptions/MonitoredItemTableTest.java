@@ -0,0 +1,188 @@
+/*
+ * digitalpetri OPC-UA SDK
+ *
+ * Copyright (C) 2015 Kevin Herron
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.digitalpetri.opcua.sdk.server.subscriptions;
+
+import java.util.List;
+
+import com.google.common.collect.Lists;
+import org.testng.annotations.Test;
+
+import static com.digitalpetri.opcua.stack.core.types.builtin.unsigned.Unsigned.uint;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertSame;
+import static org.testng.Assert.assertTrue;
+
+public class MonitoredItemTableTest {
+
+    private static final long SLOT_MASK = (1L << MonitoredItemTable.SLOT_BITS) - 1;
+
+    @Test
+    public void testReserveAndPut() {
+        MonitoredItemTable table = new MonitoredItemTable();
+
+        long id = table.reserve();
+        assertTrue(id != 0);
+        assertNull(table.get(id));
+
+        TestMonitoredItem item = new TestMonitoredItem(id);
+        table.put(item);
+
+        assertSame(table.get(id), item);
+        assertSame(table.get(uint(id)), item);
+        assertEquals(table.size(), 1);
+        assertEquals(table.values(), Lists.newArrayList(item));
+    }
+
+    @Test
+    public void testRelease() {
+        MonitoredItemTable table = new MonitoredItemTable();
+
+        long id = table.reserve();
+        table.release(uint(id));
+
+        // a released id can't be used any more...
+        table.put(new TestMonitoredItem(id));
+        assertNull(table.get(id));
+        assertTrue(table.isEmpty());
+
+        // ...and its slot is handed out again under a new id.
+        long reused = table.reserve();
+        assertEquals(reused & SLOT_MASK, id & SLOT_MASK);
+        assertTrue(reused != id);
+    }
+
+    @Test
+    public void testReleaseDoesNotFreeOccupiedSlot() {
+        MonitoredItemTable table = new MonitoredItemTable();
+
+        long id = table.reserve();
+        TestMonitoredItem item = new TestMonitoredItem(id);
+        table.put(item);
+
+        table.release(uint(id));
+
+        assertSame(table.get(id), item);
+        assertTrue(table.reserve() != id);
+    }
+
+    @Test
+    public void testRemove() {
+        MonitoredItemTable table = new MonitoredItemTable();
+
+        TestMonitoredItem a = new TestMonitoredItem(table.reserve());
+        TestMonitoredItem b = new TestMonitoredItem(table.reserve());
+        table.put(a);
+        table.put(b);
+
+        assertTrue(table.remove(a));
+        assertFalse(table.remove(a));
+
+        assertNull(table.get(a.getId()));
+        assertSame(table.get(b.getId()), b);
+        assertEquals(table.size(), 1);
+        assertEquals(table.values(), Lists.newArrayList(b));
+    }
+
+    @Test
+    public void testStaleIdRejected() {
+        MonitoredItemTable table = new MonitoredItemTable();
+
+        TestMonitoredItem a = new TestMonitoredItem(table.reserve());
+        table.put(a);
+        table.remove(a);
+
+        TestMonitoredItem b = new TestMonitoredItem(table.reserve());
+        table.put(b);
+        assertEquals(b.getId().longValue() & SLOT_MASK, a.getId().longValue() & SLOT_MASK);
+
+        // the old id doesn't resolve to, release, or remove the item now in its slot.
+        assertNull(table.get(a.getId()));
+        table.release(a.getId());
+        assertFalse(table.remove(a));
+        assertFalse(table.remove(new TestMonitoredItem(a.getId().longValue())));
+
+        assertSame(table.get(b.getId()), b);
+    }
+
+    @Test
+    public void testFreedSlotsReusedOldestFirst() {
+        MonitoredItemTable table = new MonitoredItemTable();
+
+        List<TestMonitoredItem> items = Lists.newArrayList();
+        for (int i = 0; i < 4; i++) {
+            TestMonitoredItem item = new TestMonitoredItem(table.reserve());
+            table.put(item);
+            items.add(item);
+        }
+
+        table.remove(items.get(2));
+        table.remove(items.get(0));
+        table.remove(items.get(3));
+
+        assertEquals(table.reserve() & SLOT_MASK, items.get(2).getId().longValue() & SLOT_MASK);
+        assertEquals(table.reserve() & SLOT_MASK, items.get(0).getId().longValue() & SLOT_MASK);
+        assertEquals(table.reserve() & SLOT_MASK, items.get(3).getId().longValue() & SLOT_MASK);
+    }
+
+    @Test
+    public void testGenerationWrapBound() {
+        MonitoredItemTable table = new MonitoredItemTable();
+
+        long first = table.reserve();
+        table.release(uint(first));
+
+        // with one slot in play, the id comes around again only after MAX_GENERATION reuses.
+        for (int i = 1; i < MonitoredItemTable.MAX_GENERATION; i++) {
+            long id = table.reserve();
+
+            assertTrue(id != first, "reuse " + i);
+            assertTrue(id > 0 && id <= 0xFFFFFFFFL);
+
+            table.put(new TestMonitoredItem(id));
+            assertNull(table.get(first));
+
+            table.remove(table.get(id));
+        }
+
+        assertEquals(table.reserve(), first);
+    }
+
+    @Test
+    public void testGrowth() {
+        MonitoredItemTable table = new MonitoredItemTable();
+
+        List<TestMonitoredItem> items = Lists.newArrayList();
+        for (int i = 0; i < 100; i++) {
+            TestMonitoredItem item = new TestMonitoredItem(table.reserve());
+            table.put(item);
+            items.add(item);
+        }
+
+        assertEquals(table.size(), 100);
+        assertEquals(table.values(), items);
+
+        for (TestMonitoredItem item : items) {
+            assertSame(table.get(item.getId()), item);
+        }
+    }
+
+}
@@ -0,0 +1,74 @@
+/*
+ * digitalpetri OPC-UA SDK
+ *
+ * Copyright (C) 2015 Kevin Herron
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.digitalpetri.opcua.sdk.server.subscriptions;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.testng.annotations.Test;
+
+import static org.testng.Assert.assertTrue;
+
+public class PublishingSchedulerTest {
+
+    @Test(timeOut = 10000)
+    public void testTimersFire() throws InterruptedException {
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        PublishingScheduler scheduler = new PublishingScheduler(executor);
+        scheduler.startup();
+
+        try {
+            CountDownLatch fired = new CountDownLatch(2);
+
+            scheduler.schedule(fired::countDown, 0, TimeUnit.MILLISECONDS);
+            scheduler.schedule(fired::countDown, 50, TimeUnit.MILLISECONDS);
+
+            assertTrue(fired.await(5, TimeUnit.SECONDS));
+        } finally {
+            scheduler.shutdown();
+            executor.shutdown();
+        }
+    }
+
+    @Test(timeOut = 10000)
+    public void testRejectedBatchStillExpires() throws InterruptedException {
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        executor.shutdown();
+
+        PublishingScheduler scheduler = new PublishingScheduler(executor);
+        scheduler.startup();
+
+        try {
+            // the worker survives the first rejection and keeps firing later timers.
+            CountDownLatch first = new CountDownLatch(1);
+            scheduler.schedule(first::countDown, 0, TimeUnit.MILLISECONDS);
+            assertTrue(first.await(5, TimeUnit.SECONDS));
+
+            CountDownLatch second = new CountDownLatch(1);
+            scheduler.schedule(second::countDown, 20, TimeUnit.MILLISECONDS);
+            assertTrue(second.await(5, TimeUnit.SECONDS));
+        } finally {
+            scheduler.shutdown();
+        }
+    }
+
+}
@@ -0,0 +1,96 @@
+/*
+ * digitalpetri OPC-UA SDK
+ *
+ * Copyright (C) 2015 Kevin Herron
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.digitalpetri.opcua.sdk.server.subscriptions;
+
+import com.codahale.metrics.Counter;
+import com.digitalpetri.opcua.stack.core.types.builtin.DateTime;
+import com.digitalpetri.opcua.stack.core.types.builtin.ExtensionObject;
+import com.digitalpetri.opcua.stack.core.types.builtin.unsigned.UInteger;
+import com.digitalpetri.opcua.stack.core.types.structured.NotificationMessage;
+import org.testng.annotations.Test;
+
+import static com.digitalpetri.opcua.stack.core.types.builtin.unsigned.Unsigned.uint;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNotNull;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+
+public class RetransmissionQueueTest {
+
+    @Test
+    public void testEvictsOldestWhenFull() {
+        Counter memory = new Counter();
+        RetransmissionQueue queue = new RetransmissionQueue(3, Long.MAX_VALUE, memory);
+
+        for (long i = 1; i <= 5; i++) {
+            queue.add(message(i));
+        }
+
+        assertEquals(queue.getSequenceNumbers(), new UInteger[]{uint(3), uint(4), uint(5)});
+        assertNull(queue.get(uint(2)));
+        assertNotNull(queue.get(uint(3)));
+        assertEquals(memory.getCount(), queue.getEstimatedBytes());
+    }
+
+    @Test
+    public void testOutOfOrderAcknowledgement() {
+        Counter memory = new Counter();
+        RetransmissionQueue queue = new RetransmissionQueue(3, Long.MAX_VALUE, memory);
+
+        queue.add(message(1));
+        queue.add(message(2));
+        queue.add(message(3));
+
+        assertTrue(queue.remove(uint(2)));
+        assertFalse(queue.remove(uint(2)));
+
+        queue.add(message(4));
+
+        assertEquals(queue.getSequenceNumbers(), new UInteger[]{uint(1), uint(3), uint(4)});
+
+        queue.add(message(5));
+
+        assertEquals(queue.getSequenceNumbers(), new UInteger[]{uint(3), uint(4), uint(5)});
+        assertNotNull(queue.get(uint(5)));
+
+        queue.clear();
+
+        assertEquals(queue.size(), 0);
+        assertEquals(memory.getCount(), 0L);
+    }
+
+    @Test
+    public void testEvictsOldestWhenOverBytes() {
+        Counter memory = new Counter();
+        RetransmissionQueue queue = new RetransmissionQueue(100, 0L, memory);
+
+        queue.add(message(1));
+        queue.add(message(2));
+
+        // a single message is always retained, even when it alone exceeds the byte limit.
+        assertEquals(queue.getSequenceNumbers(), new UInteger[]{uint(2)});
+    }
+
+    private static NotificationMessage message(long sequenceNumber) {
+        return new NotificationMessage(uint(sequenceNumber), DateTime.now(), new ExtensionObject[0]);
+    }
+
+}
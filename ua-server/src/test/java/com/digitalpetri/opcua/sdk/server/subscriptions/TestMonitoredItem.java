@@ -0,0 +1,63 @@
+/*
+ * digitalpetri OPC-UA SDK
+ *
+ * Copyright (C) 2015 Kevin Herron
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.digitalpetri.opcua.sdk.server.subscriptions;
+
+import com.digitalpetri.opcua.sdk.server.items.BaseMonitoredItem;
+import com.digitalpetri.opcua.stack.core.serialization.UaStructure;
+import com.digitalpetri.opcua.stack.core.types.builtin.ExtensionObject;
+import com.digitalpetri.opcua.stack.core.types.enumerated.MonitoringMode;
+import com.digitalpetri.opcua.stack.core.types.enumerated.TimestampsToReturn;
+
+import static com.digitalpetri.opcua.stack.core.types.builtin.unsigned.Unsigned.uint;
+
+/**
+ * A reporting {@link BaseMonitoredItem} that ignores its values, identified only by its id.
+ */
+class TestMonitoredItem extends BaseMonitoredItem<Object> {
+
+    TestMonitoredItem(long id) {
+        super(uint(id), uint(1), null, MonitoringMode.Reporting, TimestampsToReturn.Both,
+                uint(id), 0.0, uint(1), true);
+    }
+
+    @Override
+    public boolean isSamplingEnabled() {
+        return true;
+    }
+
+    @Override
+    protected void enqueue(Object value) {
+    }
+
+    @Override
+    public ExtensionObject getFilterResult() {
+        return null;
+    }
+
+    @Override
+    protected void installFilter(ExtensionObject filterXo) {
+    }
+
+    @Override
+    protected UaStructure wrapQueueValue(Object value) {
+        return null;
+    }
+
+}
@@ -0,0 +1,147 @@
+/*
+ * digitalpetri OPC-UA SDK
+ *
+ * Copyright (C) 2015 Kevin Herron
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.digitalpetri.opcua.sdk.server.subscriptions;
+
+import java.util.List;
+import java.util.Set;
+
+import com.digitalpetri.opcua.sdk.server.items.BaseMonitoredItem;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+import org.testng.annotations.Test;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+public class TriggeringGraphTest {
+
+    @Test
+    public void testLinkAndFire() {
+        TriggeringGraph graph = new TriggeringGraph();
+        TestMonitoredItem a = new TestMonitoredItem(1), b = new TestMonitoredItem(2), c = new TestMonitoredItem(3);
+
+        graph.add(Lists.newArrayList(a, b, c));
+
+        assertResults(graph.link(a, Lists.newArrayList(b, c)), true, true);
+        assertResults(graph.link(a, Lists.newArrayList(b)), true);
+
+        graph.fire(a.getTriggeringSlot());
+
+        assertFalse(a.isTriggered());
+        assertTrue(b.isTriggered());
+        assertTrue(c.isTriggered());
+    }
+
+    @Test
+    public void testInvalidIds() {
+        TriggeringGraph graph = new TriggeringGraph();
+        TestMonitoredItem a = new TestMonitoredItem(1), b = new TestMonitoredItem(2), c = new TestMonitoredItem(3);
+        TestMonitoredItem outsider = new TestMonitoredItem(4);
+
+        graph.add(Lists.newArrayList(a, b, c));
+
+        // a trigger that isn't in the graph links nothing.
+        assertResults(graph.link(outsider, Lists.newArrayList(b)), false);
+        assertResults(graph.unlink(outsider, Lists.newArrayList(b)), false);
+
+        // unknown ids arrive as null entries; items of another graph don't resolve.
+        assertResults(graph.link(a, Lists.newArrayList(null, outsider, b)), false, false, true);
+
+        // only links that exist are removed.
+        assertResults(graph.unlink(a, Lists.newArrayList(null, outsider, c, b)), false, false, false, true);
+        assertResults(graph.unlink(a, Lists.newArrayList(b)), false);
+
+        graph.fire(a.getTriggeringSlot());
+        graph.fire(-1);
+        graph.fire(Integer.MAX_VALUE);
+
+        assertFalse(b.isTriggered());
+        assertFalse(c.isTriggered());
+    }
+
+    @Test
+    public void testRemovedItemLeavesNoStaleLinks() {
+        TriggeringGraph graph = new TriggeringGraph();
+        TestMonitoredItem a = new TestMonitoredItem(1), b = new TestMonitoredItem(2), c = new TestMonitoredItem(3);
+
+        graph.add(Lists.newArrayList(a, b, c));
+        graph.link(a, Lists.newArrayList(b));
+        graph.link(b, Lists.newArrayList(c));
+
+        int slotOfB = b.getTriggeringSlot();
+        graph.remove(Lists.newArrayList(b));
+        assertEquals(b.getTriggeringSlot(), -1);
+
+        // the new item reuses b's slot but none of its links, in either direction.
+        TestMonitoredItem d = new TestMonitoredItem(4);
+        graph.add(Lists.newArrayList(d));
+        assertEquals(d.getTriggeringSlot(), slotOfB);
+
+        graph.fire(a.getTriggeringSlot());
+        graph.fire(d.getTriggeringSlot());
+
+        assertFalse(d.isTriggered());
+        assertFalse(c.isTriggered());
+        assertResults(graph.unlink(a, Lists.newArrayList(d)), false);
+
+        // the removed item itself no longer resolves.
+        assertResults(graph.link(a, Lists.newArrayList(b)), false);
+        assertResults(graph.link(b, Lists.newArrayList(c)), false);
+    }
+
+    @Test
+    public void testGrowth() {
+        TriggeringGraph graph = new TriggeringGraph();
+        List<TestMonitoredItem> items = Lists.newArrayList();
+
+        // one batch that fits, then a batch that has to grow the table more than twofold.
+        for (int i = 0; i < 10; i++) items.add(new TestMonitoredItem(i));
+        graph.add(Lists.newArrayList(items));
+
+        for (int i = 10; i < 50; i++) items.add(new TestMonitoredItem(i));
+        graph.add(Lists.newArrayList(items.subList(10, 50)));
+
+        Set<Integer> slots = Sets.newHashSet();
+        items.forEach(item -> slots.add(item.getTriggeringSlot()));
+        assertEquals(slots.size(), items.size());
+
+        TestMonitoredItem trigger = items.get(0);
+        List<BaseMonitoredItem<?>> linked = Lists.newArrayList(items.subList(16, 50));
+        boolean[] results = graph.link(trigger, linked);
+
+        for (boolean result : results) assertTrue(result);
+
+        graph.fire(trigger.getTriggeringSlot());
+
+        for (int i = 0; i < items.size(); i++) {
+            assertEquals(items.get(i).isTriggered(), i >= 16, "item " + i);
+        }
+    }
+
+    private static void assertResults(boolean[] results, boolean... expected) {
+        assertEquals(results.length, expected.length);
+
+        for (int i = 0; i < expected.length; i++) {
+            assertEquals(results[i], expected[i], "result " + i);
+        }
+    }
+
+}
@@ -0,0 +1,228 @@
+/*
+ * digitalpetri OPC-UA SDK
+ *
+ * Copyright (C) 2015 Kevin Herron
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.digitalpetri.opcua.sdk.server.util;
+
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.IntFunction;
+import java.util.function.UnaryOperator;
+
+import com.digitalpetri.opcua.stack.core.Identifiers;
+import com.digitalpetri.opcua.stack.core.types.builtin.DataValue;
+import com.digitalpetri.opcua.stack.core.types.builtin.StatusCode;
+import com.digitalpetri.opcua.stack.core.types.builtin.Variant;
+import com.google.common.collect.Lists;
+import org.testng.annotations.Test;
+
+import static com.digitalpetri.opcua.stack.core.types.builtin.unsigned.Unsigned.ubyte;
+import static com.digitalpetri.opcua.stack.core.types.builtin.unsigned.Unsigned.uint;
+import static com.digitalpetri.opcua.stack.core.types.builtin.unsigned.Unsigned.ushort;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+
+public class ConcurrentValueQueueTest {
+
+    private static final UnaryOperator<DataValue> SET_OVERFLOW =
+            value -> value.withStatus(value.getStatusCode().withOverflow());
+
+    @Test
+    public void testFifoOrder() {
+        ConcurrentRingBuffer<Integer> queue = new ConcurrentRingBuffer<>(3);
+
+        // wrap around the end of the slots a few times.
+        for (int round = 0; round < 4; round++) {
+            for (int i = 0; i < 3; i++) {
+                assertFalse(queue.offer(round * 3 + i, true, UnaryOperator.identity()));
+            }
+
+            assertEquals(queue.size(), 3);
+
+            for (int i = 0; i < 3; i++) {
+                assertEquals(queue.poll(), Integer.valueOf(round * 3 + i));
+            }
+
+            assertNull(queue.poll());
+            assertTrue(queue.isEmpty());
+        }
+    }
+
+    @Test
+    public void testOverflowDiscardOldest() {
+        ConcurrentRingBuffer<DataValue> queue = new ConcurrentRingBuffer<>(3);
+
+        for (int i = 0; i < 3; i++) {
+            assertFalse(queue.offer(value(i), true, SET_OVERFLOW));
+        }
+
+        assertTrue(queue.offer(value(3), true, SET_OVERFLOW));
+        assertEquals(queue.size(), 3);
+
+        // as with RingBuffer.add() before, 0 is gone and the value that pushed it out carries the Overflow bit.
+        assertValue(queue.poll(), 1, false);
+        assertValue(queue.poll(), 2, false);
+        assertValue(queue.poll(), 3, true);
+        assertNull(queue.poll());
+    }
+
+    @Test
+    public void testOverflowReplaceNewest() {
+        ConcurrentRingBuffer<DataValue> queue = new ConcurrentRingBuffer<>(3);
+
+        for (int i = 0; i < 3; i++) {
+            assertFalse(queue.offer(value(i), false, SET_OVERFLOW));
+        }
+
+        assertTrue(queue.offer(value(3), false, SET_OVERFLOW));
+        assertTrue(queue.offer(value(4), false, SET_OVERFLOW));
+        assertEquals(queue.size(), 3);
+
+        // as with RingBuffer.set(maxSize - 1) before, the newest slot is replaced by a value carrying the Overflow bit.
+        assertValue(queue.poll(), 0, false);
+        assertValue(queue.poll(), 1, false);
+        assertValue(queue.poll(), 4, true);
+        assertNull(queue.poll());
+    }
+
+    @Test
+    public void testClear() {
+        ConcurrentRingBuffer<Integer> queue = new ConcurrentRingBuffer<>(4);
+
+        queue.offer(1, true, UnaryOperator.identity());
+        queue.offer(2, true, UnaryOperator.identity());
+        queue.clear();
+
+        assertTrue(queue.isEmpty());
+        assertNull(queue.poll());
+        assertEquals(queue.maxSize(), 4);
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void testCapacityTooLarge() {
+        new ConcurrentRingBuffer<Integer>(ConcurrentValueQueue.MAX_CAPACITY + 1);
+    }
+
+    @Test(timeOut = 30000)
+    public void testConcurrentProducerConsumer() throws Exception {
+        for (boolean discardOldest : new boolean[]{true, false}) {
+            ConcurrentRingBuffer<Integer> queue = new ConcurrentRingBuffer<>(8);
+
+            List<Integer> consumed = stress(queue, discardOldest, 200000, Integer::valueOf);
+
+            // values arrive in order, at most once each, and the last value is never lost.
+            for (int i = 1; i < consumed.size(); i++) {
+                assertTrue(consumed.get(i) > consumed.get(i - 1), "discardOldest=" + discardOldest);
+            }
+
+            assertEquals(consumed.get(consumed.size() - 1), Integer.valueOf(199999));
+        }
+    }
+
+    @Test(timeOut = 30000)
+    public void testConcurrentNumericProducerConsumer() throws Exception {
+        NumericRingBuffer queue = new NumericRingBuffer(4);
+
+        // alternate kinds so a racing read can see one kind's bits under another's kind.
+        List<DataValue> consumed = stress(queue, true, 200000, i -> {
+            switch (i % 4) {
+                case 0:
+                    return new DataValue(new Variant(uint(0xFFFFFFFFL)));
+                case 1:
+                    return new DataValue(new Variant(ubyte(1)));
+                case 2:
+                    return new DataValue(new Variant(-1.0));
+                default:
+                    return new DataValue(new Variant(ushort(2)));
+            }
+        });
+
+        for (DataValue value : consumed) {
+            Object o = value.getValue().getValue();
+
+            assertTrue(o.equals(uint(0xFFFFFFFFL)) || o.equals(ubyte(1)) || o.equals(-1.0) || o.equals(ushort(2)),
+                    String.valueOf(o));
+        }
+    }
+
+    @Test
+    public void testNumericRingBufferOnlyForNumericDataTypes() {
+        assertTrue(NumericRingBuffer.isSupported(Identifiers.Double));
+        assertTrue(NumericRingBuffer.isSupported(Identifiers.UInt16));
+        assertTrue(NumericRingBuffer.isSupported(Identifiers.Number));
+
+        assertFalse(NumericRingBuffer.isSupported(Identifiers.String));
+        assertFalse(NumericRingBuffer.isSupported(Identifiers.ByteString));
+        assertFalse(NumericRingBuffer.isSupported(null));
+    }
+
+    /**
+     * Offer {@code count} values from one thread while another polls, then drain what's left.
+     */
+    private static <E> List<E> stress(ConcurrentValueQueue<E> queue,
+                                      boolean discardOldest,
+                                      int count,
+                                      IntFunction<E> values) throws Exception {
+
+        List<E> consumed = Lists.newArrayList();
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        CountDownLatch produced = new CountDownLatch(1);
+
+        Thread consumer = new Thread(() -> {
+            try {
+                while (produced.getCount() > 0) {
+                    E value = queue.poll();
+                    if (value != null) consumed.add(value);
+                }
+            } catch (Throwable t) {
+                failure.set(t);
+            }
+        });
+
+        consumer.start();
+
+        for (int i = 0; i < count; i++) {
+            queue.offer(values.apply(i), discardOldest, UnaryOperator.identity());
+        }
+
+        produced.countDown();
+        consumer.join();
+
+        if (failure.get() != null) throw new AssertionError(failure.get());
+
+        E value;
+        while ((value = queue.poll()) != null) {
+            consumed.add(value);
+        }
+
+        return consumed;
+    }
+
+    private static DataValue value(int i) {
+        return new DataValue(new Variant(i), StatusCode.GOOD);
+    }
+
+    private static void assertValue(DataValue value, int expected, boolean overflow) {
+        assertEquals(value.getValue().getValue(), expected);
+        assertEquals(value.getStatusCode().isOverflowSet(), overflow);
+    }
+
+}